@@ -23,6 +23,35 @@ dependencies {
   implementation(platform("org.springframework.session:spring-session-bom:Dragonfruit-SR1"))
   implementation("org.springframework.session:spring-session-core")
   implementation("org.springframework.session:spring-session-data-redis")
+
+  testImplementation(platform("org.junit:junit-bom:5.7.0"))
+  testImplementation("org.junit.jupiter:junit-jupiter")
+}
+
+tasks.test {
+  useJUnitPlatform()
+}
+
+val simulation: SourceSet by sourceSets.creating {
+  compileClasspath += sourceSets.main.get().output
+  runtimeClasspath += sourceSets.main.get().output
+}
+
+configurations[simulation.implementationConfigurationName].extendsFrom(configurations.implementation.get())
+configurations[simulation.runtimeOnlyConfigurationName].extendsFrom(configurations.runtimeOnly.get())
+
+tasks.register<JavaExec>("simulate") {
+  description = "Runs the load simulation, settings can be passed with --args=\"threads=64 switchRatio=0.1\""
+  group = "verification"
+  classpath = simulation.runtimeClasspath
+  main = "org.springframework.session.sticky.simulation.LoadSimulation"
+}
+
+tasks.register<JavaExec>("benchmarkSerialization") {
+  description = "Compares JDK and compact serialization of session attributes"
+  group = "verification"
+  classpath = simulation.runtimeClasspath
+  main = "org.springframework.session.sticky.simulation.SerializationBenchmark"
 }
 
 tasks.register<Jar>("sourcesJar") {
@@ -0,0 +1,430 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.data.redis;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link RedisSerializer} for session attribute values with a compact binary encoding, which is faster and smaller
+ * than JDK serialization for the types commonly stored in sessions.
+ * <p>
+ * Strings, boxed integers, longs, doubles and booleans, byte arrays, and {@link ArrayList}s, {@link HashMap}s,
+ * {@link LinkedHashMap}s, {@link HashSet}s and {@link LinkedHashSet}s of such values are encoded natively. Other
+ * types can be {@linkplain #register(int, Class, Codec) registered} with an id and a {@link Codec}. Values of any other
+ * type are written with JDK serialization: at the top level, the result is exactly what
+ * {@link JdkSerializationRedisSerializer} writes, and values written by {@link JdkSerializationRedisSerializer} are
+ * detected by their stream header and read as well. This allows switching existing sessions to this serializer, but
+ * not back.
+ * <p>
+ * Registrations must be the same on all nodes sharing the sessions, and must be completed before the serializer is
+ * used. Serialization uses a reusable buffer per thread.
+ *
+ * @author Bernhard Frauendienst
+ */
+public final class CompactRedisSerializer implements RedisSerializer<Object> {
+
+  /**
+   * Writes and reads values of a registered type.
+   *
+   * @param <T> the registered type
+   */
+  public interface Codec<T> {
+
+    void write(T value, DataOutput output) throws IOException;
+
+    T read(DataInput input) throws IOException;
+  }
+
+  private static final byte[] EMPTY_ARRAY = new byte[0];
+
+  /**
+   * The first byte of {@link java.io.ObjectStreamConstants#STREAM_MAGIC}, which is never used as a tag
+   */
+  private static final int JDK_STREAM_MAGIC = 0xAC;
+
+  private static final int NULL = 0;
+
+  private static final int STRING = 1;
+
+  private static final int INTEGER = 2;
+
+  private static final int LONG = 3;
+
+  private static final int TRUE = 4;
+
+  private static final int FALSE = 5;
+
+  private static final int DOUBLE = 6;
+
+  private static final int BYTES = 7;
+
+  private static final int ARRAY_LIST = 8;
+
+  private static final int HASH_MAP = 9;
+
+  private static final int LINKED_HASH_MAP = 10;
+
+  private static final int HASH_SET = 11;
+
+  private static final int LINKED_HASH_SET = 12;
+
+  private static final int REGISTERED = 13;
+
+  private static final int JDK_SERIALIZED = 14;
+
+  private static final int INITIAL_BUFFER_SIZE = 256;
+
+  /**
+   * Buffers that have grown larger than this are not kept for the next value
+   */
+  private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+  private final RedisSerializer<Object> jdkSerializer;
+
+  private final Map<Class<?>, Registration<?>> registrationsByType = new HashMap<>();
+
+  private final Map<Integer, Registration<?>> registrationsById = new HashMap<>();
+
+  private final ThreadLocal<Output> outputs = ThreadLocal.withInitial(Output::new);
+
+  public CompactRedisSerializer() {
+    this(null);
+  }
+
+  /**
+   * @param classLoader the class loader used to read JDK-serialized values
+   */
+  public CompactRedisSerializer(@Nullable ClassLoader classLoader) {
+    this.jdkSerializer = new JdkSerializationRedisSerializer(classLoader);
+  }
+
+  /**
+   * Registers a type to be written by the given codec. Only values of exactly this type (not of subtypes) are written
+   * by the codec.
+   *
+   * @param id    the id identifying the type in serialized values, must be unique and non-negative
+   * @param type  the type
+   * @param codec the codec
+   * @param <T>   the type
+   */
+  public <T> void register(int id, Class<T> type, Codec<T> codec) {
+    Assert.isTrue(id >= 0, "id must not be negative");
+    Assert.notNull(type, "type cannot be null");
+    Assert.notNull(codec, "codec cannot be null");
+    Assert.isTrue(!registrationsById.containsKey(id), "id " + id + " is already registered");
+    Assert.isTrue(!registrationsByType.containsKey(type), type.getName() + " is already registered");
+    Registration<T> registration = new Registration<>(id, codec);
+    registrationsById.put(id, registration);
+    registrationsByType.put(type, registration);
+  }
+
+  @Override
+  public byte[] serialize(@Nullable Object value) throws SerializationException {
+    if (value == null) {
+      return EMPTY_ARRAY;
+    }
+    if (!isEncodedNatively(value.getClass()) && !registrationsByType.containsKey(value.getClass())) {
+      return jdkSerializer.serialize(value);
+    }
+    Output output = outputs.get();
+    if (output.inUse) {
+      // a codec uses this serializer itself
+      output = new Output();
+    }
+    output.inUse = true;
+    try {
+      write(value, output);
+      return output.toByteArray();
+    } catch (IOException e) {
+      throw new SerializationException("Cannot serialize value of type " + value.getClass().getName(), e);
+    } finally {
+      output.reset();
+      output.inUse = false;
+    }
+  }
+
+  @Override
+  @Nullable
+  public Object deserialize(@Nullable byte[] bytes) throws SerializationException {
+    if (bytes == null || bytes.length == 0) {
+      return null;
+    }
+    if ((bytes[0] & 0xFF) == JDK_STREAM_MAGIC) {
+      return jdkSerializer.deserialize(bytes);
+    }
+    try {
+      return read(new DataInputStream(new ByteArrayInputStream(bytes)));
+    } catch (IOException | RuntimeException e) {
+      throw new SerializationException("Cannot deserialize value", e);
+    }
+  }
+
+  private static boolean isEncodedNatively(Class<?> type) {
+    return type == String.class || type == Integer.class || type == Long.class || type == Boolean.class
+        || type == Double.class || type == byte[].class || type == ArrayList.class || type == HashMap.class
+        || type == LinkedHashMap.class || type == HashSet.class || type == LinkedHashSet.class;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void write(@Nullable Object value, Output output) throws IOException {
+    if (value == null) {
+      output.write(NULL);
+      return;
+    }
+    Class<?> type = value.getClass();
+    if (type == String.class) {
+      output.write(STRING);
+      writeBytes(((String) value).getBytes(StandardCharsets.UTF_8), output);
+    } else if (type == Integer.class) {
+      int intValue = (Integer) value;
+      output.write(INTEGER);
+      writeVarLong(((intValue << 1) ^ (intValue >> 31)) & 0xFFFFFFFFL, output);
+    } else if (type == Long.class) {
+      long longValue = (Long) value;
+      output.write(LONG);
+      writeVarLong((longValue << 1) ^ (longValue >> 63), output);
+    } else if (type == Boolean.class) {
+      output.write((Boolean) value ? TRUE : FALSE);
+    } else if (type == Double.class) {
+      output.write(DOUBLE);
+      output.data.writeDouble((Double) value);
+    } else if (type == byte[].class) {
+      output.write(BYTES);
+      writeBytes((byte[]) value, output);
+    } else if (type == ArrayList.class) {
+      output.write(ARRAY_LIST);
+      writeElements((Collection<?>) value, output);
+    } else if (type == HashSet.class) {
+      output.write(HASH_SET);
+      writeElements((Collection<?>) value, output);
+    } else if (type == LinkedHashSet.class) {
+      output.write(LINKED_HASH_SET);
+      writeElements((Collection<?>) value, output);
+    } else if (type == HashMap.class || type == LinkedHashMap.class) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      output.write(type == HashMap.class ? HASH_MAP : LINKED_HASH_MAP);
+      writeVarLong(map.size(), output);
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        write(entry.getKey(), output);
+        write(entry.getValue(), output);
+      }
+    } else {
+      Registration<Object> registration = (Registration<Object>) registrationsByType.get(type);
+      if (registration != null) {
+        output.write(REGISTERED);
+        writeVarLong(registration.id, output);
+        registration.codec.write(value, output.data);
+      } else {
+        output.write(JDK_SERIALIZED);
+        writeBytes(jdkSerializer.serialize(value), output);
+      }
+    }
+  }
+
+  private void writeElements(Collection<?> elements, Output output) throws IOException {
+    writeVarLong(elements.size(), output);
+    for (Object element : elements) {
+      write(element, output);
+    }
+  }
+
+  private static void writeBytes(byte[] bytes, Output output) {
+    writeVarLong(bytes.length, output);
+    output.write(bytes, 0, bytes.length);
+  }
+
+  private static void writeVarLong(long value, Output output) {
+    while ((value & ~0x7FL) != 0) {
+      output.write((int) (value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    output.write((int) value);
+  }
+
+  @Nullable
+  private Object read(DataInputStream input) throws IOException {
+    int tag = input.readUnsignedByte();
+    switch (tag) {
+      case NULL:
+        return null;
+      case STRING:
+        return new String(readBytes(input), StandardCharsets.UTF_8);
+      case INTEGER: {
+        int zigZag = (int) readVarLong(input);
+        return (zigZag >>> 1) ^ -(zigZag & 1);
+      }
+      case LONG: {
+        long zigZag = readVarLong(input);
+        return (zigZag >>> 1) ^ -(zigZag & 1);
+      }
+      case TRUE:
+        return Boolean.TRUE;
+      case FALSE:
+        return Boolean.FALSE;
+      case DOUBLE:
+        return input.readDouble();
+      case BYTES:
+        return readBytes(input);
+      case ARRAY_LIST: {
+        int size = readSize(input);
+        return readElements(input, size, new ArrayList<>(size));
+      }
+      case HASH_SET: {
+        int size = readSize(input);
+        return readElements(input, size, new HashSet<>(capacity(size)));
+      }
+      case LINKED_HASH_SET: {
+        int size = readSize(input);
+        return readElements(input, size, new LinkedHashSet<>(capacity(size)));
+      }
+      case HASH_MAP:
+      case LINKED_HASH_MAP: {
+        int size = readSize(input);
+        Map<Object, Object> map = tag == HASH_MAP ? new HashMap<>(capacity(size))
+            : new LinkedHashMap<>(capacity(size));
+        for (int i = 0; i < size; i++) {
+          map.put(read(input), read(input));
+        }
+        return map;
+      }
+      case REGISTERED: {
+        long id = readVarLong(input);
+        Registration<?> registration = registrationsById.get((int) id);
+        if (registration == null) {
+          throw new IOException("Unknown registered type id " + id);
+        }
+        return registration.codec.read(input);
+      }
+      case JDK_SERIALIZED:
+        return jdkSerializer.deserialize(readBytes(input));
+      default:
+        throw new IOException("Unknown tag " + tag);
+    }
+  }
+
+  private <C extends Collection<Object>> C readElements(DataInputStream input, int size, C elements)
+      throws IOException {
+    for (int i = 0; i < size; i++) {
+      elements.add(read(input));
+    }
+    return elements;
+  }
+
+  private static int capacity(int size) {
+    return (int) (size / 0.75f) + 1;
+  }
+
+  private static byte[] readBytes(DataInputStream input) throws IOException {
+    byte[] bytes = new byte[readSize(input)];
+    input.readFully(bytes);
+    return bytes;
+  }
+
+  private static int readSize(DataInputStream input) throws IOException {
+    long size = readVarLong(input);
+    if (size > input.available()) {
+      throw new IOException("Invalid size " + size);
+    }
+    return (int) size;
+  }
+
+  private static long readVarLong(DataInput input) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = input.readUnsignedByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed variable-length number");
+  }
+
+  private static final class Registration<T> {
+    final int id;
+
+    final Codec<T> codec;
+
+    Registration(int id, Codec<T> codec) {
+      this.id = id;
+      this.codec = codec;
+    }
+  }
+
+  /**
+   * An unsynchronized, growable byte buffer. Codecs write to it through {@link #data}.
+   */
+  private static final class Output extends OutputStream {
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+    private int size;
+
+    private boolean inUse;
+
+    final DataOutputStream data = new DataOutputStream(this);
+
+    @Override
+    public void write(int b) {
+      ensureCapacity(size + 1);
+      buffer[size++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+      ensureCapacity(size + length);
+      System.arraycopy(bytes, offset, buffer, size, length);
+      size += length;
+    }
+
+    private void ensureCapacity(int capacity) {
+      if (capacity > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+      }
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buffer, size);
+    }
+
+    void reset() {
+      size = 0;
+      if (buffer.length > MAX_RETAINED_BUFFER_SIZE) {
+        buffer = new byte[INITIAL_BUFFER_SIZE];
+      }
+    }
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.data.redis;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.lang.Nullable;
+import org.springframework.session.FindByIndexNameSessionRepository;
+import org.springframework.session.MapSession;
+import org.springframework.session.sticky.PartialSession;
+import org.springframework.session.sticky.PartialSessionLoader;
+
+/**
+ * Redis implementation of {@link PartialSessionLoader}. Sessions are loaded with their metadata and a set of eagerly
+ * loaded attributes by a single script, which also returns the names of all other attributes. The principal name and
+ * security context attributes are always loaded eagerly, because {@link RedisIndexedSessionRepository} needs them to
+ * maintain its principal index.
+ *
+ * @author Bernhard Frauendienst
+ */
+final class RedisPartialSessionLoader implements PartialSessionLoader {
+
+  private static final String SPRING_SECURITY_CONTEXT = "SPRING_SECURITY_CONTEXT";
+
+  /**
+   * Returns the fields of the session hash and the values of the requested fields, or nil if the session does not
+   * exist. KEYS: session key, ARGV: fields to load
+   */
+  @SuppressWarnings("rawtypes")
+  private static final RedisScript<List> LOAD_SCRIPT = new DefaultRedisScript<>(
+      "local fields = redis.call('HKEYS', KEYS[1]) "
+          + "if #fields == 0 then return nil end "
+          + "return { fields, redis.call('HMGET', KEYS[1], unpack(ARGV)) }", List.class);
+
+  private final RedisIndexedSessionRepository repository;
+
+  private final Set<String> eagerAttributeNames;
+
+  RedisPartialSessionLoader(RedisIndexedSessionRepository repository, Collection<String> eagerAttributeNames) {
+    this.repository = repository;
+    Set<String> attributeNames = new LinkedHashSet<>();
+    attributeNames.add(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME);
+    attributeNames.add(SPRING_SECURITY_CONTEXT);
+    attributeNames.addAll(eagerAttributeNames);
+    this.eagerAttributeNames = attributeNames;
+  }
+
+  @Override
+  @Nullable
+  public PartialSession findPartialById(String id) {
+    return findPartialById(id, repository.getSessionRedisOperations());
+  }
+
+  /**
+   * Loads the session with the given operations, which must use the serializers of the repository's operations.
+   */
+  @Nullable
+  PartialSession findPartialById(String id, RedisOperations<Object, Object> redisOperations) {
+    @SuppressWarnings("unchecked")
+    RedisSerializer<Object> hashKeySerializer = (RedisSerializer<Object>) redisOperations.getHashKeySerializer();
+    @SuppressWarnings("unchecked")
+    RedisSerializer<Object> hashValueSerializer = (RedisSerializer<Object>) redisOperations.getHashValueSerializer();
+
+    List<Object> args = new ArrayList<>(eagerAttributeNames.size() + 3);
+    args.add(hashKeySerializer.serialize(RedisSessionMapper.CREATION_TIME_KEY));
+    args.add(hashKeySerializer.serialize(RedisSessionMapper.LAST_ACCESSED_TIME_KEY));
+    args.add(hashKeySerializer.serialize(RedisSessionMapper.MAX_INACTIVE_INTERVAL_KEY));
+    for (String attributeName : eagerAttributeNames) {
+      args.add(hashKeySerializer.serialize(RedisSessionMapper.ATTRIBUTE_PREFIX + attributeName));
+    }
+    // the result serializer is applied to the elements of the returned (nested) list
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    List<?> result = redisOperations.execute(LOAD_SCRIPT, RedisSerializer.byteArray(),
+        (RedisSerializer) RedisSerializer.byteArray(), Collections.singletonList(repository.getSessionKey(id)),
+        args.toArray());
+    if (result == null || result.size() != 2) {
+      return null;
+    }
+    List<?> fields = (List<?>) result.get(0);
+    List<?> values = (List<?>) result.get(1);
+
+    Object creationTime = deserialize(hashValueSerializer, values.get(0));
+    Object lastAccessedTime = deserialize(hashValueSerializer, values.get(1));
+    Object maxInactiveInterval = deserialize(hashValueSerializer, values.get(2));
+    if (creationTime == null || lastAccessedTime == null || maxInactiveInterval == null) {
+      throw new IllegalStateException("Session " + id + " is missing one of " + RedisSessionMapper.CREATION_TIME_KEY
+          + ", " + RedisSessionMapper.LAST_ACCESSED_TIME_KEY + " or " + RedisSessionMapper.MAX_INACTIVE_INTERVAL_KEY);
+    }
+    MapSession loaded = new MapSession(id);
+    loaded.setCreationTime(Instant.ofEpochMilli((Long) creationTime));
+    loaded.setLastAccessedTime(Instant.ofEpochMilli((Long) lastAccessedTime));
+    loaded.setMaxInactiveInterval(Duration.ofSeconds((Integer) maxInactiveInterval));
+    if (loaded.isExpired()) {
+      return null;
+    }
+    int index = 3;
+    for (String attributeName : eagerAttributeNames) {
+      Object value = deserialize(hashValueSerializer, values.get(index++));
+      if (value != null) {
+        loaded.setAttribute(attributeName, value);
+      }
+    }
+
+    Set<String> unloadedAttributeNames = new HashSet<>();
+    for (Object field : fields) {
+      Object key = deserialize(hashKeySerializer, field);
+      if (key instanceof String && ((String) key).startsWith(RedisSessionMapper.ATTRIBUTE_PREFIX)) {
+        String attributeName = ((String) key).substring(RedisSessionMapper.ATTRIBUTE_PREFIX.length());
+        if (!eagerAttributeNames.contains(attributeName)) {
+          unloadedAttributeNames.add(attributeName);
+        }
+      }
+    }
+    return new PartialSession(repository.new RedisSession(loaded, false), unloadedAttributeNames);
+  }
+
+  @Override
+  @Nullable
+  public Object loadAttribute(String sessionId, String attributeName) {
+    return loadAttribute(sessionId, attributeName, repository.getSessionRedisOperations());
+  }
+
+  @Nullable
+  Object loadAttribute(String sessionId, String attributeName, RedisOperations<Object, Object> redisOperations) {
+    return redisOperations.opsForHash()
+        .get(repository.getSessionKey(sessionId), RedisSessionMapper.ATTRIBUTE_PREFIX + attributeName);
+  }
+
+  @Nullable
+  private static Object deserialize(RedisSerializer<Object> serializer, @Nullable Object value) {
+    return value != null ? serializer.deserialize((byte[]) value) : null;
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.data.redis;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.lang.Nullable;
+import org.springframework.session.MapSession;
+import org.springframework.session.Session;
+import org.springframework.session.sticky.SessionChangeTracker;
+import org.springframework.session.sticky.SessionChanges;
+
+/**
+ * Redis implementation of {@link SessionChangeTracker}. Changes are tracked in a
+ * {@code <namespace>sessions:changes:<id>} hash, which maps the hash fields of changed attributes to the change
+ * version they were last changed in, and holds the current version and a random epoch. The epoch is renewed whenever
+ * the hash is re-created (e.g. after it has expired), so versions of different generations are never compared.
+ * <p>
+ * Change versions are represented as {@code <epoch>:<version>}, or as {@link #NEW_SESSION_VERSION} if no changes are
+ * tracked yet.
+ *
+ * @author Bernhard Frauendienst
+ */
+final class RedisSessionChangeTracker implements SessionChangeTracker {
+
+  /**
+   * Stamps the given fields with a new version, and returns the new version if the previous one was the known
+   * version, the known version otherwise. KEYS: changes key, ARGV: ttl millis (or 0), known version, epoch candidate,
+   * fields...
+   */
+  private static final RedisScript<String> MARK_SCRIPT = new DefaultRedisScript<>(
+      "local epoch = redis.call('HGET', KEYS[1], 'epoch') "
+          + "local current = '' "
+          + "if epoch then current = epoch .. ':' .. (redis.call('HGET', KEYS[1], 'version') or '0') "
+          + "else epoch = ARGV[3] redis.call('HSET', KEYS[1], 'epoch', epoch) end "
+          + "local version = redis.call('HINCRBY', KEYS[1], 'version', 1) "
+          + "for i = 4, #ARGV do redis.call('HSET', KEYS[1], ARGV[i], version) end "
+          + "if tonumber(ARGV[1]) > 0 then redis.call('PEXPIRE', KEYS[1], ARGV[1]) "
+          + "else redis.call('PERSIST', KEYS[1]) end "
+          + "if current == ARGV[2] then return epoch .. ':' .. version end "
+          + "return ARGV[2]", String.class);
+
+  private static final RedisScript<String> VERSION_SCRIPT = new DefaultRedisScript<>(
+      "local epoch = redis.call('HGET', KEYS[1], 'epoch') "
+          + "if not epoch then return '' end "
+          + "return epoch .. ':' .. (redis.call('HGET', KEYS[1], 'version') or '0')", String.class);
+
+  /**
+   * Returns the current version, the requested fields and their values in the session hash, if the given version is
+   * of the current epoch. The first two fields are always lastAccessedTime and maxInactiveInterval.
+   * KEYS: changes key, session key, ARGV: since version, lastAccessedTime field, maxInactiveInterval field
+   */
+  @SuppressWarnings("rawtypes")
+  private static final RedisScript<List> LOAD_SCRIPT = new DefaultRedisScript<>(
+      "local epoch = redis.call('HGET', KEYS[1], 'epoch') "
+          + "local version = redis.call('HGET', KEYS[1], 'version') "
+          + "if not epoch or not version then return nil end "
+          + "local separator = string.find(ARGV[1], ':', 1, true) "
+          + "if not separator or string.sub(ARGV[1], 1, separator - 1) ~= epoch then return nil end "
+          + "local since = tonumber(string.sub(ARGV[1], separator + 1)) "
+          + "if tonumber(version) < since then return nil end "
+          + "local stamps = redis.call('HGETALL', KEYS[1]) "
+          + "local fields = { ARGV[2], ARGV[3] } "
+          + "for i = 1, #stamps, 2 do "
+          + "if stamps[i] ~= 'epoch' and stamps[i] ~= 'version' and tonumber(stamps[i + 1]) >= since then "
+          + "fields[#fields + 1] = stamps[i] end end "
+          + "local values = redis.call('HMGET', KEYS[2], unpack(fields)) "
+          + "if not values[1] then return nil end "
+          + "return { epoch .. ':' .. version, fields, values }", List.class);
+
+  private final RedisIndexedSessionRepository repository;
+
+  RedisSessionChangeTracker(RedisIndexedSessionRepository repository) {
+    this.repository = repository;
+  }
+
+  String getChangesKey(String sessionId) {
+    return repository.getSessionKey("changes:" + sessionId);
+  }
+
+  @Override
+  public String getChangeVersion(String sessionId) {
+    String version = repository.getSessionRedisOperations().execute(VERSION_SCRIPT, RedisSerializer.byteArray(),
+        RedisSerializer.string(), Collections.singletonList(getChangesKey(sessionId)));
+    return version != null ? version : NEW_SESSION_VERSION;
+  }
+
+  @Override
+  public String markChanged(String sessionId, Set<String> attributeNames, Duration maxInactiveInterval,
+      @Nullable String knownVersion) {
+    // the hash outlives the session by the same period as the expiration key of RedisIndexedSessionRepository
+    long ttlMillis = maxInactiveInterval.isNegative() ? 0
+        : maxInactiveInterval.toMillis() + TimeUnit.MINUTES.toMillis(5);
+    List<Object> args = new ArrayList<>(attributeNames.size() + 3);
+    args.add(bytes(Long.toString(ttlMillis)));
+    args.add(bytes(knownVersion != null ? knownVersion : NEW_SESSION_VERSION));
+    args.add(bytes(Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36)));
+    RedisSerializer<Object> hashKeySerializer = hashKeySerializer();
+    for (String attributeName : attributeNames) {
+      args.add(hashKeySerializer.serialize(RedisSessionMapper.ATTRIBUTE_PREFIX + attributeName));
+    }
+    String version = repository.getSessionRedisOperations().execute(MARK_SCRIPT, RedisSerializer.byteArray(),
+        RedisSerializer.string(), Collections.singletonList(getChangesKey(sessionId)), args.toArray());
+    return version != null ? version : knownVersion;
+  }
+
+  @Override
+  @Nullable
+  public SessionChanges loadChanges(String sessionId, String sinceVersion) {
+    RedisOperations<Object, Object> redisOperations = repository.getSessionRedisOperations();
+    RedisSerializer<Object> hashKeySerializer = hashKeySerializer();
+    List<Object> keys = new ArrayList<>(2);
+    keys.add(getChangesKey(sessionId));
+    keys.add(repository.getSessionKey(sessionId));
+    // the result serializer is applied to the elements of the returned (nested) list
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    List<?> result = redisOperations.execute(LOAD_SCRIPT, RedisSerializer.byteArray(),
+        (RedisSerializer) RedisSerializer.byteArray(), keys, bytes(sinceVersion), hashKeySerializer.serialize(RedisSessionMapper.LAST_ACCESSED_TIME_KEY),
+        hashKeySerializer.serialize(RedisSessionMapper.MAX_INACTIVE_INTERVAL_KEY));
+    if (result == null || result.size() != 3) {
+      return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    RedisSerializer<Object> hashValueSerializer = (RedisSerializer<Object>) redisOperations.getHashValueSerializer();
+    String version = new String((byte[]) result.get(0), StandardCharsets.UTF_8);
+    List<?> fields = (List<?>) result.get(1);
+    List<?> values = (List<?>) result.get(2);
+    Long lastAccessedTime = (Long) hashValueSerializer.deserialize((byte[]) values.get(0));
+    Number maxInactiveInterval = (Number) hashValueSerializer.deserialize((byte[]) values.get(1));
+    if (lastAccessedTime == null || maxInactiveInterval == null) {
+      return null;
+    }
+
+    Map<String, Object> changedAttributes = new HashMap<>();
+    for (int i = 2; i < fields.size(); i++) {
+      String field = (String) hashKeySerializer.deserialize((byte[]) fields.get(i));
+      if (field == null || !field.startsWith(RedisSessionMapper.ATTRIBUTE_PREFIX)) {
+        continue;
+      }
+      Object value = values.get(i);
+      changedAttributes.put(field.substring(RedisSessionMapper.ATTRIBUTE_PREFIX.length()),
+          value != null ? hashValueSerializer.deserialize((byte[]) value) : null);
+    }
+    return new SessionChanges(version, Instant.ofEpochMilli(lastAccessedTime),
+        Duration.ofSeconds(maxInactiveInterval.longValue()), changedAttributes);
+  }
+
+  @Override
+  public Session restoreSession(MapSession session) {
+    return repository.new RedisSession(new MapSession(session), false);
+  }
+
+  @SuppressWarnings("unchecked")
+  private RedisSerializer<Object> hashKeySerializer() {
+    return (RedisSerializer<Object>) repository.getSessionRedisOperations().getHashKeySerializer();
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.data.redis;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.session.FindByIndexNameSessionRepository;
+import org.springframework.session.IndexResolver;
+import org.springframework.session.MapSession;
+import org.springframework.session.Session;
+import org.springframework.session.sticky.SessionExpiryConfirmer;
+
+/**
+ * Redis implementation of the {@link SessionExpiryConfirmer} operations. Sessions are loaded with a pipelined
+ * {@code HGETALL} per session. Expiry events are claimed by setting a {@code <namespace>sessions:expired-event:<id>}
+ * key holding the id of the claiming node ({@code SET NX}), which outlives the session hash, so no other node can
+ * claim the same event. The claiming node then removes the session from the principal index, as
+ * {@link RedisIndexedSessionRepository} does when it receives an expiry notification.
+ *
+ * @author Bernhard Frauendienst
+ */
+final class RedisSessionExpiryConfirmer {
+
+  private static final Log logger = LogFactory.getLog(RedisSessionExpiryConfirmer.class);
+
+  /**
+   * Claims are kept for ten minutes, longer than the session hash outlives the session (five minutes), so an event
+   * cannot be claimed again while the expired session can still be found
+   */
+  private static final long CLAIM_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+  private final RedisIndexedSessionRepository repository;
+
+  RedisSessionExpiryConfirmer(RedisIndexedSessionRepository repository) {
+    this.repository = repository;
+  }
+
+  String getClaimKey(String sessionId) {
+    return repository.getSessionKey("expired-event:" + sessionId);
+  }
+
+  Map<String, Session> findSessionsById(Collection<String> sessionIds) {
+    List<String> ids = new ArrayList<>(sessionIds);
+    RedisOperations<Object, Object> redisOperations = repository.getSessionRedisOperations();
+    RedisSerializer<String> keySerializer = keySerializer();
+    // hash results are deserialized with the hash key and value serializers
+    List<Object> results = redisOperations.executePipelined((RedisCallback<Object>) (RedisConnection connection) -> {
+      for (String sessionId : ids) {
+        connection.hGetAll(keySerializer.serialize(repository.getSessionKey(sessionId)));
+      }
+      return null;
+    });
+
+    Map<String, Session> sessions = new HashMap<>();
+    for (int i = 0; i < ids.size(); i++) {
+      String sessionId = ids.get(i);
+      Object result = results.get(i);
+      if (!(result instanceof Map) || ((Map<?, ?>) result).isEmpty()) {
+        continue;
+      }
+      @SuppressWarnings("unchecked")
+      Map<String, Object> entries = (Map<String, Object>) result;
+      try {
+        MapSession session = new RedisSessionMapper(sessionId).apply(entries);
+        sessions.put(sessionId, repository.new RedisSession(session, false));
+      } catch (IllegalStateException e) {
+        // the hash is incomplete, e.g. because it has only been partially written by a concurrent rename
+        if (logger.isDebugEnabled())
+          logger.debug("Could not load session " + sessionId + " to confirm its expiry.", e);
+      }
+    }
+    return sessions;
+  }
+
+  Set<String> claimExpiryEvents(Collection<Session> expiredSessions, String nodeId,
+      IndexResolver<Session> indexResolver) {
+    List<Session> sessions = new ArrayList<>(expiredSessions);
+    byte[] owner = nodeId.getBytes(StandardCharsets.UTF_8);
+    RedisOperations<Object, Object> redisOperations = repository.getSessionRedisOperations();
+    RedisSerializer<String> keySerializer = keySerializer();
+    // the claim key and the principal key are in different hash slots, so they are updated by separate commands
+    List<Object> results = redisOperations.executePipelined((RedisCallback<Object>) (RedisConnection connection) -> {
+      for (Session session : sessions) {
+        connection.set(keySerializer.serialize(getClaimKey(session.getId())), owner,
+            Expiration.milliseconds(CLAIM_MILLIS), RedisStringCommands.SetOption.ifAbsent());
+      }
+      return null;
+    });
+
+    Set<String> claimed = new HashSet<>();
+    Map<String, String> principalNames = new HashMap<>();
+    for (int i = 0; i < sessions.size(); i++) {
+      Object result = results.get(i);
+      if (Boolean.TRUE.equals(result)) {
+        Session session = sessions.get(i);
+        claimed.add(session.getId());
+        String principalName = indexResolver.resolveIndexesFor(session)
+            .get(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME);
+        if (principalName != null) {
+          principalNames.put(session.getId(), principalName);
+        }
+      }
+    }
+
+    if (!principalNames.isEmpty()) {
+      // principal index members are stored with the value serializer
+      @SuppressWarnings("unchecked")
+      RedisSerializer<Object> valueSerializer = (RedisSerializer<Object>) redisOperations.getValueSerializer();
+      redisOperations.executePipelined((RedisCallback<Object>) (RedisConnection connection) -> {
+        principalNames.forEach((sessionId, principalName) -> connection.sRem(
+            keySerializer.serialize(repository.getPrincipalKey(principalName)), valueSerializer.serialize(sessionId)));
+        return null;
+      });
+    }
+    return claimed;
+  }
+
+  @SuppressWarnings("unchecked")
+  private RedisSerializer<String> keySerializer() {
+    return (RedisSerializer<String>) repository.getSessionRedisOperations().getKeySerializer();
+  }
+}
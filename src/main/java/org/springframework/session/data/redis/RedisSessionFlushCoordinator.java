@@ -0,0 +1,258 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.data.redis;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.session.sticky.SessionFlushCoordinator;
+
+/**
+ * Redis implementation of {@link SessionFlushCoordinator}. Unsaved sessions are marked by
+ * {@code <namespace>sessions:unsaved:<id>} keys holding the id of the node with the pending changes.
+ * <p>
+ * Flush requests are published to the {@code <namespace>sticky:flush:<nodeId>} channel of the marking node, by the
+ * same script that reads the mark. After flushing, that node publishes the session id to the shared
+ * {@code <namespace>sticky:flushed} channel, which completes the waiting request. If the changes could not be saved,
+ * it publishes the session id to the {@code <namespace>sticky:flush-failed} channel instead, so the requesting node
+ * does not have to wait for the timeout.
+ * <p>
+ * Marks are set and removed asynchronously, in order, by a single background thread, so saving a session does not
+ * wait for a Redis round trip. Until a mark has been written, other nodes may load the previously saved state.
+ *
+ * @author Bernhard Frauendienst
+ */
+final class RedisSessionFlushCoordinator implements SessionFlushCoordinator, MessageListener {
+
+  private static final Log logger = LogFactory.getLog(RedisSessionFlushCoordinator.class);
+
+  private static final RedisSerializer<Long> LONG_SERIALIZER = new GenericToStringSerializer<>(Long.class);
+
+  private static final RedisScript<Long> MARK_UNSAVED_SCRIPT = new DefaultRedisScript<>(
+      "if tonumber(ARGV[2]) > 0 then redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[2]) "
+          + "else redis.call('SET', KEYS[1], ARGV[1]) end return 1", Long.class);
+
+  private static final RedisScript<Long> MARK_SAVED_SCRIPT = new DefaultRedisScript<>(
+      "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end return 0", Long.class);
+
+  /**
+   * Publishes a flush request to the node holding the mark, if it is not this node. Returns 0 if there is nothing to
+   * flush, otherwise 1 + the number of nodes that received the request. KEYS: unsaved key, ARGV: this node's id,
+   * flush channel prefix, session id
+   */
+  private static final RedisScript<Long> REQUEST_FLUSH_SCRIPT = new DefaultRedisScript<>(
+      "local owner = redis.call('GET', KEYS[1]) "
+          + "if not owner or owner == ARGV[1] then return 0 end "
+          + "return 1 + redis.call('PUBLISH', ARGV[2] .. owner, ARGV[3])", Long.class);
+
+  /**
+   * Marks that are dropped beyond this backlog only cause a needless flush request (if a removal is dropped) or a
+   * load without flush request (if a mark is dropped), both of which are harmless while Redis cannot keep up.
+   */
+  private static final int MAX_PENDING_MARKS = 10_000;
+
+  private final RedisIndexedSessionRepository repository;
+
+  private final String nodeId;
+
+  private final long flushTimeoutNanos;
+
+  private final RedisMessageListenerContainer listenerContainer;
+
+  private final ChannelTopic flushTopic;
+
+  private final ChannelTopic flushedTopic;
+
+  private final ChannelTopic flushFailedTopic;
+
+  private final Map<String, CompletableFuture<Boolean>> pendingFlushes = new ConcurrentHashMap<>();
+
+  private final ExecutorService markExecutor;
+
+  private FlushListener flushListener = sessionId -> true;
+
+  RedisSessionFlushCoordinator(RedisIndexedSessionRepository repository, String nodeId, Duration flushTimeout,
+      RedisMessageListenerContainer listenerContainer) {
+    this.repository = repository;
+    this.nodeId = nodeId;
+    this.flushTimeoutNanos = flushTimeout.toNanos();
+    this.listenerContainer = listenerContainer;
+    this.flushTopic = new ChannelTopic(getFlushChannelPrefix() + nodeId);
+    this.flushedTopic = new ChannelTopic(getStickyKey("flushed"));
+    this.flushFailedTopic = new ChannelTopic(getStickyKey("flush-failed"));
+    this.markExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<>(MAX_PENDING_MARKS), runnable -> {
+      Thread thread = new Thread(runnable, "sticky-session-unsaved-marks");
+      thread.setDaemon(true);
+      return thread;
+    }, (runnable, executor) -> {
+      if (logger.isDebugEnabled())
+        logger.debug("Dropping unsaved mark update, too many updates are pending.");
+    });
+    listenerContainer.addMessageListener(this, flushTopic);
+    listenerContainer.addMessageListener(this, flushedTopic);
+    listenerContainer.addMessageListener(this, flushFailedTopic);
+  }
+
+  @Override
+  public void setFlushListener(FlushListener flushListener) {
+    this.flushListener = flushListener;
+  }
+
+  @Override
+  public void markUnsaved(String sessionId, Duration maxInactiveInterval) {
+    long ttlMillis = maxInactiveInterval.isNegative() ? 0 : maxInactiveInterval.toMillis();
+    executeMarkScript(MARK_UNSAVED_SCRIPT, sessionId, nodeId, String.valueOf(ttlMillis));
+  }
+
+  @Override
+  public void markSaved(String sessionId) {
+    executeMarkScript(MARK_SAVED_SCRIPT, sessionId, nodeId);
+  }
+
+  private void executeMarkScript(RedisScript<Long> script, String sessionId, Object... args) {
+    markExecutor.execute(() -> {
+      try {
+        repository.getSessionRedisOperations().execute(script, RedisSerializer.string(), LONG_SERIALIZER,
+            Collections.singletonList(getUnsavedKey(sessionId)), args);
+      } catch (RuntimeException e) {
+        logger.warn("Could not update unsaved mark of session " + sessionId + ".", e);
+      }
+    });
+  }
+
+  @Override
+  public boolean requestFlush(String sessionId) {
+    // register before publishing, so the answer cannot be missed
+    CompletableFuture<Boolean> flushed = new CompletableFuture<>();
+    CompletableFuture<Boolean> pending = pendingFlushes.putIfAbsent(sessionId, flushed);
+    if (pending != null) {
+      flushed = pending;
+    }
+    try {
+      Long result = repository.getSessionRedisOperations().execute(REQUEST_FLUSH_SCRIPT, RedisSerializer.string(),
+          LONG_SERIALIZER, Collections.singletonList(getUnsavedKey(sessionId)), nodeId, getFlushChannelPrefix(),
+          sessionId);
+      if (result == null || result == 0L) {
+        return true;
+      }
+      if (result == 1L) {
+        if (logger.isDebugEnabled())
+          logger.debug("Session " + sessionId + " is marked as unsaved by a node that is not listening anymore.");
+        return false;
+      }
+      if (logger.isTraceEnabled())
+        logger.trace("Requested flush of session " + sessionId + " from another node.");
+      if (!flushed.get(flushTimeoutNanos, TimeUnit.NANOSECONDS)) {
+        if (logger.isDebugEnabled())
+          logger.debug("Session " + sessionId + " could not be flushed by another node.");
+        return false;
+      }
+      return true;
+    } catch (TimeoutException e) {
+      if (logger.isDebugEnabled())
+        logger.debug("Session " + sessionId + " has not been flushed by another node in time.");
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (ExecutionException e) {
+      return false;
+    } finally {
+      if (pending == null) {
+        pendingFlushes.remove(sessionId, flushed);
+      }
+    }
+  }
+
+  @Override
+  public void onMessage(Message message, byte[] pattern) {
+    String channelName = new String(message.getChannel(), StandardCharsets.UTF_8);
+    String sessionId = new String(message.getBody(), StandardCharsets.UTF_8);
+    boolean flushedChannel = flushedTopic.getTopic().equals(channelName);
+    if (flushedChannel || flushFailedTopic.getTopic().equals(channelName)) {
+      CompletableFuture<Boolean> flushed = pendingFlushes.get(sessionId);
+      if (flushed != null) {
+        flushed.complete(flushedChannel);
+      }
+      return;
+    }
+
+    if (logger.isDebugEnabled())
+      logger.debug("Another node requested a flush of session " + sessionId + ".");
+    boolean flushed;
+    try {
+      flushed = flushListener.flushRequested(sessionId);
+    } catch (RuntimeException e) {
+      logger.warn("Could not flush session " + sessionId + ".", e);
+      flushed = false;
+    }
+    // publish the raw session id, not serialized by the template's value serializer
+    byte[] channel = (flushed ? flushedTopic : flushFailedTopic).getTopic().getBytes(StandardCharsets.UTF_8);
+    byte[] body = sessionId.getBytes(StandardCharsets.UTF_8);
+    repository.getSessionRedisOperations()
+        .execute((RedisCallback<Long>) connection -> connection.publish(channel, body));
+  }
+
+  String getUnsavedKey(String sessionId) {
+    return repository.getSessionKey("unsaved:" + sessionId);
+  }
+
+  private String getFlushChannelPrefix() {
+    return getStickyKey("flush:");
+  }
+
+  private String getStickyKey(String suffix) {
+    return getStickyKey(repository, suffix);
+  }
+
+  /**
+   * Returns the {@code <namespace>sticky:<suffix>} key for keys and channels that do not belong to a single session.
+   */
+  static String getStickyKey(RedisIndexedSessionRepository repository, String suffix) {
+    String sessionsPrefix = repository.getSessionKey("");
+    // strip "sessions:" from "<namespace>sessions:"
+    return sessionsPrefix.substring(0, sessionsPrefix.length() - "sessions:".length()) + "sticky:" + suffix;
+  }
+
+  void destroy() {
+    listenerContainer.removeMessageListener(this, flushTopic);
+    listenerContainer.removeMessageListener(this, flushedTopic);
+    listenerContainer.removeMessageListener(this, flushFailedTopic);
+    markExecutor.shutdown();
+  }
+}
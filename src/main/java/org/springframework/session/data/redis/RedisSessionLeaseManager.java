@@ -0,0 +1,259 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.data.redis;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.session.sticky.SessionLeaseManager;
+
+/**
+ * Redis implementation of {@link SessionLeaseManager}. Leases are stored as {@code <namespace>sessions:lease:<id>}
+ * keys holding the id of the owning node, with a time-to-live of the configured lease duration.
+ * <p>
+ * Held leases are renewed in pipelined batches by a background thread, every third of the lease duration. Locally,
+ * a lease is considered valid for two thirds of the lease duration after it has been acquired or renewed.
+ * <p>
+ * A lease held by another node is not taken over, but revoked: its key is replaced by a {@code !<owner>} marker that
+ * keeps the remaining time-to-live, so the owner fails to renew it and gives up the session. The revoking node then
+ * waits until the previous owner has acknowledged the revocation by deleting the marker, after saving its pending
+ * changes, or until the marker has expired, which is after the previous owner has stopped trusting its lease. Only
+ * then is the lease acquired and the session read, so there is at most one node serving the session from its cache
+ * at any time. If the lease cannot be acquired within twice the lease duration, the session is served with
+ * revalidation, but without a lease.
+ *
+ * @author Bernhard Frauendienst
+ */
+final class RedisSessionLeaseManager implements SessionLeaseManager {
+
+  private static final Log logger = LogFactory.getLog(RedisSessionLeaseManager.class);
+
+  static final int RENEW_BATCH_SIZE = 100;
+
+  private static final RedisSerializer<Long> LONG_SERIALIZER = new GenericToStringSerializer<>(Long.class);
+
+  private static final long LEASE_HELD_ELSEWHERE = 0L;
+
+  private static final long LEASE_RENEWED = 2L;
+
+  private static final long LEASE_REVOKED = 3L;
+
+  /**
+   * Returns 1 if the lease has been acquired, 2 if it has been renewed, 3 if this node's lease has been revoked, and
+   * 0 if it is held (or has been revoked) by another node, in which case a valid lease of another node is revoked.
+   */
+  private static final RedisScript<Long> ACQUIRE_SCRIPT = new DefaultRedisScript<>(
+      "if redis.call('SET', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then return 1 end "
+          + "local owner = redis.call('GET', KEYS[1]) "
+          + "if owner == ARGV[1] then redis.call('PEXPIRE', KEYS[1], ARGV[2]) return 2 end "
+          + "if owner == '!' .. ARGV[1] then return 3 end "
+          + "if owner and string.sub(owner, 1, 1) ~= '!' then "
+          + "local ttl = redis.call('PTTL', KEYS[1]) "
+          + "if ttl > 0 then redis.call('SET', KEYS[1], '!' .. owner, 'PX', ttl) end end "
+          + "return 0", Long.class);
+
+  private static final byte[] RENEW_SCRIPT = ("if redis.call('GET', KEYS[1]) == ARGV[1] then "
+      + "return redis.call('PEXPIRE', KEYS[1], ARGV[2]) end return 0").getBytes(StandardCharsets.UTF_8);
+
+  /**
+   * Deletes the lease if it is held by this node, or acknowledges its revocation by deleting the marker.
+   */
+  private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+      "local owner = redis.call('GET', KEYS[1]) "
+          + "if owner == ARGV[1] or owner == '!' .. ARGV[1] then return redis.call('DEL', KEYS[1]) end return 0",
+      Long.class);
+
+  private final RedisIndexedSessionRepository repository;
+
+  private final String nodeId;
+
+  private final long leaseMillis;
+
+  private final long leaseValidityNanos;
+
+  private final long revocationPollMillis;
+
+  /**
+   * Maps session ids of held leases to the {@link System#nanoTime()} until which they are considered valid.
+   */
+  private final Map<String, Long> heldLeases = new ConcurrentHashMap<>();
+
+  private final ScheduledExecutorService renewalExecutor;
+
+  private LeaseListener leaseListener = new LeaseListener() {
+    @Override public boolean isLeaseNeeded(String sessionId) {
+      return false;
+    }
+
+    @Override public void leaseLost(String sessionId) {
+    }
+  };
+
+  RedisSessionLeaseManager(RedisIndexedSessionRepository repository, String nodeId, Duration leaseDuration) {
+    this.repository = repository;
+    this.nodeId = nodeId;
+    this.leaseMillis = leaseDuration.toMillis();
+    this.leaseValidityNanos = leaseDuration.toNanos() / 3 * 2;
+    this.revocationPollMillis = Math.max(10, Math.min(100, leaseMillis / 20));
+    this.renewalExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "sticky-session-lease-renewal");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long renewalPeriod = Math.max(1, leaseMillis / 3);
+    this.renewalExecutor.scheduleAtFixedRate(this::renewLeases, renewalPeriod, renewalPeriod, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void setLeaseListener(LeaseListener leaseListener) {
+    this.leaseListener = leaseListener;
+  }
+
+  @Override
+  public boolean acquireLease(String sessionId) {
+    long waitDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(2 * leaseMillis);
+    while (true) {
+      long start = System.nanoTime();
+      Long result = repository.getSessionRedisOperations().execute(ACQUIRE_SCRIPT, RedisSerializer.string(),
+          LONG_SERIALIZER, Collections.singletonList(getLeaseKey(sessionId)), nodeId, String.valueOf(leaseMillis));
+      if (result == null) {
+        heldLeases.remove(sessionId);
+        return false;
+      }
+      if (result == LEASE_REVOKED) {
+        // stop trusting the lease, but keep it until the renewal has saved our changes and acknowledged the revocation
+        heldLeases.computeIfPresent(sessionId, (id, validUntil) -> start);
+        return false;
+      }
+      if (result != LEASE_HELD_ELSEWHERE) {
+        heldLeases.put(sessionId, start + leaseValidityNanos);
+        if (logger.isTraceEnabled())
+          logger.trace((result == LEASE_RENEWED ? "Renewed" : "Acquired") + " lease for session " + sessionId + ".");
+        return true;
+      }
+      heldLeases.remove(sessionId);
+      if (waitDeadline - start <= 0) {
+        logger.warn("Lease for session " + sessionId + " has not been released by its owner within twice the lease "
+            + "duration, serving it without lease.");
+        return false;
+      }
+      if (logger.isDebugEnabled())
+        logger.debug("Lease for session " + sessionId + " is held by another node, revoked it, waiting for release.");
+      try {
+        Thread.sleep(revocationPollMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+  }
+
+  @Override
+  public boolean holdsLease(String sessionId) {
+    Long validUntil = heldLeases.get(sessionId);
+    return validUntil != null && validUntil - System.nanoTime() > 0;
+  }
+
+  @Override
+  public void releaseLease(String sessionId) {
+    if (heldLeases.remove(sessionId) == null) {
+      return;
+    }
+    if (logger.isTraceEnabled())
+      logger.trace("Releasing lease for session " + sessionId + ".");
+    repository.getSessionRedisOperations().execute(RELEASE_SCRIPT, RedisSerializer.string(), LONG_SERIALIZER,
+        Collections.singletonList(getLeaseKey(sessionId)), nodeId);
+  }
+
+  String getLeaseKey(String sessionId) {
+    return repository.getSessionKey("lease:" + sessionId);
+  }
+
+  void destroy() {
+    renewalExecutor.shutdown();
+  }
+
+  private void renewLeases() {
+    try {
+      List<String> batch = new ArrayList<>(RENEW_BATCH_SIZE);
+      for (Iterator<String> it = heldLeases.keySet().iterator(); it.hasNext(); ) {
+        String sessionId = it.next();
+        if (leaseListener.isLeaseNeeded(sessionId)) {
+          batch.add(sessionId);
+        } else {
+          releaseLease(sessionId);
+        }
+        if (batch.size() == RENEW_BATCH_SIZE || !it.hasNext() && !batch.isEmpty()) {
+          renewBatch(batch);
+          batch.clear();
+        }
+      }
+    } catch (RuntimeException e) {
+      logger.warn("Could not renew session leases.", e);
+    }
+  }
+
+  private void renewBatch(List<String> sessionIds) {
+    long start = System.nanoTime();
+    byte[] owner = nodeId.getBytes(StandardCharsets.UTF_8);
+    byte[] ttl = String.valueOf(leaseMillis).getBytes(StandardCharsets.UTF_8);
+    @SuppressWarnings("unchecked")
+    RedisSerializer<String> keySerializer = (RedisSerializer<String>) repository.getSessionRedisOperations()
+        .getKeySerializer();
+    RedisOperations<Object, Object> redisOperations = repository.getSessionRedisOperations();
+    List<Object> results = redisOperations.executePipelined((RedisCallback<Object>) (RedisConnection connection) -> {
+      for (String sessionId : sessionIds) {
+        connection.eval(RENEW_SCRIPT, ReturnType.INTEGER, 1, keySerializer.serialize(getLeaseKey(sessionId)), owner,
+            ttl);
+      }
+      return null;
+    });
+
+    for (int i = 0; i < sessionIds.size(); i++) {
+      String sessionId = sessionIds.get(i);
+      Object result = results.get(i);
+      if (result instanceof Long && (Long) result == 1L) {
+        heldLeases.replace(sessionId, start + leaseValidityNanos);
+      } else if (heldLeases.remove(sessionId) != null) {
+        if (logger.isDebugEnabled())
+          logger.debug("Lease for session " + sessionId + " has been revoked by another node.");
+        leaseListener.leaseLost(sessionId);
+        // acknowledge the revocation, so the revoking node does not have to wait for the marker to expire
+        redisOperations.execute(RELEASE_SCRIPT, RedisSerializer.string(), LONG_SERIALIZER,
+            Collections.singletonList(getLeaseKey(sessionId)), nodeId);
+      }
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.data.redis;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+/**
+ * Finds recently active sessions for {@link org.springframework.session.sticky.SessionPreloader}, using the
+ * expiration index of {@link RedisIndexedSessionRepository}: every session is a member of the
+ * {@code <namespace>expirations:<minute>} set of the minute it expires in, so the sessions in the sets of the latest
+ * minutes have been active most recently (if they share the same max inactive interval).
+ * <p>
+ * The expiration sets are found with {@code SCAN}, and read with pipelined {@code SMEMBERS}, latest first.
+ *
+ * @author Bernhard Frauendienst
+ */
+final class RedisSessionPreloader {
+
+  private static final Log logger = LogFactory.getLog(RedisSessionPreloader.class);
+
+  private static final int SCAN_COUNT = 1000;
+
+  private static final int BUCKET_BATCH_SIZE = 60;
+
+  /**
+   * The prefix of the members of an expiration set, followed by the session id
+   */
+  private static final String EXPIRES_PREFIX = "expires:";
+
+  private final RedisIndexedSessionRepository repository;
+
+  private Clock clock = Clock.systemUTC();
+
+  RedisSessionPreloader(RedisIndexedSessionRepository repository) {
+    this.repository = repository;
+  }
+
+  void setClock(Clock clock) {
+    this.clock = clock;
+  }
+
+  List<String> findRecentlyActiveSessionIds(int maxSessions) {
+    List<Long> expirations = findExpirations();
+    Set<String> sessionIds = new LinkedHashSet<>();
+    RedisOperations<Object, Object> redisOperations = repository.getSessionRedisOperations();
+    @SuppressWarnings("unchecked")
+    RedisSerializer<String> keySerializer = (RedisSerializer<String>) redisOperations.getKeySerializer();
+    for (int i = 0; i < expirations.size() && sessionIds.size() < maxSessions; i += BUCKET_BATCH_SIZE) {
+      List<Long> batch = expirations.subList(i, Math.min(i + BUCKET_BATCH_SIZE, expirations.size()));
+      // set members are deserialized with the value serializer
+      List<Object> results = redisOperations.executePipelined((RedisCallback<Object>) (RedisConnection connection) -> {
+        for (Long expiration : batch) {
+          connection.sMembers(keySerializer.serialize(repository.getExpirationsKey(expiration)));
+        }
+        return null;
+      });
+      for (Object result : results) {
+        if (!(result instanceof Set)) {
+          continue;
+        }
+        for (Object member : (Set<?>) result) {
+          if (member instanceof String && ((String) member).startsWith(EXPIRES_PREFIX)
+              && sessionIds.size() < maxSessions) {
+            sessionIds.add(((String) member).substring(EXPIRES_PREFIX.length()));
+          }
+        }
+      }
+    }
+    return new ArrayList<>(sessionIds);
+  }
+
+  /**
+   * Returns the expiration times of all expiration sets that have not expired yet, latest first.
+   */
+  private List<Long> findExpirations() {
+    String prefix = repository.getExpirationsKey(0);
+    prefix = prefix.substring(0, prefix.length() - 1);
+    long now = clock.millis();
+    List<Long> expirations = new ArrayList<>();
+    ScanOptions options = ScanOptions.scanOptions().match(prefix + "*").count(SCAN_COUNT).build();
+    try (Cursor<byte[]> cursor = repository.getSessionRedisOperations()
+        .executeWithStickyConnection(connection -> connection.scan(options))) {
+      while (cursor.hasNext()) {
+        String key = new String(cursor.next(), StandardCharsets.UTF_8);
+        try {
+          long expiration = Long.parseLong(key.substring(prefix.length()));
+          if (expiration >= now) {
+            expirations.add(expiration);
+          }
+        } catch (NumberFormatException e) {
+          // not an expiration set
+        }
+      }
+    } catch (IOException e) {
+      if (logger.isDebugEnabled())
+        logger.debug("Could not close scan cursor.", e);
+    }
+    expirations.sort(Collections.reverseOrder());
+    return expirations;
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.data.redis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.dao.NonTransientDataAccessException;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.lang.Nullable;
+import org.springframework.session.FindByIndexNameSessionRepository;
+import org.springframework.session.IndexResolver;
+import org.springframework.session.MapSession;
+import org.springframework.session.Session;
+import org.springframework.session.sticky.SessionRenamer;
+
+/**
+ * Redis implementation of the {@link SessionRenamer} operation. The session, expiration, lease, change tracking and
+ * unsaved mark keys are renamed, and the session is moved in the expiration bucket and the principal index (if any).
+ * <p>
+ * On a standalone Redis, all of this is done by a single script. The keys of a session are spread over different
+ * hash slots, so on a Redis Cluster the keys are renamed by separate commands instead (which Spring Data Redis
+ * emulates across slots), and a concurrent request for the old id may see a partially renamed session.
+ *
+ * @author Bernhard Frauendienst
+ */
+final class RedisSessionRenamer {
+
+  /**
+   * KEYS: old and new session, expiration, lease, change tracking and unsaved keys, expiration bucket, principal key
+   * (optional), ARGV: old and new session id, old and new expiration bucket member (serialized).
+   * Returns 0 if the session does not exist.
+   */
+  private static final RedisScript<Long> RENAME_SCRIPT = new DefaultRedisScript<>(
+      "if redis.call('EXISTS', KEYS[1]) == 0 then return 0 end "
+          + "redis.call('RENAME', KEYS[1], KEYS[2]) "
+          + "for i = 3, 9, 2 do "
+          + "if redis.call('EXISTS', KEYS[i]) == 1 then redis.call('RENAME', KEYS[i], KEYS[i + 1]) end end "
+          + "if redis.call('SREM', KEYS[11], ARGV[3]) == 1 then redis.call('SADD', KEYS[11], ARGV[4]) end "
+          + "if KEYS[12] then redis.call('SREM', KEYS[12], ARGV[1]) redis.call('SADD', KEYS[12], ARGV[2]) end "
+          + "return 1", Long.class);
+
+  private static final RedisSerializer<Long> LONG_SERIALIZER = new GenericToStringSerializer<>(Long.class);
+
+  private static final String[] KEY_PREFIXES = { "", "expires:", "lease:", "changes:", "unsaved:" };
+
+  private final RedisIndexedSessionRepository repository;
+
+  private volatile @Nullable Boolean cluster;
+
+  RedisSessionRenamer(RedisIndexedSessionRepository repository) {
+    this.repository = repository;
+  }
+
+  Session renameSession(String oldSessionId, Session session, IndexResolver<Session> indexResolver) {
+    String newSessionId = session.getId();
+    List<Object> keys = new ArrayList<>(12);
+    for (String prefix : KEY_PREFIXES) {
+      keys.add(repository.getSessionKey(prefix + oldSessionId));
+      keys.add(repository.getSessionKey(prefix + newSessionId));
+    }
+    // the remote session has been saved with the lastAccessedTime of the given session
+    keys.add(repository.getExpirationsKey(
+        RedisSessionExpirationPolicy.roundUpToNextMinute(RedisSessionExpirationPolicy.expiresInMillis(session))));
+    String principalName = indexResolver.resolveIndexesFor(session)
+        .get(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME);
+    if (principalName != null) {
+      keys.add(repository.getPrincipalKey(principalName));
+    }
+
+    boolean exists = isCluster() ? renameSeparately(keys, oldSessionId, newSessionId)
+        : renameAtomically(keys, oldSessionId, newSessionId);
+
+    // a loaded session knows its expiration bucket, so the next save moves it to its new bucket
+    RedisIndexedSessionRepository.RedisSession renamed = exists ? repository.findById(newSessionId) : null;
+    return renamed != null ? renamed : repository.new RedisSession(new MapSession(session), true);
+  }
+
+  private boolean renameAtomically(List<Object> keys, String oldSessionId, String newSessionId) {
+    // principal index and expiration bucket members are stored with the value serializer
+    RedisOperations<Object, Object> redisOperations = repository.getSessionRedisOperations();
+    RedisSerializer<Object> valueSerializer = valueSerializer();
+    Long renamed = redisOperations.execute(RENAME_SCRIPT, RedisSerializer.byteArray(), LONG_SERIALIZER, keys,
+        valueSerializer.serialize(oldSessionId), valueSerializer.serialize(newSessionId),
+        valueSerializer.serialize("expires:" + oldSessionId), valueSerializer.serialize("expires:" + newSessionId));
+    return renamed != null && renamed == 1L;
+  }
+
+  private boolean renameSeparately(List<Object> keys, String oldSessionId, String newSessionId) {
+    RedisOperations<Object, Object> redisOperations = repository.getSessionRedisOperations();
+    if (!rename(keys.get(0), keys.get(1))) {
+      return false;
+    }
+    for (int i = 2; i < 10; i += 2) {
+      if (Boolean.TRUE.equals(redisOperations.hasKey(keys.get(i)))) {
+        rename(keys.get(i), keys.get(i + 1));
+      }
+    }
+    Long removed = redisOperations.opsForSet().remove(keys.get(10), "expires:" + oldSessionId);
+    if (removed != null && removed > 0) {
+      redisOperations.opsForSet().add(keys.get(10), "expires:" + newSessionId);
+    }
+    if (keys.size() > 11) {
+      redisOperations.opsForSet().remove(keys.get(11), oldSessionId);
+      redisOperations.opsForSet().add(keys.get(11), newSessionId);
+    }
+    return true;
+  }
+
+  /**
+   * Renames the given key, returns {@code false} if it does not exist.
+   */
+  private boolean rename(Object oldKey, Object newKey) {
+    try {
+      repository.getSessionRedisOperations().rename(oldKey, newKey);
+      return true;
+    } catch (NonTransientDataAccessException e) {
+      // like RedisIndexedSessionRepository.RedisSession#saveChangeSessionId
+      Throwable cause = NestedExceptionUtils.getMostSpecificCause(e);
+      if (!"ERR no such key".equals(cause.getMessage())) {
+        throw e;
+      }
+      return false;
+    }
+  }
+
+  private boolean isCluster() {
+    Boolean cluster = this.cluster;
+    if (cluster == null) {
+      cluster = repository.getSessionRedisOperations()
+          .execute((RedisCallback<Boolean>) connection -> connection instanceof RedisClusterConnection);
+      this.cluster = cluster;
+    }
+    return Boolean.TRUE.equals(cluster);
+  }
+
+  @SuppressWarnings("unchecked")
+  private RedisSerializer<Object> valueSerializer() {
+    return (RedisSerializer<Object>) repository.getSessionRedisOperations().getValueSerializer();
+  }
+}
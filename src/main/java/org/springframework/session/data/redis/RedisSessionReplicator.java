@@ -0,0 +1,259 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.data.redis;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+import org.springframework.lang.Nullable;
+import org.springframework.session.sticky.SessionChanges;
+import org.springframework.session.sticky.SessionReplicator;
+
+/**
+ * Redis implementation of {@link SessionReplicator}. Changes are appended to the {@code <namespace>sticky:replication}
+ * stream, which is capped at roughly {@link #MAX_STREAM_LENGTH} entries. Each entry holds the id of the publishing
+ * node, the session id, the base and resulting change versions, the session metadata, and the changed attribute
+ * values serialized with the hash value serializer (an empty value for removed attributes).
+ * <p>
+ * A background thread reads the stream in batches of at most {@link #BATCH_SIZE} entries with a blocking
+ * {@code XREAD}, and passes the changes published by other nodes to the listener before reading the next batch. The
+ * attribute values are only deserialized if the listener caches the session in the version the changes are based on.
+ * Entries published while the thread is not reading (e.g. before the first read or after a connection failure) may
+ * be missed, which only means that the affected sessions are refreshed on revalidation as usual.
+ *
+ * @author Bernhard Frauendienst
+ */
+final class RedisSessionReplicator implements SessionReplicator {
+
+  private static final Log logger = LogFactory.getLog(RedisSessionReplicator.class);
+
+  static final int BATCH_SIZE = 100;
+
+  static final long MAX_STREAM_LENGTH = 10_000;
+
+  private static final Duration POLL_TIMEOUT = Duration.ofSeconds(1);
+
+  private static final long ERROR_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+  private static final String NODE_FIELD = "node";
+
+  private static final String SESSION_ID_FIELD = "id";
+
+  private static final String BASE_VERSION_FIELD = "base";
+
+  private static final String VERSION_FIELD = "version";
+
+  private static final String LAST_ACCESSED_TIME_FIELD = "lastAccessedTime";
+
+  private static final String MAX_INACTIVE_INTERVAL_FIELD = "maxInactiveInterval";
+
+  private static final byte[] EMPTY_ARRAY = new byte[0];
+
+  private static final byte[] MAXLEN = bytes("MAXLEN");
+
+  private static final byte[] APPROXIMATE = bytes("~");
+
+  private static final byte[] AUTO_ID = bytes("*");
+
+  private final RedisIndexedSessionRepository repository;
+
+  private final String nodeId;
+
+  private final byte[] streamKey;
+
+  private final ExecutorService pollExecutor;
+
+  private volatile boolean running = true;
+
+  private ReplicationListener replicationListener = new ReplicationListener() {
+    @Override public boolean isCached(String sessionId, String baseVersion) {
+      return false;
+    }
+
+    @Override public void changesReplicated(String sessionId, String baseVersion, SessionChanges changes) {
+    }
+  };
+
+  RedisSessionReplicator(RedisIndexedSessionRepository repository, String nodeId) {
+    this.repository = repository;
+    this.nodeId = nodeId;
+    this.streamKey = RedisSessionFlushCoordinator.getStickyKey(repository, "replication")
+        .getBytes(StandardCharsets.UTF_8);
+    this.pollExecutor = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "sticky-session-replication");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.pollExecutor.execute(this::poll);
+  }
+
+  @Override
+  public void setReplicationListener(ReplicationListener replicationListener) {
+    this.replicationListener = replicationListener;
+  }
+
+  @Override
+  public void replicateChanges(String sessionId, String baseVersion, SessionChanges changes) {
+    RedisSerializer<Object> valueSerializer = hashValueSerializer();
+    Map<byte[], byte[]> fields = new LinkedHashMap<>();
+    fields.put(bytes(NODE_FIELD), bytes(nodeId));
+    fields.put(bytes(SESSION_ID_FIELD), bytes(sessionId));
+    fields.put(bytes(BASE_VERSION_FIELD), bytes(baseVersion));
+    fields.put(bytes(VERSION_FIELD), bytes(changes.getVersion()));
+    fields.put(bytes(LAST_ACCESSED_TIME_FIELD), bytes(Long.toString(changes.getLastAccessedTime().toEpochMilli())));
+    fields.put(bytes(MAX_INACTIVE_INTERVAL_FIELD),
+        bytes(Long.toString(changes.getMaxInactiveInterval().getSeconds())));
+    try {
+      changes.getChangedAttributes().forEach((attributeName, attributeValue) -> {
+        byte[] value = attributeValue != null ? valueSerializer.serialize(attributeValue) : null;
+        fields.put(bytes(RedisSessionMapper.ATTRIBUTE_PREFIX + attributeName), value != null ? value : EMPTY_ARRAY);
+      });
+      // XAddOptions only support exact trimming, which is much more expensive than trimming whole stream nodes
+      List<byte[]> args = new ArrayList<>(5 + fields.size() * 2);
+      args.add(streamKey);
+      args.add(MAXLEN);
+      args.add(APPROXIMATE);
+      args.add(bytes(Long.toString(MAX_STREAM_LENGTH)));
+      args.add(AUTO_ID);
+      fields.forEach((field, value) -> {
+        args.add(field);
+        args.add(value);
+      });
+      repository.getSessionRedisOperations().execute((RedisCallback<Object>) connection ->
+          connection.execute("XADD", args.toArray(new byte[0][])));
+    } catch (RuntimeException e) {
+      // the changes have been saved, other nodes will pick them up on revalidation
+      if (logger.isDebugEnabled())
+        logger.debug("Could not replicate changes of session " + sessionId + ".", e);
+    }
+  }
+
+  private void poll() {
+    ReadOffset offset = ReadOffset.latest();
+    while (running) {
+      try {
+        List<ByteRecord> records = read(offset);
+        if (records == null) {
+          continue;
+        }
+        for (ByteRecord record : records) {
+          offset = ReadOffset.from(record.getId());
+          apply(record);
+        }
+      } catch (RuntimeException e) {
+        if (!running) {
+          return;
+        }
+        logger.warn("Could not read replicated session changes, retrying in " + ERROR_BACKOFF_MILLIS + "ms.", e);
+        try {
+          Thread.sleep(ERROR_BACKOFF_MILLIS);
+        } catch (InterruptedException interrupted) {
+          return;
+        }
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private @Nullable List<ByteRecord> read(ReadOffset offset) {
+    RedisOperations<Object, Object> redisOperations = repository.getSessionRedisOperations();
+    StreamOffset<byte[]> streamOffset = StreamOffset.create(streamKey, offset);
+    // blocking reads are executed on a dedicated connection
+    return redisOperations.execute((RedisCallback<List<ByteRecord>>) connection -> connection.streamCommands()
+        .xRead(StreamReadOptions.empty().count(BATCH_SIZE).block(POLL_TIMEOUT), streamOffset));
+  }
+
+  private void apply(ByteRecord record) {
+    Map<String, byte[]> fields = new HashMap<>();
+    record.getValue().forEach((field, value) -> fields.put(string(field), value));
+    byte[] publisher = fields.get(NODE_FIELD);
+    byte[] sessionId = fields.get(SESSION_ID_FIELD);
+    byte[] baseVersion = fields.get(BASE_VERSION_FIELD);
+    if (publisher == null || sessionId == null || baseVersion == null || nodeId.equals(string(publisher))) {
+      return;
+    }
+    String id = string(sessionId);
+    String base = string(baseVersion);
+    if (!replicationListener.isCached(id, base)) {
+      return;
+    }
+    try {
+      SessionChanges changes = readChanges(fields);
+      if (changes != null) {
+        replicationListener.changesReplicated(id, base, changes);
+      }
+    } catch (SerializationException | IllegalArgumentException e) {
+      if (logger.isDebugEnabled())
+        logger.debug("Could not apply replicated changes of session " + id + ".", e);
+    }
+  }
+
+  private @Nullable SessionChanges readChanges(Map<String, byte[]> fields) {
+    byte[] version = fields.get(VERSION_FIELD);
+    byte[] lastAccessedTime = fields.get(LAST_ACCESSED_TIME_FIELD);
+    byte[] maxInactiveInterval = fields.get(MAX_INACTIVE_INTERVAL_FIELD);
+    if (version == null || lastAccessedTime == null || maxInactiveInterval == null) {
+      return null;
+    }
+    RedisSerializer<Object> valueSerializer = hashValueSerializer();
+    Map<String, Object> changedAttributes = new HashMap<>();
+    fields.forEach((field, value) -> {
+      if (field.startsWith(RedisSessionMapper.ATTRIBUTE_PREFIX)) {
+        changedAttributes.put(field.substring(RedisSessionMapper.ATTRIBUTE_PREFIX.length()),
+            value.length > 0 ? valueSerializer.deserialize(value) : null);
+      }
+    });
+    return new SessionChanges(string(version), Instant.ofEpochMilli(Long.parseLong(string(lastAccessedTime))),
+        Duration.ofSeconds(Long.parseLong(string(maxInactiveInterval))), changedAttributes);
+  }
+
+  @SuppressWarnings("unchecked")
+  private RedisSerializer<Object> hashValueSerializer() {
+    return (RedisSerializer<Object>) repository.getSessionRedisOperations().getHashValueSerializer();
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String string(byte[] value) {
+    return new String(value, StandardCharsets.UTF_8);
+  }
+
+  void destroy() {
+    running = false;
+    pollExecutor.shutdownNow();
+  }
+}
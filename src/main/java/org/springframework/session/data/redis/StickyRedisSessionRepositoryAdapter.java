@@ -15,32 +15,370 @@
  */
 package org.springframework.session.data.redis;
 
+import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.context.ApplicationEventPublisher;
 
+import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.BoundHashOperations;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.lang.Nullable;
+import org.springframework.session.DelegatingIndexResolver;
+import org.springframework.session.IndexResolver;
+import org.springframework.session.MapSession;
+import org.springframework.session.PrincipalNameIndexResolver;
 import org.springframework.session.Session;
 import org.springframework.session.sticky.LastAccessedTimeAccessor;
+import org.springframework.session.sticky.PartialSession;
+import org.springframework.session.sticky.PartialSessionLoader;
+import org.springframework.session.sticky.SessionChangeTracker;
+import org.springframework.session.sticky.SessionChanges;
+import org.springframework.session.sticky.SessionExpiryConfirmer;
+import org.springframework.session.sticky.SessionFlushCoordinator;
+import org.springframework.session.sticky.SessionLeaseManager;
+import org.springframework.session.sticky.SessionPreloader;
+import org.springframework.session.sticky.SessionRenamer;
+import org.springframework.session.sticky.SessionReplicator;
 import org.springframework.session.sticky.StickySessionRepositoryAdapter;
+import org.springframework.session.sticky.internal.jfr.StickySessionEvents;
+import org.springframework.session.sticky.internal.jfr.StickySessionEvents.LastAccessedTimeRecording;
+import org.springframework.util.Assert;
 
 /**
  * {@link StickySessionRepositoryAdapter} for {@link RedisIndexedSessionRepository}, that also provides efficient
  * access to the a session's {@link Session#getLastAccessedTime() lastAccessedTime} by directly accessing the
  * hash member that stores this attribute.
  *
+ * If configured with a {@linkplain #setLeaseDuration(Duration) lease duration}, this adapter also acts as a
+ * {@link SessionLeaseManager}, granting this node short-lived ownership leases on the sessions it caches.
+ * <p>
+ * If {@linkplain #setRenameSessions(boolean) enabled}, session ids are changed by renaming all keys of the session and
+ * updating the principal index, without loading the session (see {@link SessionRenamer} and
+ * {@link RedisSessionRenamer}).
+ * <p>
+ * If {@linkplain #setTrackAttributeChanges(boolean) enabled}, changed attributes are tracked, so outdated cached
+ * sessions can be refreshed incrementally (see {@link SessionChangeTracker}).
+ * <p>
+ * If {@linkplain #setLoadAttributesOnDemand(boolean) enabled}, sessions are loaded without the values of most of their
+ * attributes, which are loaded on demand (see {@link PartialSessionLoader}).
+ * <p>
+ * If configured with a {@linkplain #setFlushTimeout(Duration) flush timeout}, other nodes can request pending changes
+ * of sessions cached by this node to be saved immediately (see {@link SessionFlushCoordinator}).
+ * <p>
+ * Expired sessions can be confirmed and their expiry events claimed in batches, so expiry events can be published
+ * without Redis keyspace notifications (see {@link SessionExpiryConfirmer}).
+ * <p>
+ * The most recently active sessions can be found in the expiration index and loaded in bulk, to warm up the cache
+ * (see {@link SessionPreloader}).
+ * <p>
+ * If {@linkplain #setReplicateChanges(boolean) enabled}, saved changes are replicated to the caches of other nodes
+ * through a Redis stream (see {@link SessionReplicator}).
+ * <p>
+ * If configured with a {@linkplain #setReplicaConnectionFactory(RedisConnectionFactory) replica connection factory},
+ * revalidations and attribute loads are served by Redis replicas, and only fall back to the primary if the replica
+ * does not know the session (yet). Reads that must see the latest saves, e.g. loading a session after a flush of
+ * another node has been requested, and all writes always go to the primary.
+ *
  * This class accesses package-private methods of {@link RedisIndexedSessionRepository}.
  * This should obviously be solved differently when integrated into spring-session upstream.
  *
  * @author Bernhard Frauendienst
  */
 public class StickyRedisSessionRepositoryAdapter
-    implements StickySessionRepositoryAdapter<RedisIndexedSessionRepository>, LastAccessedTimeAccessor {
+    implements StickySessionRepositoryAdapter<RedisIndexedSessionRepository>, LastAccessedTimeAccessor,
+    SessionLeaseManager, SessionRenamer, SessionChangeTracker, PartialSessionLoader,
+    SessionFlushCoordinator, SessionExpiryConfirmer, SessionReplicator, SessionPreloader, DisposableBean {
+
   private final RedisIndexedSessionRepository repository;
 
+  private IndexResolver<Session> indexResolver = new DelegatingIndexResolver<>(new PrincipalNameIndexResolver<>());
+
+  private String nodeId = UUID.randomUUID().toString();
+
+  private @Nullable RedisSessionLeaseManager leaseManager;
+
+  private @Nullable LeaseListener leaseListener;
+
+  private @Nullable RedisSessionChangeTracker changeTracker;
+
+  private Collection<String> eagerAttributeNames = Collections.emptySet();
+
+  private @Nullable RedisPartialSessionLoader partialLoader;
+
+  private @Nullable RedisMessageListenerContainer messageListenerContainer;
+
+  private @Nullable RedisSessionFlushCoordinator flushCoordinator;
+
+  private @Nullable FlushListener flushListener;
+
+  private final RedisSessionExpiryConfirmer expiryConfirmer;
+
+  private final RedisSessionPreloader preloader;
+
+  private @Nullable RedisSessionRenamer renamer;
+
+  private @Nullable RedisSessionReplicator replicator;
+
+  private @Nullable ReplicationListener replicationListener;
+
+  private @Nullable RedisConnectionFactory replicaConnectionFactory;
+
+  private @Nullable RedisOperations<Object, Object> replicaOperations;
+
   public StickyRedisSessionRepositoryAdapter(RedisIndexedSessionRepository repository) {
     this.repository = repository;
+    this.expiryConfirmer = new RedisSessionExpiryConfirmer(repository);
+    this.preloader = new RedisSessionPreloader(repository);
+  }
+
+  /**
+   * Sets the id identifying this node in the remote repository. Defaults to a random UUID.
+   *
+   * @param nodeId the node id, must be unique for each running instance
+   */
+  public void setNodeId(String nodeId) {
+    Assert.hasText(nodeId, "nodeId cannot be empty");
+    Assert.state(leaseManager == null, "nodeId must be set before enabling leases");
+    Assert.state(flushCoordinator == null, "nodeId must be set before enabling flush requests");
+    Assert.state(replicator == null, "nodeId must be set before enabling replication");
+    this.nodeId = nodeId;
+  }
+
+  public String getNodeId() {
+    return nodeId;
+  }
+
+  /**
+   * Sets the index resolver used to update the principal index when renaming or expiring sessions. This should match the
+   * {@link RedisIndexedSessionRepository#setIndexResolver(IndexResolver) index resolver of the repository}.
+   *
+   * @param indexResolver the index resolver
+   */
+  public void setIndexResolver(IndexResolver<Session> indexResolver) {
+    Assert.notNull(indexResolver, "indexResolver cannot be null");
+    this.indexResolver = indexResolver;
+  }
+
+  /**
+   * Enables lease mode: the first time this node caches a session, it acquires an ownership lease with the given
+   * duration, which will be renewed in the background as long as the session is cached. While this node holds the
+   * lease, the session can be served from the cache without revalidation. A lease held by another node is revoked
+   * rather than taken over, see {@link RedisSessionLeaseManager}.
+   *
+   * @param leaseDuration the duration of a lease, or {@code null} to disable lease mode (the default)
+   */
+  public void setLeaseDuration(@Nullable Duration leaseDuration) {
+    if (this.leaseManager != null) {
+      this.leaseManager.destroy();
+      this.leaseManager = null;
+    }
+    if (leaseDuration != null) {
+      Assert.isTrue(!leaseDuration.isNegative() && !leaseDuration.isZero(), "leaseDuration must be positive");
+      this.leaseManager = new RedisSessionLeaseManager(repository, nodeId, leaseDuration);
+      if (this.leaseListener != null) {
+        this.leaseManager.setLeaseListener(this.leaseListener);
+      }
+    }
+  }
+
+  /**
+   * Sets the serializer for session attribute values, e.g. a {@link CompactRedisSerializer}. This replaces the hash
+   * value serializer of the repository's {@link RedisTemplate}, so it also applies to the other values stored in the
+   * session hash, and must be the same on all nodes sharing the sessions.
+   *
+   * @param attributeSerializer the serializer for attribute values
+   */
+  public void setAttributeSerializer(RedisSerializer<Object> attributeSerializer) {
+    Assert.notNull(attributeSerializer, "attributeSerializer cannot be null");
+    RedisOperations<Object, Object> redisOperations = repository.getSessionRedisOperations();
+    Assert.isInstanceOf(RedisTemplate.class, redisOperations, "The session repository does not use a RedisTemplate");
+    ((RedisTemplate<Object, Object>) redisOperations).setHashValueSerializer(attributeSerializer);
+    refreshReplicaOperations();
+  }
+
+  /**
+   * Sets a connection factory for Redis replicas (e.g. a {@code LettuceConnectionFactory} configured with
+   * {@code ReadFrom.REPLICA_PREFERRED}), used to read the {@code lastAccessedTime} on revalidation, and to load
+   * attributes on demand. The serializers of the repository's {@link RedisOperations} are used.
+   * <p>
+   * Reads that do not find the session (or attribute) on a replica are retried on the primary, so sessions that have
+   * just been created are found. Replicas may lag behind the primary, so a session that has just been changed by
+   * another node can be served in its previous version until the next revalidation. Sessions are always loaded from
+   * the primary, since loads follow flush requests (see {@link #findPrimaryPartialById(String)}). If
+   * {@linkplain #setLeaseDuration leases} or {@linkplain #setFlushTimeout flush requests} are enabled, revalidations
+   * must see the saves these have waited for, so replicas are only used to load attributes then.
+   *
+   * @param replicaConnectionFactory the connection factory for replicas, or {@code null} to read from the primary
+   *                                 (the default)
+   */
+  public void setReplicaConnectionFactory(@Nullable RedisConnectionFactory replicaConnectionFactory) {
+    this.replicaConnectionFactory = replicaConnectionFactory;
+    this.replicaOperations = null;
+    refreshReplicaOperations();
+  }
+
+  /**
+   * Sets the operations used to read from Redis replicas, see {@link #setReplicaConnectionFactory}. The operations
+   * must use the same serializers as the repository's {@link RedisOperations}.
+   *
+   * @param replicaOperations the operations for replicas, or {@code null} to read from the primary (the default)
+   */
+  public void setReplicaRedisOperations(@Nullable RedisOperations<Object, Object> replicaOperations) {
+    this.replicaConnectionFactory = null;
+    this.replicaOperations = replicaOperations;
+  }
+
+  /**
+   * Re-creates the replica template with the current serializers of the repository's operations.
+   */
+  private void refreshReplicaOperations() {
+    if (replicaConnectionFactory == null) {
+      return;
+    }
+    RedisOperations<Object, Object> redisOperations = repository.getSessionRedisOperations();
+    RedisTemplate<Object, Object> replicaTemplate = new RedisTemplate<>();
+    replicaTemplate.setConnectionFactory(replicaConnectionFactory);
+    replicaTemplate.setKeySerializer(redisOperations.getKeySerializer());
+    replicaTemplate.setValueSerializer(redisOperations.getValueSerializer());
+    replicaTemplate.setHashKeySerializer(redisOperations.getHashKeySerializer());
+    replicaTemplate.setHashValueSerializer(redisOperations.getHashValueSerializer());
+    replicaTemplate.afterPropertiesSet();
+    this.replicaOperations = replicaTemplate;
+  }
+
+  /**
+   * Sets the message listener container used to receive flush requests, see {@link #setFlushTimeout(Duration)}.
+   *
+   * @param messageListenerContainer the message listener container
+   */
+  public void setMessageListenerContainer(RedisMessageListenerContainer messageListenerContainer) {
+    Assert.notNull(messageListenerContainer, "messageListenerContainer cannot be null");
+    this.messageListenerContainer = messageListenerContainer;
+  }
+
+  /**
+   * Enables flush requests: sessions with changes that have not been saved yet are marked as unsaved by this node,
+   * and other nodes that load or revalidate such a session request this node to save the changes immediately.
+   * The requesting node waits at most for the given timeout.
+   * <p>
+   * This costs an additional round trip for every cache miss and revalidation, and two for every deferred save.
+   *
+   * @param flushTimeout the maximum time to wait for a flush, or {@code null} to disable flush requests (the default)
+   */
+  public void setFlushTimeout(@Nullable Duration flushTimeout) {
+    if (this.flushCoordinator != null) {
+      this.flushCoordinator.destroy();
+      this.flushCoordinator = null;
+    }
+    if (flushTimeout != null) {
+      Assert.isTrue(!flushTimeout.isNegative() && !flushTimeout.isZero(), "flushTimeout must be positive");
+      Assert.state(messageListenerContainer != null,
+          "messageListenerContainer must be set before enabling flush requests");
+      this.flushCoordinator = new RedisSessionFlushCoordinator(repository, nodeId, flushTimeout,
+          messageListenerContainer);
+      if (this.flushListener != null) {
+        this.flushCoordinator.setFlushListener(this.flushListener);
+      }
+    }
+  }
+
+  /**
+   * Enables tracking of changed attributes: every save marks the changed attributes in a separate hash, so other nodes
+   * can refresh an outdated cached session by fetching only the changed attributes instead of re-loading it.
+   * <p>
+   * This costs two additional round trips for every save that changes attributes.
+   *
+   * @param trackAttributeChanges whether to track attribute changes (disabled by default)
+   */
+  public void setTrackAttributeChanges(boolean trackAttributeChanges) {
+    this.changeTracker = trackAttributeChanges ? new RedisSessionChangeTracker(repository) : null;
+  }
+
+  /**
+   * Enables replication of saved changes: the changed attributes of every save are appended to a Redis stream, and
+   * other nodes caching the session in the version the changes are based on apply them in place, instead of refreshing
+   * the session on the next revalidation. Requires {@linkplain #setTrackAttributeChanges(boolean) change tracking}.
+   * <p>
+   * This costs one additional round trip for every save that changes attributes, and a background thread per node
+   * that reads all replicated changes.
+   *
+   * @param replicateChanges whether to replicate changes (disabled by default)
+   */
+  public void setReplicateChanges(boolean replicateChanges) {
+    if (this.replicator != null) {
+      this.replicator.destroy();
+      this.replicator = null;
+    }
+    if (replicateChanges) {
+      Assert.state(changeTracker != null, "Attribute changes must be tracked before enabling replication");
+      this.replicator = new RedisSessionReplicator(repository, nodeId);
+      if (this.replicationListener != null) {
+        this.replicator.setReplicationListener(this.replicationListener);
+      }
+    }
+  }
+
+  /**
+   * Enables loading attributes on demand: sessions are loaded with their metadata and the
+   * {@linkplain #setEagerAttributeNames(Collection) eagerly loaded attributes} only, all other attributes are loaded
+   * the first time they are read.
+   * <p>
+   * Note that with {@link org.springframework.session.SaveMode#ALWAYS}, all attributes are read (and therefore loaded)
+   * when the session is accessed.
+   *
+   * @param loadAttributesOnDemand whether to load attributes on demand (disabled by default)
+   */
+  public void setLoadAttributesOnDemand(boolean loadAttributesOnDemand) {
+    this.partialLoader = loadAttributesOnDemand ? new RedisPartialSessionLoader(repository, eagerAttributeNames) : null;
+  }
+
+  /**
+   * Enables renaming of sessions: session ids are changed by renaming the keys of the session in Redis, instead of
+   * re-loading the session and letting {@link RedisIndexedSessionRepository} rename it on the next save. This relies on
+   * the key layout of {@link RedisIndexedSessionRepository}, which may change between Spring Session versions.
+   *
+   * @param renameSessions whether to rename sessions (disabled by default)
+   */
+  public void setRenameSessions(boolean renameSessions) {
+    this.renamer = renameSessions ? new RedisSessionRenamer(repository) : null;
+  }
+
+  /**
+   * Sets the clock used to skip expired expiration sets when {@linkplain #findRecentlyActiveSessionIds(int) finding
+   * sessions to preload}. Defaults to the system clock.
+   *
+   * @param clock the clock to use
+   */
+  public void setClock(Clock clock) {
+    Assert.notNull(clock, "clock cannot be null");
+    preloader.setClock(clock);
+  }
+
+  /**
+   * Sets the names of the attributes that are loaded together with the session if
+   * {@linkplain #setLoadAttributesOnDemand(boolean) attributes are loaded on demand}. The principal name and the
+   * security context are always loaded eagerly.
+   *
+   * @param eagerAttributeNames the names of the attributes to load eagerly
+   */
+  public void setEagerAttributeNames(Collection<String> eagerAttributeNames) {
+    Assert.notNull(eagerAttributeNames, "eagerAttributeNames cannot be null");
+    this.eagerAttributeNames = eagerAttributeNames;
+    if (this.partialLoader != null) {
+      this.partialLoader = new RedisPartialSessionLoader(repository, eagerAttributeNames);
+    }
   }
 
   @Override public RedisIndexedSessionRepository getSessionRepository() {
@@ -51,14 +389,218 @@ public class StickyRedisSessionRepositoryAdapter
     repository.setApplicationEventPublisher(eventPublisher);
   }
 
+  @Override
+  public boolean acquireLease(String sessionId) {
+    return leaseManager != null && leaseManager.acquireLease(sessionId);
+  }
+
+  @Override
+  public boolean holdsLease(String sessionId) {
+    return leaseManager != null && leaseManager.holdsLease(sessionId);
+  }
+
+  @Override
+  public void releaseLease(String sessionId) {
+    if (leaseManager != null) {
+      leaseManager.releaseLease(sessionId);
+    }
+  }
+
+  @Override
+  public void setLeaseListener(LeaseListener leaseListener) {
+    this.leaseListener = leaseListener;
+    if (leaseManager != null) {
+      leaseManager.setLeaseListener(leaseListener);
+    }
+  }
+
+  @Override
+  public Session renameSession(String oldSessionId, Session session) {
+    Assert.state(renamer != null, "Renaming sessions is not enabled");
+    return renamer.renameSession(oldSessionId, session, indexResolver);
+  }
+
+  @Override
+  public boolean isRenamingEnabled() {
+    return renamer != null;
+  }
+
+  @Override
+  public @Nullable String getChangeVersion(String sessionId) {
+    return changeTracker != null ? changeTracker.getChangeVersion(sessionId) : null;
+  }
+
+  @Override
+  public @Nullable String markChanged(String sessionId, Set<String> attributeNames, Duration maxInactiveInterval,
+      @Nullable String knownVersion) {
+    return changeTracker != null
+        ? changeTracker.markChanged(sessionId, attributeNames, maxInactiveInterval, knownVersion) : null;
+  }
+
+  @Override
+  public @Nullable SessionChanges loadChanges(String sessionId, String sinceVersion) {
+    return changeTracker != null ? changeTracker.loadChanges(sessionId, sinceVersion) : null;
+  }
+
+  @Override
+  public Session restoreSession(MapSession session) {
+    return repository.new RedisSession(new MapSession(session), false);
+  }
+
+  @Override
+  public @Nullable PartialSession findPartialById(String id) {
+    RedisOperations<Object, Object> replicaOperations = this.replicaOperations;
+    if (partialLoader != null) {
+      PartialSession partial = replicaOperations != null ? partialLoader.findPartialById(id, replicaOperations) : null;
+      return partial != null ? partial : partialLoader.findPartialById(id);
+    }
+    Session session = replicaOperations != null ? findByIdOnReplica(id, replicaOperations) : null;
+    if (session == null) {
+      session = repository.findById(id);
+    }
+    return session != null ? new PartialSession(session, Collections.emptySet()) : null;
+  }
+
+  @Override
+  public @Nullable PartialSession findPrimaryPartialById(String id) {
+    if (partialLoader != null) {
+      return partialLoader.findPartialById(id);
+    }
+    Session session = repository.findById(id);
+    return session != null ? new PartialSession(session, Collections.emptySet()) : null;
+  }
+
+  @Override
+  public @Nullable Object loadAttribute(String sessionId, String attributeName) {
+    if (partialLoader == null) {
+      return null;
+    }
+    RedisOperations<Object, Object> replicaOperations = this.replicaOperations;
+    Object value = replicaOperations != null
+        ? partialLoader.loadAttribute(sessionId, attributeName, replicaOperations) : null;
+    return value != null ? value : partialLoader.loadAttribute(sessionId, attributeName);
+  }
+
+  /**
+   * Loads the complete session from a replica, as {@link RedisIndexedSessionRepository#findById(String)} does.
+   */
+  private @Nullable Session findByIdOnReplica(String id, RedisOperations<Object, Object> replicaOperations) {
+    @SuppressWarnings("unchecked")
+    Map<String, Object> entries = (Map<String, Object>) (Map<?, ?>) replicaOperations
+        .boundHashOps(repository.getSessionKey(id)).entries();
+    if (entries == null || entries.isEmpty()) {
+      return null;
+    }
+    MapSession loaded = new RedisSessionMapper(id).apply(entries);
+    if (loaded.isExpired()) {
+      return null;
+    }
+    return repository.new RedisSession(loaded, false);
+  }
+
+  @Override
+  public void markUnsaved(String sessionId, Duration maxInactiveInterval) {
+    if (flushCoordinator != null) {
+      flushCoordinator.markUnsaved(sessionId, maxInactiveInterval);
+    }
+  }
+
+  @Override
+  public void markSaved(String sessionId) {
+    if (flushCoordinator != null) {
+      flushCoordinator.markSaved(sessionId);
+    }
+  }
+
+  @Override
+  public boolean requestFlush(String sessionId) {
+    return flushCoordinator == null || flushCoordinator.requestFlush(sessionId);
+  }
+
+  @Override
+  public void setFlushListener(FlushListener flushListener) {
+    this.flushListener = flushListener;
+    if (flushCoordinator != null) {
+      flushCoordinator.setFlushListener(flushListener);
+    }
+  }
+
+  @Override
+  public Map<String, Session> findSessionsById(Collection<String> sessionIds) {
+    return expiryConfirmer.findSessionsById(sessionIds);
+  }
+
+  @Override
+  public Set<String> claimExpiryEvents(Collection<Session> expiredSessions) {
+    return expiryConfirmer.claimExpiryEvents(expiredSessions, nodeId, indexResolver);
+  }
+
+  @Override
+  public List<String> findRecentlyActiveSessionIds(int maxSessions) {
+    return preloader.findRecentlyActiveSessionIds(maxSessions);
+  }
+
+  @Override
+  public Map<String, Session> loadSessions(Collection<String> sessionIds) {
+    return expiryConfirmer.findSessionsById(sessionIds);
+  }
+
+  @Override
+  public void replicateChanges(String sessionId, String baseVersion, SessionChanges changes) {
+    if (replicator != null) {
+      replicator.replicateChanges(sessionId, baseVersion, changes);
+    }
+  }
+
+  @Override
+  public void setReplicationListener(ReplicationListener replicationListener) {
+    this.replicationListener = replicationListener;
+    if (replicator != null) {
+      replicator.setReplicationListener(replicationListener);
+    }
+  }
+
+  @Override
+  public void destroy() {
+    if (leaseManager != null) {
+      leaseManager.destroy();
+    }
+    if (flushCoordinator != null) {
+      flushCoordinator.destroy();
+    }
+    if (replicator != null) {
+      replicator.destroy();
+    }
+  }
+
   @Override
   public @Nullable Instant getLastAccessedTime(String sessionId) {
+    // revalidations follow lease acquisitions and flush requests, and must see the saves these have waited for
+    return getLastAccessedTime(sessionId, leaseManager == null && flushCoordinator == null ? replicaOperations : null);
+  }
+
+  @Override
+  public @Nullable Instant getPrimaryLastAccessedTime(String sessionId) {
+    return getLastAccessedTime(sessionId, null);
+  }
+
+  private @Nullable Instant getLastAccessedTime(String sessionId,
+      @Nullable RedisOperations<Object, Object> replicaOperations) {
+    LastAccessedTimeRecording recording = StickySessionEvents.getInstance().beginLastAccessedTime(sessionId);
     String sessionKey = repository.getSessionKey(sessionId);
-    BoundHashOperations<Object, Object, Object> hashOps = repository.getSessionRedisOperations().boundHashOps(sessionKey);
-    Long lastAccessedTime = (Long) hashOps.get(RedisSessionMapper.LAST_ACCESSED_TIME_KEY);
+    Long lastAccessedTime = replicaOperations != null ? getLastAccessedTime(replicaOperations, sessionKey) : null;
+    if (lastAccessedTime == null) {
+      lastAccessedTime = getLastAccessedTime(repository.getSessionRedisOperations(), sessionKey);
+    }
+    recording.finish(lastAccessedTime != null);
     if (lastAccessedTime == null) {
       return null;
     }
     return Instant.ofEpochMilli(lastAccessedTime);
   }
+
+  private static @Nullable Long getLastAccessedTime(RedisOperations<Object, Object> operations, String sessionKey) {
+    BoundHashOperations<Object, Object, Object> hashOps = operations.boundHashOps(sessionKey);
+    return (Long) hashOps.get(RedisSessionMapper.LAST_ACCESSED_TIME_KEY);
+  }
 }
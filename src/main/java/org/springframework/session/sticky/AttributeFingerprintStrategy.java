@@ -0,0 +1,44 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * Strategy to detect whether a session attribute has been modified in place. Attributes that are only saved because
+ * of the {@link org.springframework.session.SaveMode SaveMode} ({@code ON_GET_ATTRIBUTE} or {@code ALWAYS}) are
+ * fingerprinted when they are handed out, and are not saved if their fingerprint is unchanged when the session is
+ * saved. Attributes that have been set explicitly are always saved.
+ * <p>
+ * Fingerprints are compared with {@link Object#equals(Object)}. Custom strategies can e.g. return a version number
+ * maintained by the attribute, or an immutable copy of its relevant state.
+ *
+ * @author Bernhard Frauendienst
+ * @see SerializedAttributeFingerprintStrategy
+ * @see StickySessionRepository#setAttributeFingerprintStrategy(AttributeFingerprintStrategy)
+ */
+public interface AttributeFingerprintStrategy {
+
+  /**
+   * Returns a fingerprint of the current state of the given attribute value.
+   *
+   * @param attributeName  the attribute name
+   * @param attributeValue the attribute value
+   * @return the fingerprint, or {@code null} if changes of this value cannot be detected, so it is always saved
+   */
+  @Nullable
+  Object fingerprint(String attributeName, Object attributeValue);
+}
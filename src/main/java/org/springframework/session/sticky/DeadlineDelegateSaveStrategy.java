@@ -0,0 +1,200 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+/**
+ * {@link DelegateSaveStrategy} implementation that saves delegate sessions in earliest-deadline-first order with a
+ * pool of worker threads.
+ * <p>
+ * Like the {@link DelayedDelegateSaveStrategy}, saves are delayed by a configured amount to aggregate multiple updates,
+ * but a save is never delayed beyond the {@linkplain #queueSaveDelegate(String, Instant, Runnable) deadline} passed by
+ * the {@link StickySessionRepository}, e.g. because the remote session is about to expire. When the workers fall
+ * behind, due saves are taken in the order of their deadlines, so urgent saves do not wait behind routine ones. A save
+ * that is queued while another save of the same session is still waiting is merged into the waiting one.
+ * <p>
+ * Saves that are still waiting when this strategy is {@linkplain #destroy() destroyed} are run immediately, and
+ * {@link #destroy()} waits for them to complete. The worker threads are daemon threads.
+ *
+ * @author Bernhard Frauendienst
+ */
+public class DeadlineDelegateSaveStrategy implements DelegateSaveStrategy, DisposableBean {
+
+  private static final Log logger = LogFactory.getLog(DeadlineDelegateSaveStrategy.class);
+
+  private final long delayMillis;
+
+  private final DelayQueue<SaveTask> queue = new DelayQueue<>();
+
+  /**
+   * The waiting saves by session id
+   */
+  private final Map<String, SaveTask> waiting = new ConcurrentHashMap<>();
+
+  private final Thread[] workers;
+
+  private volatile boolean shutdown = false;
+
+  private volatile Clock clock = Clock.systemUTC();
+
+  private final SaveTask shutdownTask = new SaveTask(null, Long.MIN_VALUE, () -> {
+  });
+
+  /**
+   * @param nThreads the number of worker threads
+   * @param delay    the delay of routine saves, may be zero
+   * @param timeUnit the unit of {@code delay}
+   */
+  public DeadlineDelegateSaveStrategy(int nThreads, long delay, TimeUnit timeUnit) {
+    Assert.isTrue(nThreads > 0, "nThreads must be positive");
+    Assert.isTrue(delay >= 0, "delay cannot be negative");
+    this.delayMillis = timeUnit.toMillis(delay);
+    this.workers = new Thread[nThreads];
+    for (int i = 0; i < nThreads; i++) {
+      workers[i] = new Thread(this::work, "sticky-session-save-" + (i + 1));
+      workers[i].setDaemon(true);
+      workers[i].start();
+    }
+  }
+
+  /**
+   * Sets the clock the delays and deadlines are measured with. Waiting workers notice a changed time only when they
+   * wake up, so this is mainly useful with a delay of zero.
+   *
+   * @param clock the clock to use
+   */
+  public void setClock(Clock clock) {
+    Assert.notNull(clock, "clock cannot be null");
+    this.clock = clock;
+  }
+
+  @Override
+  public void queueSaveDelegate(Runnable saveDelegate) {
+    queue.put(new SaveTask(null, clock.millis() + delayMillis, saveDelegate));
+  }
+
+  @Override
+  public void queueSaveDelegate(String sessionId, Instant deadline, Runnable saveDelegate) {
+    long dueMillis = Math.min(clock.millis() + delayMillis, deadline.toEpochMilli());
+    SaveTask task = new SaveTask(sessionId, dueMillis, saveDelegate);
+    SaveTask existing = waiting.putIfAbsent(sessionId, task);
+    while (existing != null) {
+      if (existing.dueMillis <= dueMillis) {
+        // the waiting save runs early enough, let it run the latest save action
+        existing.saveDelegate = saveDelegate;
+        if (waiting.get(sessionId) == existing) {
+          return;
+        }
+        // the waiting save has just been taken by a worker, it might have missed the update
+        existing = waiting.putIfAbsent(sessionId, task);
+      } else if (waiting.replace(sessionId, existing, task)) {
+        queue.remove(existing);
+        break;
+      } else {
+        existing = waiting.putIfAbsent(sessionId, task);
+      }
+    }
+    queue.put(task);
+  }
+
+  private void work() {
+    try {
+      SaveTask task;
+      while ((task = queue.take()) != shutdownTask) {
+        run(task);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    // all waiting saves are due now, see SaveTask#getDelay
+    SaveTask task;
+    while ((task = queue.poll()) != null) {
+      if (task != shutdownTask) {
+        run(task);
+      }
+    }
+    // pass the shutdown on to the next worker
+    queue.put(shutdownTask);
+  }
+
+  private void run(SaveTask task) {
+    if (task.sessionId != null) {
+      waiting.remove(task.sessionId, task);
+    }
+    try {
+      task.saveDelegate.run();
+    } catch (RuntimeException e) {
+      logger.warn("Could not save delegate session " + task.sessionId + ".", e);
+    }
+  }
+
+  /**
+   * @return the number of waiting saves
+   */
+  public int getQueueSize() {
+    return queue.size();
+  }
+
+  @Override
+  public void destroy() throws InterruptedException {
+    shutdown = true;
+    // wakes up a worker, which runs the remaining saves, and re-queues the task for the next worker before exiting
+    queue.put(shutdownTask);
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    // the last worker has passed the shutdown on to nobody
+    queue.remove(shutdownTask);
+  }
+
+  private final class SaveTask implements Delayed {
+    final @Nullable String sessionId;
+
+    final long dueMillis;
+
+    volatile Runnable saveDelegate;
+
+    SaveTask(@Nullable String sessionId, long dueMillis, Runnable saveDelegate) {
+      this.sessionId = sessionId;
+      this.dueMillis = dueMillis;
+      this.saveDelegate = saveDelegate;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return shutdown ? 0 : unit.convert(dueMillis - clock.millis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+      return Long.compare(dueMillis, ((SaveTask) other).dueMillis);
+    }
+  }
+}
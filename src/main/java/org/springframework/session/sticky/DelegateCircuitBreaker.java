@@ -0,0 +1,167 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.function.Predicate;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.util.Assert;
+
+/**
+ * Circuit breaker for the calls of a {@link StickySessionRepository} to the remote repository, see
+ * {@link StickySessionRepository#setCircuitBreaker(DelegateCircuitBreaker)}.
+ * <p>
+ * The breaker opens after a number of consecutive failures, and rejects all calls while it is open. After the open
+ * period, calls are allowed again on trial: the first successful call closes the breaker, while the first failed call
+ * opens it again for twice the previous period (up to a maximum).
+ * <p>
+ * By default, {@link DataAccessResourceFailureException}s (e.g. failed connections) and
+ * {@link TransientDataAccessException}s (e.g. command timeouts) count as failures, all other exceptions indicate that
+ * the remote repository is available.
+ *
+ * @author Bernhard Frauendienst
+ */
+public class DelegateCircuitBreaker {
+
+  private static final Log logger = LogFactory.getLog(DelegateCircuitBreaker.class);
+
+  private final int failureThreshold;
+
+  private final long minOpenMillis;
+
+  private final long maxOpenMillis;
+
+  private Predicate<RuntimeException> failurePredicate = e -> e instanceof DataAccessResourceFailureException
+      || e instanceof TransientDataAccessException;
+
+  private Clock clock = Clock.systemUTC();
+
+  private volatile boolean closed = true;
+
+  /**
+   * The consecutive failures while closed, modified while holding {@code this}
+   */
+  private volatile int failures = 0;
+
+  /**
+   * The current open period and its end, guarded by {@code this}
+   */
+  private long openMillis;
+
+  private volatile long openUntilMillis;
+
+  /**
+   * @param failureThreshold the number of consecutive failures after which the breaker opens
+   * @param openDuration     the initial open period
+   * @param maxOpenDuration  the maximum open period
+   */
+  public DelegateCircuitBreaker(int failureThreshold, Duration openDuration, Duration maxOpenDuration) {
+    Assert.isTrue(failureThreshold > 0, "failureThreshold must be positive");
+    Assert.isTrue(!openDuration.isNegative(), "openDuration cannot be negative");
+    this.failureThreshold = failureThreshold;
+    this.minOpenMillis = openDuration.toMillis();
+    this.maxOpenMillis = Math.max(maxOpenDuration.toMillis(), minOpenMillis);
+    this.openMillis = minOpenMillis;
+  }
+
+  /**
+   * Sets the predicate deciding which exceptions thrown by the remote repository count as failures.
+   *
+   * @param failurePredicate the predicate to use
+   */
+  public void setFailurePredicate(Predicate<RuntimeException> failurePredicate) {
+    Assert.notNull(failurePredicate, "failurePredicate cannot be null");
+    this.failurePredicate = failurePredicate;
+  }
+
+  public void setClock(Clock clock) {
+    Assert.notNull(clock, "clock cannot be null");
+    this.clock = clock;
+  }
+
+  /**
+   * @return {@code false} if the breaker is open, and calls to the remote repository should not be made
+   */
+  public boolean allowRequest() {
+    return closed || clock.millis() >= openUntilMillis;
+  }
+
+  /**
+   * @return whether the breaker is closed, i.e. the last calls to the remote repository have succeeded
+   */
+  public boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Records a successful call to the remote repository.
+   */
+  public void recordSuccess() {
+    if (closed && failures == 0) {
+      return;
+    }
+    synchronized (this) {
+      if (!closed) {
+        logger.info("Remote session repository is available again, closing circuit breaker.");
+      }
+      closed = true;
+      failures = 0;
+      openMillis = minOpenMillis;
+    }
+  }
+
+  /**
+   * Records a call to the remote repository that has thrown the given exception.
+   *
+   * @param e the exception thrown by the remote repository
+   * @return whether the exception counts as a failure, i.e. the remote repository is unavailable
+   */
+  public boolean recordFailure(RuntimeException e) {
+    if (!failurePredicate.test(e)) {
+      return false;
+    }
+    synchronized (this) {
+      long now = clock.millis();
+      if (closed) {
+        if (++failures < failureThreshold) {
+          return true;
+        }
+        openMillis = minOpenMillis;
+      } else if (now < openUntilMillis) {
+        // a call started before the breaker opened
+        return true;
+      } else {
+        // the trial has failed
+        openMillis = Math.min(openMillis * 2, maxOpenMillis);
+      }
+      if (closed) {
+        logger.warn("Remote session repository is unavailable, opening circuit breaker for " + openMillis + "ms.", e);
+      } else if (logger.isDebugEnabled()) {
+        logger.debug("Remote session repository is still unavailable, re-opening circuit breaker for " + openMillis
+            + "ms.", e);
+      }
+      closed = false;
+      failures = 0;
+      openUntilMillis = now + openMillis;
+    }
+    return true;
+  }
+}
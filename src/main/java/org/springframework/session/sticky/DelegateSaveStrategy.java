@@ -8,15 +8,32 @@
  */
 package org.springframework.session.sticky;
 
+import java.time.Instant;
+
 /**
  * Interface for dispatching saving of a delegate session.
  *
  * @see SynchronousDelegateSaveStrategy
  * @see AsyncDelegateSaveStrategy
  * @see DelayedDelegateSaveStrategy
+ * @see DeadlineDelegateSaveStrategy
  *
  * @author Bernhard Frauendienst <bernhard.frauendienst@markt.de>
  */
 public interface DelegateSaveStrategy {
   void queueSaveDelegate(Runnable saveDelegate);
+
+  /**
+   * Queues saving of the given session, which should happen no later than the given deadline, e.g. before the remote
+   * session expires. Saves of the same session may be merged, the last given action saves all pending changes.
+   * <p>
+   * The default implementation ignores the session id and the deadline.
+   *
+   * @param sessionId    the id of the session to save
+   * @param deadline     the time by which the session should be saved
+   * @param saveDelegate the action saving the session
+   */
+  default void queueSaveDelegate(String sessionId, Instant deadline, Runnable saveDelegate) {
+    queueSaveDelegate(saveDelegate);
+  }
 }
@@ -35,4 +35,16 @@ public interface LastAccessedTimeAccessor {
    * @return the lastAccessedTime if the session exists, {@code null} otherwise
    */
   @Nullable Instant getLastAccessedTime(String sessionId);
+
+  /**
+   * Like {@link #getLastAccessedTime(String)}, but never served by a replica that might lag behind the primary store.
+   * This is used when the result must reflect all saves that have completed before, e.g. after another node has
+   * been asked to flush its pending changes. By default, this delegates to {@link #getLastAccessedTime(String)}.
+   *
+   * @param sessionId the session id
+   * @return the lastAccessedTime if the session exists, {@code null} otherwise
+   */
+  default @Nullable Instant getPrimaryLastAccessedTime(String sessionId) {
+    return getLastAccessedTime(sessionId);
+  }
 }
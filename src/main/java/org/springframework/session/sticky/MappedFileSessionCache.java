@@ -0,0 +1,347 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.serializer.support.DeserializingConverter;
+import org.springframework.core.serializer.support.SerializationFailedException;
+import org.springframework.core.serializer.support.SerializingConverter;
+import org.springframework.lang.Nullable;
+import org.springframework.session.MapSession;
+import org.springframework.session.Session;
+import org.springframework.util.Assert;
+
+/**
+ * {@link SecondLevelSessionCache} that stores JDK-serialized sessions in memory-mapped, append-only segment files.
+ * <p>
+ * Every {@link #put(PartialSession) put} appends the session to the current segment, and a new segment is started
+ * when it is full. When the configured number of segments is reached, the oldest segment is recycled as the new
+ * segment, dropping all entries still stored in it, so the cache holds (roughly) the most recently evicted sessions.
+ * Replaced, removed and expired entries are never rewritten, their space is reclaimed when their segment is recycled.
+ * <p>
+ * Segment files stay mapped and are reused instead of being deleted, because a mapping cannot be released explicitly
+ * before Java 9: a deleted file would keep occupying disk space until its buffer has been garbage-collected, and
+ * cannot be deleted at all on Windows. Readers detect that the segment of an entry has been recycled while they were
+ * reading it, and treat the entry as missing.
+ * <p>
+ * The index of stored entries is kept on the heap, so the segment files are not reused after a restart. Every cache
+ * instance creates its segment files in a new subdirectory, which is deleted (along with the segment files) when this
+ * cache is {@linkplain #destroy() destroyed}, so files left over by a previous instance never get in the way. The
+ * disk space of deleted files is reclaimed once their buffers have been garbage-collected. Sessions with attributes
+ * that are not serializable are not stored.
+ *
+ * @author Bernhard Frauendienst
+ */
+public class MappedFileSessionCache implements SecondLevelSessionCache, DisposableBean {
+
+  private static final Log logger = LogFactory.getLog(MappedFileSessionCache.class);
+
+  public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  private static final int MIN_SEGMENT_SIZE = 1024 * 1024;
+
+  private final Path directory;
+
+  private final int segmentSize;
+
+  private final int maxSegments;
+
+  private final Map<String, Location> index = new ConcurrentHashMap<>();
+
+  /**
+   * The current segments, oldest first, guarded by {@code this}
+   */
+  private final Deque<Segment> segments = new ArrayDeque<>();
+
+  private long nextSegmentNumber = 0;
+
+  private final SerializingConverter serializer = new SerializingConverter();
+
+  private DeserializingConverter deserializer = new DeserializingConverter();
+
+  private Clock clock = Clock.systemUTC();
+
+  /**
+   * Creates a cache with a total size of at most {@code maxSize} bytes, split into segments of at most
+   * {@link #DEFAULT_SEGMENT_SIZE} bytes.
+   *
+   * @param directory the directory to create the segment directory in, or {@code null} to use the default temporary
+   *                  directory
+   * @param maxSize   the maximum total size of all segment files
+   * @throws IOException if the segment directory cannot be created
+   */
+  public MappedFileSessionCache(@Nullable Path directory, long maxSize) throws IOException {
+    this(directory, segmentSizeFor(maxSize), (int) Math.max(2, maxSize / segmentSizeFor(maxSize)));
+  }
+
+  private static int segmentSizeFor(long maxSize) {
+    return (int) Math.min(DEFAULT_SEGMENT_SIZE, Math.max(maxSize / 4, MIN_SEGMENT_SIZE));
+  }
+
+  /**
+   * @param directory   the directory to create the segment directory in, or {@code null} to use the default temporary
+   *                    directory
+   * @param segmentSize the size of a segment file in bytes, which limits the size of a stored session
+   * @param maxSegments the maximum number of segment files, must be at least two
+   * @throws IOException if the segment directory cannot be created
+   */
+  public MappedFileSessionCache(@Nullable Path directory, int segmentSize, int maxSegments) throws IOException {
+    Assert.isTrue(segmentSize > 0, "segmentSize must be positive");
+    Assert.isTrue(maxSegments >= 2, "maxSegments must be at least two");
+    this.directory = directory != null
+        ? Files.createTempDirectory(Files.createDirectories(directory), "sticky-sessions")
+        : Files.createTempDirectory("sticky-sessions");
+    this.segmentSize = segmentSize;
+    this.maxSegments = maxSegments;
+  }
+
+  /**
+   * Sets the class loader used to deserialize stored sessions.
+   *
+   * @param classLoader the class loader
+   */
+  public void setClassLoader(ClassLoader classLoader) {
+    Assert.notNull(classLoader, "classLoader cannot be null");
+    this.deserializer = new DeserializingConverter(classLoader);
+  }
+
+  /**
+   * Sets the clock used to skip expired entries. The default is {@link Clock#systemUTC()}.
+   *
+   * @param clock the clock to use
+   */
+  public void setClock(Clock clock) {
+    Assert.notNull(clock, "clock cannot be null");
+    this.clock = clock;
+  }
+
+  /**
+   * @return the number of stored entries
+   */
+  public int size() {
+    return index.size();
+  }
+
+  @Override
+  public void put(PartialSession partial) {
+    Session session = partial.getSession();
+    byte[] payload;
+    try {
+      payload = serializer.convert(new Object[] { session, new HashSet<>(partial.getUnloadedAttributeNames()) });
+    } catch (SerializationFailedException e) {
+      if (logger.isDebugEnabled())
+        logger.debug("Session " + session.getId() + " cannot be serialized, not storing it on disk.", e);
+      index.remove(session.getId());
+      return;
+    }
+    if (payload.length > segmentSize) {
+      index.remove(session.getId());
+      return;
+    }
+
+    Duration maxInactiveInterval = session.getMaxInactiveInterval();
+    long expiresAtMillis = maxInactiveInterval.isNegative() ? Long.MAX_VALUE
+        : session.getLastAccessedTime().toEpochMilli() + maxInactiveInterval.toMillis();
+    synchronized (this) {
+      Segment segment = segments.peekLast();
+      try {
+        if (segment == null || segment.remaining() < payload.length) {
+          segment = addSegment();
+        }
+      } catch (IOException e) {
+        logger.warn("Could not create session cache segment in " + directory + ".", e);
+        index.remove(session.getId());
+        return;
+      }
+      int offset = segment.append(payload);
+      index.put(session.getId(), new Location(segment, segment.generation, offset, payload.length, expiresAtMillis));
+    }
+  }
+
+  @Override
+  public @Nullable PartialSession get(String sessionId) {
+    Location location = index.get(sessionId);
+    if (location == null) {
+      return null;
+    }
+    if (location.expiresAtMillis <= clock.millis()) {
+      index.remove(sessionId, location);
+      return null;
+    }
+    try {
+      byte[] payload = location.read();
+      if (payload == null) {
+        index.remove(sessionId, location);
+        return null;
+      }
+      Object[] stored = (Object[]) deserializer.convert(payload);
+      @SuppressWarnings("unchecked")
+      Set<String> unloadedAttributeNames = (Set<String>) stored[1];
+      return new PartialSession((MapSession) stored[0], unloadedAttributeNames);
+    } catch (SerializationFailedException e) {
+      logger.warn("Could not deserialize session " + sessionId + " stored on disk.", e);
+      index.remove(sessionId, location);
+      return null;
+    }
+  }
+
+  @Override
+  public void remove(String sessionId) {
+    index.remove(sessionId);
+  }
+
+  @Override
+  public synchronized void destroy() {
+    index.clear();
+    while (!segments.isEmpty()) {
+      deleteSegment(segments.removeFirst());
+    }
+    try {
+      Files.deleteIfExists(directory);
+    } catch (IOException e) {
+      logger.warn("Could not delete session cache directory " + directory + ".", e);
+    }
+  }
+
+  /**
+   * Starts a new segment, recycling the oldest one if there are enough. Must be called while holding the lock.
+   */
+  private Segment addSegment() throws IOException {
+    if (segments.size() >= maxSegments) {
+      Segment oldest = segments.removeFirst();
+      if (logger.isDebugEnabled())
+        logger.debug("Recycling session cache segment " + oldest.file + ".");
+      index.values().removeIf(location -> location.segment == oldest);
+      oldest.recycle();
+      segments.addLast(oldest);
+      return oldest;
+    }
+    Path file = directory.resolve("segment-" + nextSegmentNumber++ + ".log");
+    MappedByteBuffer buffer;
+    // the mapping stays valid after the channel has been closed
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+    Segment segment = new Segment(file, buffer);
+    segments.addLast(segment);
+    return segment;
+  }
+
+  private void deleteSegment(Segment segment) {
+    if (logger.isDebugEnabled())
+      logger.debug("Deleting session cache segment " + segment.file + ".");
+    try {
+      // concurrent readers can still read from the mapping, which is released when it is garbage-collected
+      Files.deleteIfExists(segment.file);
+    } catch (IOException e) {
+      logger.warn("Could not delete session cache segment " + segment.file + ".", e);
+    }
+  }
+
+  private static final class Segment {
+    final Path file;
+
+    final MappedByteBuffer buffer;
+
+    /**
+     * The write position, guarded by the cache's lock
+     */
+    private int position = 0;
+
+    /**
+     * Incremented before the segment is overwritten, so readers can detect that their entry has been dropped
+     */
+    volatile int generation = 0;
+
+    Segment(Path file, MappedByteBuffer buffer) {
+      this.file = file;
+      this.buffer = buffer;
+    }
+
+    void recycle() {
+      generation++;
+      position = 0;
+    }
+
+    int remaining() {
+      return buffer.capacity() - position;
+    }
+
+    int append(byte[] payload) {
+      int offset = position;
+      ByteBuffer target = buffer.duplicate();
+      target.position(offset);
+      target.put(payload);
+      position += payload.length;
+      return offset;
+    }
+  }
+
+  /**
+   * The location of a stored entry. Entries are published to readers through the index, after they have been written.
+   */
+  private static final class Location {
+    final Segment segment;
+
+    final int generation;
+
+    final int offset;
+
+    final int length;
+
+    final long expiresAtMillis;
+
+    Location(Segment segment, int generation, int offset, int length, long expiresAtMillis) {
+      this.segment = segment;
+      this.generation = generation;
+      this.offset = offset;
+      this.length = length;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+
+    /**
+     * @return the stored entry, or {@code null} if its segment has been recycled
+     */
+    @Nullable
+    byte[] read() {
+      byte[] payload = new byte[length];
+      ByteBuffer source = segment.buffer.duplicate();
+      source.position(offset);
+      source.get(payload);
+      // the segment might have been overwritten while copying
+      return segment.generation == generation ? payload : null;
+    }
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky;
+
+import java.util.Set;
+
+import org.springframework.session.Session;
+import org.springframework.util.Assert;
+
+/**
+ * A session loaded by a {@link PartialSessionLoader}, together with the names of the attributes whose values have not
+ * been loaded.
+ *
+ * @author Bernhard Frauendienst
+ */
+public final class PartialSession {
+
+  private final Session session;
+
+  private final Set<String> unloadedAttributeNames;
+
+  /**
+   * @param session                the delegate session, which contains all attributes except the unloaded ones. When
+   *                               saved, it must only write its changed attributes, so the unloaded attributes are
+   *                               kept in the remote repository.
+   * @param unloadedAttributeNames the names of the attributes that have not been loaded
+   */
+  public PartialSession(Session session, Set<String> unloadedAttributeNames) {
+    Assert.notNull(session, "session cannot be null");
+    Assert.notNull(unloadedAttributeNames, "unloadedAttributeNames cannot be null");
+    this.session = session;
+    this.unloadedAttributeNames = unloadedAttributeNames;
+  }
+
+  public Session getSession() {
+    return session;
+  }
+
+  public Set<String> getUnloadedAttributeNames() {
+    return unloadedAttributeNames;
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * Extension interface for {@link StickySessionRepositoryAdapter} implementations that can load a session without all
+ * of its attribute values. Attributes that have not been loaded with the session are loaded on demand, the first
+ * time they are read from the cached session.
+ * <p>
+ * This is useful for sessions with large attributes that are rarely read, since such attributes are not transferred
+ * when a session is (re-)loaded into the cache, e.g. after another node has failed.
+ *
+ * @author Bernhard Frauendienst
+ */
+public interface PartialSessionLoader {
+
+  /**
+   * Loads the session with the given id, without the values of some of its attributes.
+   *
+   * @param id the session id
+   * @return the partially loaded session, or {@code null} if the session does not exist or is expired
+   */
+  @Nullable
+  PartialSession findPartialById(String id);
+
+  /**
+   * Like {@link #findPartialById(String)}, but never served by a replica that might lag behind the primary store, see
+   * {@link LastAccessedTimeAccessor#getPrimaryLastAccessedTime(String)}. By default, this delegates to
+   * {@link #findPartialById(String)}.
+   *
+   * @param id the session id
+   * @return the partially loaded session, or {@code null} if the session does not exist or is expired
+   */
+  @Nullable
+  default PartialSession findPrimaryPartialById(String id) {
+    return findPartialById(id);
+  }
+
+  /**
+   * Loads the value of a single attribute of the session with the given id.
+   *
+   * @param sessionId     the session id
+   * @param attributeName the attribute name
+   * @return the attribute value, or {@code null} if the attribute (or the session) does not exist
+   */
+  @Nullable
+  Object loadAttribute(String sessionId, String attributeName);
+
+}
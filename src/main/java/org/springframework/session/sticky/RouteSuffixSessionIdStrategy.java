@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky;
+
+import org.springframework.util.Assert;
+
+/**
+ * {@link SessionIdStrategy} that appends a node route to the session id, separated by a dot (e.g.
+ * {@code 4c8a0d3e-...-7f21.node1}). This is the format used by Tomcat's {@code jvmRoute}, and is understood by most
+ * load-balancers supporting sticky sessions.
+ * <p>
+ * The remote session ids must not contain the separator character.
+ *
+ * @author Bernhard Frauendienst
+ */
+public class RouteSuffixSessionIdStrategy implements SessionIdStrategy {
+
+  public static final char DEFAULT_SEPARATOR = '.';
+
+  private final String route;
+
+  private final char separator;
+
+  private final String suffix;
+
+  public RouteSuffixSessionIdStrategy(String route) {
+    this(route, DEFAULT_SEPARATOR);
+  }
+
+  public RouteSuffixSessionIdStrategy(String route, char separator) {
+    Assert.hasText(route, "route cannot be empty");
+    Assert.isTrue(route.indexOf(separator) < 0, "route cannot contain the separator character");
+    this.route = route;
+    this.separator = separator;
+    this.suffix = separator + route;
+  }
+
+  public String getRoute() {
+    return route;
+  }
+
+  @Override
+  public String resolveSessionId(String exposedId) {
+    int separatorIndex = exposedId.lastIndexOf(separator);
+    return separatorIndex < 0 ? exposedId : exposedId.substring(0, separatorIndex);
+  }
+
+  @Override
+  public String exposeSessionId(String sessionId) {
+    return sessionId + suffix;
+  }
+
+  @Override
+  public boolean isLocal(String exposedId) {
+    return exposedId.length() > suffix.length() && exposedId.endsWith(suffix);
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky;
+
+import org.springframework.lang.Nullable;
+import org.springframework.session.MapSession;
+
+/**
+ * A local cache tier below the {@link StickySessionCache}, holding sessions that have been evicted from the heap, see
+ * {@link StickySessionRepository#setSecondLevelCache(SecondLevelSessionCache)}.
+ * <p>
+ * The sessions of stored entries are {@link MapSession}s, which contain all attributes except the unloaded ones.
+ * Implementations may drop entries at any time.
+ *
+ * @author Bernhard Frauendienst
+ */
+public interface SecondLevelSessionCache {
+
+  /**
+   * Stores the given session, replacing any previously stored state of the same session.
+   *
+   * @param session the session, whose {@link PartialSession#getSession() session} is a {@link MapSession}
+   */
+  void put(PartialSession session);
+
+  /**
+   * Returns the stored state of the given session.
+   *
+   * @param sessionId the session id
+   * @return the stored session, or {@code null} if it is not stored (anymore)
+   */
+  @Nullable
+  PartialSession get(String sessionId);
+
+  /**
+   * Removes the stored state of the given session, if any.
+   *
+   * @param sessionId the session id
+   */
+  void remove(String sessionId);
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.lang.Nullable;
+
+/**
+ * {@link AttributeFingerprintStrategy} that hashes the JDK-serialized form of attribute values with 64-bit FNV-1a.
+ * The serialized form is hashed while it is written, so it is never buffered. Values that are not serializable are
+ * not fingerprinted, and therefore always saved.
+ * <p>
+ * Note that the serialized form must be deterministic, e.g. attributes containing {@link java.util.HashSet}s of
+ * objects with identity hash codes are considered changed on every request.
+ *
+ * @author Bernhard Frauendienst
+ */
+public class SerializedAttributeFingerprintStrategy implements AttributeFingerprintStrategy {
+
+  private static final Log logger = LogFactory.getLog(SerializedAttributeFingerprintStrategy.class);
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  @Override
+  public @Nullable Object fingerprint(String attributeName, Object attributeValue) {
+    HashingOutputStream hash = new HashingOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(hash)) {
+      out.writeObject(attributeValue);
+    } catch (IOException e) {
+      if (logger.isTraceEnabled())
+        logger.trace("Cannot fingerprint attribute " + attributeName + ", it will always be saved.", e);
+      return null;
+    }
+    return hash.getHash();
+  }
+
+  private static final class HashingOutputStream extends OutputStream {
+    private long hash = FNV_OFFSET_BASIS;
+
+    private long length = 0;
+
+    @Override
+    public void write(int b) {
+      hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+      length++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      long hash = this.hash;
+      for (int i = off; i < off + len; i++) {
+        hash = (hash ^ (b[i] & 0xff)) * FNV_PRIME;
+      }
+      this.hash = hash;
+      length += len;
+    }
+
+    long getHash() {
+      return (hash ^ length) * FNV_PRIME;
+    }
+  }
+}
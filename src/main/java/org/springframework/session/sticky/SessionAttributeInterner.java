@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.springframework.lang.Nullable;
+import org.springframework.session.MapSession;
+import org.springframework.session.Session;
+import org.springframework.session.sticky.internal.util.StripedWeakHashMap;
+import org.springframework.util.Assert;
+
+/**
+ * Canonicalizes the attributes of sessions loaded into the cache: attribute names are interned, and values of
+ * registered immutable types are deduplicated, so equal values loaded with different sessions share a single instance.
+ * <p>
+ * Canonical instances are kept in a weak pool, so they are only retained as long as they are referenced by any cached
+ * session. Only types whose instances are immutable (and implement {@link Object#equals(Object)} and
+ * {@link Object#hashCode()} accordingly) must be registered, since all sessions share the canonical instance.
+ * {@link String}, {@link Boolean}, {@link Integer}, {@link Long} and {@link Locale} are registered by default.
+ *
+ * @author Bernhard Frauendienst
+ * @see StickySessionRepository#setAttributeInterner(SessionAttributeInterner)
+ */
+public class SessionAttributeInterner {
+
+  private final Set<Class<?>> immutableTypes = new CopyOnWriteArraySet<>();
+
+  private final ClassValue<Boolean> internedTypes = new ClassValue<Boolean>() {
+    @Override
+    protected Boolean computeValue(Class<?> type) {
+      return immutableTypes.stream().anyMatch(immutableType -> immutableType.isAssignableFrom(type));
+    }
+  };
+
+  private final StripedWeakHashMap<Object, WeakReference<Object>> pool = new StripedWeakHashMap<>();
+
+  public SessionAttributeInterner() {
+    this.immutableTypes.addAll(Arrays.asList(String.class, Boolean.class, Integer.class, Long.class, Locale.class));
+  }
+
+  /**
+   * Registers an immutable type, whose instances (including instances of subclasses) will be deduplicated. Types
+   * should be registered before the interner is used.
+   *
+   * @param immutableType the immutable type
+   */
+  public void registerImmutableType(Class<?> immutableType) {
+    Assert.notNull(immutableType, "immutableType cannot be null");
+    this.immutableTypes.add(immutableType);
+  }
+
+  /**
+   * Returns a copy of the given session with interned attribute names and canonical attribute values.
+   *
+   * @param session the session to canonicalize
+   * @return the canonicalized copy
+   */
+  public MapSession intern(Session session) {
+    MapSession interned = new MapSession(session.getId());
+    interned.setCreationTime(session.getCreationTime());
+    interned.setLastAccessedTime(session.getLastAccessedTime());
+    interned.setMaxInactiveInterval(session.getMaxInactiveInterval());
+    for (String attributeName : session.getAttributeNames()) {
+      interned.setAttribute(internName(attributeName), internValue(session.getAttribute(attributeName)));
+    }
+    return interned;
+  }
+
+  /**
+   * @param attributeName an attribute name
+   * @return the canonical instance of the attribute name
+   */
+  public String internName(String attributeName) {
+    return (String) canonical(attributeName);
+  }
+
+  /**
+   * @param attributeValue an attribute value
+   * @return the canonical instance of the value if it is of a registered immutable type, the value itself otherwise
+   */
+  public @Nullable Object internValue(@Nullable Object attributeValue) {
+    if (attributeValue == null || !internedTypes.get(attributeValue.getClass())) {
+      return attributeValue;
+    }
+    return canonical(attributeValue);
+  }
+
+  /**
+   * @return the number of canonical instances in the pool, including instances that are no longer referenced but
+   * have not been cleared yet
+   */
+  public int size() {
+    return pool.size();
+  }
+
+  private Object canonical(Object value) {
+    WeakReference<Object> reference = pool.compute(value,
+        (key, existing) -> existing != null && existing.get() != null ? existing : new WeakReference<>(value));
+    Object canonical = reference != null ? reference.get() : null;
+    // equal instances of different classes (e.g. lists) must not be exchanged
+    return canonical != null && canonical.getClass() == value.getClass() ? canonical : value;
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky;
+
+import java.time.Duration;
+import java.util.Set;
+
+import org.springframework.lang.Nullable;
+import org.springframework.session.MapSession;
+import org.springframework.session.Session;
+
+/**
+ * Extension interface for {@link StickySessionRepositoryAdapter} implementations that track which attributes of a
+ * remote session have changed, identified by opaque change versions.
+ * <p>
+ * If a cached session turns out to be outdated on revalidation, only the attributes changed since the version of the
+ * cached state are fetched and merged into the existing cache entry, instead of re-loading the whole session.
+ *
+ * @author Bernhard Frauendienst
+ */
+public interface SessionChangeTracker {
+
+  /**
+   * The change version of a session that has not been changed yet, e.g. a newly created session.
+   */
+  String NEW_SESSION_VERSION = "";
+
+  /**
+   * Returns the current change version of the remote session. This must be called <em>before</em> the session is
+   * loaded from the remote repository, so changes made concurrently to loading are not missed.
+   *
+   * @param sessionId the session id
+   * @return the change version, {@link #NEW_SESSION_VERSION} if no changes have been tracked yet, or {@code null} if
+   * changes are not tracked at all
+   */
+  @Nullable
+  String getChangeVersion(String sessionId);
+
+  /**
+   * Marks the given attributes as changed. This is called right before and right after the changes are saved to the
+   * remote repository, so concurrent readers will not miss them.
+   *
+   * @param sessionId           the session id
+   * @param attributeNames      the names of the changed attributes
+   * @param maxInactiveInterval the max inactive interval of the session
+   * @param knownVersion        the change version of the caller's state
+   * @return the change version of the caller's state after this change, which is the new version if there have been
+   * no other changes since {@code knownVersion}, or {@code knownVersion} otherwise. {@code null} if changes are not
+   * tracked at all.
+   */
+  @Nullable
+  String markChanged(String sessionId, Set<String> attributeNames, Duration maxInactiveInterval,
+      @Nullable String knownVersion);
+
+  /**
+   * Loads the attributes that have changed since (and including) the given change version.
+   *
+   * @param sessionId    the session id
+   * @param sinceVersion the change version of the caller's state
+   * @return the changes, or {@code null} if the changes since that version are unknown (or the session does not exist)
+   * and the session must be re-loaded
+   */
+  @Nullable
+  SessionChanges loadChanges(String sessionId, String sinceVersion);
+
+  /**
+   * Creates a delegate session for an existing remote session from the given (merged) state, without loading it.
+   *
+   * @param session the current state of the session
+   * @return a delegate session that reflects the given state
+   */
+  Session restoreSession(MapSession session);
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+
+import org.springframework.util.Assert;
+
+/**
+ * The changes of a remote session since a given change version, see {@link SessionChangeTracker}.
+ *
+ * @author Bernhard Frauendienst
+ */
+public final class SessionChanges {
+
+  private final String version;
+
+  private final Instant lastAccessedTime;
+
+  private final Duration maxInactiveInterval;
+
+  private final Map<String, Object> changedAttributes;
+
+  /**
+   * @param version             the change version of this state
+   * @param lastAccessedTime    the current lastAccessedTime of the session
+   * @param maxInactiveInterval the current maxInactiveInterval of the session
+   * @param changedAttributes   the changed attributes, with {@code null} values for removed attributes
+   */
+  public SessionChanges(String version, Instant lastAccessedTime, Duration maxInactiveInterval,
+      Map<String, Object> changedAttributes) {
+    Assert.notNull(version, "version cannot be null");
+    Assert.notNull(lastAccessedTime, "lastAccessedTime cannot be null");
+    Assert.notNull(maxInactiveInterval, "maxInactiveInterval cannot be null");
+    Assert.notNull(changedAttributes, "changedAttributes cannot be null");
+    this.version = version;
+    this.lastAccessedTime = lastAccessedTime;
+    this.maxInactiveInterval = maxInactiveInterval;
+    this.changedAttributes = changedAttributes;
+  }
+
+  public String getVersion() {
+    return version;
+  }
+
+  public Instant getLastAccessedTime() {
+    return lastAccessedTime;
+  }
+
+  public Duration getMaxInactiveInterval() {
+    return maxInactiveInterval;
+  }
+
+  public Map<String, Object> getChangedAttributes() {
+    return changedAttributes;
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.session.Session;
+
+/**
+ * Extension interface for {@link StickySessionRepositoryAdapter} implementations that allow expiry of sessions to be
+ * detected by the nodes caching them, instead of relying on the remote repository to emit
+ * {@link org.springframework.session.events.SessionExpiredEvent SessionExpiredEvents}.
+ * <p>
+ * Sessions that expire (or are evicted) from the local cache are confirmed against the remote repository in batches,
+ * and the expiry event of every confirmed session is claimed, so it is only published by a single node in the
+ * cluster. See {@link StickySessionRepository#setLocalExpiryEvents(boolean)}.
+ *
+ * @author Bernhard Frauendienst
+ */
+public interface SessionExpiryConfirmer {
+
+  /**
+   * Loads the remote state of the given sessions, including sessions that have already expired.
+   *
+   * @param sessionIds the session ids
+   * @return the sessions that still exist in the remote repository, by id
+   */
+  Map<String, Session> findSessionsById(Collection<String> sessionIds);
+
+  /**
+   * Claims the expiry events of the given expired sessions for this node, and cleans up any indexes of these sessions
+   * in the remote repository. Each expiry event can only be claimed once.
+   *
+   * @param expiredSessions the remote state of the expired sessions
+   * @return the ids of the sessions whose expiry events have been claimed by this node
+   */
+  Set<String> claimExpiryEvents(Collection<Session> expiredSessions);
+
+}
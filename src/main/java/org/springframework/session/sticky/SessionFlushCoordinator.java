@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky;
+
+import java.time.Duration;
+
+/**
+ * Extension interface for {@link StickySessionRepositoryAdapter} implementations that allow other nodes to request
+ * pending changes of a session to be saved immediately.
+ * <p>
+ * When saves are deferred (e.g. by a {@link DelayedDelegateSaveStrategy}), the session is marked as unsaved by this
+ * node until the changes have been written to the remote repository. Before another node loads or revalidates such a
+ * session, it asks this node to flush the pending changes, and waits for a bounded time. This allows long save
+ * delays without serving stale sessions when requests are moved to another node.
+ *
+ * @author Bernhard Frauendienst
+ */
+public interface SessionFlushCoordinator {
+
+  /**
+   * Marks the given session as having unsaved changes on this node. This is called while the session is locked, so
+   * implementations should not block on remote calls; they may apply marks asynchronously, as long as marks and
+   * removals of a session are applied in the order they were requested.
+   *
+   * @param sessionId           the session id
+   * @param maxInactiveInterval the max inactive interval of the session, after which the mark may expire
+   */
+  void markUnsaved(String sessionId, Duration maxInactiveInterval);
+
+  /**
+   * Removes the mark set by {@link #markUnsaved(String, Duration)}, if it is still held by this node.
+   *
+   * @param sessionId the session id
+   */
+  void markSaved(String sessionId);
+
+  /**
+   * If another node has marked the given session as unsaved, requests that node to flush its pending changes, and
+   * waits until it has done so or the configured timeout has elapsed.
+   *
+   * @param sessionId the session id
+   * @return {@code true} if no other node has unsaved changes of the session (anymore), {@code false} if the changes
+   * could not be flushed in time
+   */
+  boolean requestFlush(String sessionId);
+
+  /**
+   * Sets the listener that is notified if another node requests a flush of a session marked by this node.
+   *
+   * @param flushListener the flush listener
+   */
+  void setFlushListener(FlushListener flushListener);
+
+  /**
+   * Callback interface for {@link SessionFlushCoordinator} implementations.
+   */
+  interface FlushListener {
+
+    /**
+     * Called when another node requests the pending changes of the given session to be saved. The changes must be
+     * saved (and {@link #markSaved(String)} called) before this method returns.
+     *
+     * @param sessionId the session id
+     * @return {@code true} if there are no pending changes anymore, {@code false} if they could not be saved (e.g.
+     * because the remote repository is unavailable)
+     */
+    boolean flushRequested(String sessionId);
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky;
+
+/**
+ * Strategy that maps between the session ids exposed by a {@link StickySessionRepository} and the ids of the cached
+ * (and remote) sessions. Implementations can embed a route token identifying the node that owns a session into the
+ * exposed id, which allows the repository to skip revalidation of sessions that have not been served by any other
+ * node.
+ *
+ * @author Bernhard Frauendienst
+ * @see RouteSuffixSessionIdStrategy
+ * @see StickySessionRepository#setSessionIdStrategy(SessionIdStrategy)
+ */
+public interface SessionIdStrategy {
+
+  /**
+   * Returns the id of the cached session referenced by an exposed session id, i.e. strips any route token from it.
+   *
+   * @param exposedId the session id as received from the client
+   * @return the session id as known to the remote repository
+   */
+  String resolveSessionId(String exposedId);
+
+  /**
+   * Returns the id under which the given session should be exposed when it is owned by this node.
+   *
+   * @param sessionId the session id as known to the remote repository
+   * @return the session id to send to the client
+   */
+  String exposeSessionId(String sessionId);
+
+  /**
+   * Returns whether the given exposed session id carries this node's route token.
+   *
+   * @param exposedId the session id as received from the client
+   * @return {@code true} if the session id routes to this node, {@code false} if it routes to another node or
+   * carries no route at all
+   */
+  boolean isLocal(String exposedId);
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky;
+
+/**
+ * Extension interface for {@link StickySessionRepositoryAdapter} implementations that can grant this node an exclusive,
+ * short-lived ownership lease on a session.
+ * <p>
+ * While this node holds the lease of a session, it is the only node serving the session from its cache, so the cached
+ * copy can be served without revalidation. Leases are renewed in the background as long as the session is cached.
+ * Another node serving the session does not take over the lease, but revokes it. The owner notices the revocation at
+ * its next renewal at the latest, then saves its pending changes, stops serving the session from its cache and
+ * releases the lease. The revoking node waits until the lease has been released or has expired before it acquires the
+ * lease and reads the session, so it sees all changes of the previous owner.
+ *
+ * @author Bernhard Frauendienst
+ */
+public interface SessionLeaseManager {
+
+  /**
+   * Acquires (or renews) the lease for the given session. If another node holds the lease, it is revoked, and this
+   * method blocks until the other node has released it or it has expired. Implementations may give up waiting after
+   * a while. Leases should only be acquired for sessions that exist in the remote repository.
+   *
+   * @param sessionId the session id
+   * @return {@code true} if this node holds the lease afterwards, {@code false} if it could not be acquired or this
+   *     node's lease has been revoked
+   */
+  boolean acquireLease(String sessionId);
+
+  /**
+   * Returns whether this node currently holds a valid lease for the given session. This must not access the
+   * remote store.
+   *
+   * @param sessionId the session id
+   * @return {@code true} if this node holds a valid lease
+   */
+  boolean holdsLease(String sessionId);
+
+  /**
+   * Releases the lease for the given session if it is held by this node.
+   *
+   * @param sessionId the session id
+   */
+  void releaseLease(String sessionId);
+
+  /**
+   * Sets the listener that is consulted when leases are renewed, and notified if a lease has been revoked by
+   * another node.
+   *
+   * @param leaseListener the lease listener
+   */
+  void setLeaseListener(LeaseListener leaseListener);
+
+  /**
+   * Callback interface for {@link SessionLeaseManager} implementations.
+   */
+  interface LeaseListener {
+
+    /**
+     * Returns whether the lease for the given session should be renewed. Leases that are not needed anymore will
+     * be released.
+     *
+     * @param sessionId the session id
+     * @return {@code true} if the lease should be renewed
+     */
+    boolean isLeaseNeeded(String sessionId);
+
+    /**
+     * Called when another node has revoked the lease for the given session. The revoking node waits until this method
+     * has returned, so pending changes of the session must be saved before.
+     *
+     * @param sessionId the session id
+     */
+    void leaseLost(String sessionId);
+  }
+}
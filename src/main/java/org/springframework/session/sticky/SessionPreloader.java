@@ -0,0 +1,48 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.session.Session;
+
+/**
+ * Extension interface for {@link StickySessionRepositoryAdapter} implementations that can find and load the most
+ * recently active sessions in bulk, so the cache can be warmed up after a node has been started. See
+ * {@link StickySessionRepository#warmUp(int, java.time.Duration, java.util.concurrent.Executor)}.
+ *
+ * @author Bernhard Frauendienst
+ */
+public interface SessionPreloader {
+
+  /**
+   * Finds the ids of the sessions that have been active most recently, most recent first (as far as known).
+   *
+   * @param maxSessions the maximum number of session ids to return
+   * @return the session ids
+   */
+  List<String> findRecentlyActiveSessionIds(int maxSessions);
+
+  /**
+   * Loads the given sessions from the remote repository in a single batch.
+   *
+   * @param sessionIds the session ids
+   * @return the sessions that exist in the remote repository, by id (including sessions that have expired)
+   */
+  Map<String, Session> loadSessions(Collection<String> sessionIds);
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky;
+
+import org.springframework.session.Session;
+
+/**
+ * Extension interface for {@link StickySessionRepositoryAdapter} implementations that can change the id of a remote
+ * session without loading it.
+ * <p>
+ * Without this interface, {@link Session#changeSessionId()} on a sticky session requires saving pending changes,
+ * re-loading the delegate session from the remote repository, and saving it again under its new id.
+ *
+ * @author Bernhard Frauendienst
+ */
+public interface SessionRenamer {
+
+  /**
+   * Immediately renames the remote session {@code oldSessionId} to the id of the given session, and returns a delegate
+   * session for the renamed remote session that reflects the state of the given session.
+   * <p>
+   * If the remote session does not exist, the returned delegate session must create it when it is saved.
+   *
+   * @param oldSessionId the current id of the remote session
+   * @param session      the current state of the session, carrying the new session id
+   * @return a delegate session bound to the new session id
+   */
+  Session renameSession(String oldSessionId, Session session);
+
+  /**
+   * Returns whether sessions are renamed by this renamer. If not, session ids are changed by re-loading the session.
+   * By default, renaming is enabled.
+   *
+   * @return {@code true} if {@link #renameSession(String, Session)} can be used
+   */
+  default boolean isRenamingEnabled() {
+    return true;
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky;
+
+/**
+ * Extension interface for {@link StickySessionRepositoryAdapter} implementations that replicate the changes saved by
+ * one node to the caches of other nodes.
+ * <p>
+ * After a session with {@linkplain SessionChangeTracker tracked changes} has been saved, the changed attributes are
+ * published together with the change version they are based on. Other nodes that cache the session in exactly that
+ * version apply the changes in place, instead of refreshing or re-loading the session the next time it is
+ * revalidated. Nodes that do not cache the session, or cache a different version of it, ignore the changes.
+ *
+ * @author Bernhard Frauendienst
+ */
+public interface SessionReplicator {
+
+  /**
+   * Publishes the changes of a session that have just been saved by this node. Implementations may drop changes (e.g.
+   * if the replication channel is not available), since replication is only an optimization.
+   *
+   * @param sessionId   the session id
+   * @param baseVersion the change version the changes are based on
+   * @param changes     the changed attributes (with {@code null} values for removed attributes), and the resulting
+   *                    change version and session metadata
+   */
+  void replicateChanges(String sessionId, String baseVersion, SessionChanges changes);
+
+  /**
+   * Sets the listener that is notified of changes replicated by other nodes.
+   *
+   * @param replicationListener the replication listener
+   */
+  void setReplicationListener(ReplicationListener replicationListener);
+
+  /**
+   * Callback interface for {@link SessionReplicator} implementations.
+   */
+  interface ReplicationListener {
+
+    /**
+     * Returns whether this node caches the given session in the given change version, i.e. whether changes based on
+     * that version would be applied. Implementations call this before deserializing the changes, so it must be
+     * cheap. It may return {@code true} for changes that are not applied in the end.
+     *
+     * @param sessionId   the session id
+     * @param baseVersion the change version the changes are based on
+     * @return {@code false} if the changes can be skipped
+     */
+    boolean isCached(String sessionId, String baseVersion);
+
+    /**
+     * Called when another node has saved changes of the given session.
+     *
+     * @param sessionId   the session id
+     * @param baseVersion the change version the changes are based on
+     * @param changes     the changes
+     */
+    void changesReplicated(String sessionId, String baseVersion, SessionChanges changes);
+  }
+}
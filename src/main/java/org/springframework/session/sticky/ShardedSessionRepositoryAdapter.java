@@ -0,0 +1,340 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.lang.Nullable;
+import org.springframework.session.Session;
+import org.springframework.session.SessionRepository;
+import org.springframework.session.events.AbstractSessionEvent;
+import org.springframework.session.events.SessionCreatedEvent;
+import org.springframework.session.events.SessionDeletedEvent;
+import org.springframework.session.events.SessionDestroyedEvent;
+import org.springframework.session.events.SessionExpiredEvent;
+import org.springframework.util.Assert;
+
+/**
+ * {@link StickySessionRepositoryAdapter} that spreads sessions over several remote repositories (shards), e.g. one
+ * {@link org.springframework.session.data.redis.StickyRedisSessionRepositoryAdapter} per Redis primary.
+ * <p>
+ * The name of the shard holding a session is appended to the id of the remote session, separated by an underscore
+ * (e.g. {@code 4c8a0d3e-...-7f21_shard1}), so sessions can be found without any lookup, and keep their shard when
+ * their id is changed. New sessions are placed on the shards by consistent hashing (with {@value #VIRTUAL_NODES}
+ * virtual nodes per shard) of a random key, and ids without a shard name (e.g. of sessions created before sharding
+ * was introduced) are located by consistent hashing of the id, so adding a shard only moves a small share of them.
+ * <p>
+ * Events published by the shards are re-published with the sharded session ids. The
+ * {@link Session#getLastAccessedTime() lastAccessedTime} is fetched with the {@link LastAccessedTimeAccessor} of the
+ * shard if it provides one, and by loading the session otherwise. The other extension interfaces of the shard
+ * adapters are not used, so with sharding, the {@link StickySessionRepository} runs without session leases
+ * ({@link SessionLeaseManager}), in-place renaming ({@link SessionRenamer}), change tracking and partial loads
+ * ({@link SessionChangeTracker}, {@link PartialSessionLoader}), replication ({@link SessionReplicator}) and flush
+ * coordination ({@link SessionFlushCoordinator}), and a {@linkplain StickySessionRepository#setSecondLevelCache
+ * second-level cache} cannot be configured.
+ * <p>
+ * The remote session ids must not contain the separator character.
+ *
+ * @author Bernhard Frauendienst
+ */
+public class ShardedSessionRepositoryAdapter
+    implements StickySessionRepositoryAdapter<ShardedSessionRepositoryAdapter.ShardedSessionRepository>,
+    LastAccessedTimeAccessor {
+
+  private static final Log logger = LogFactory.getLog(ShardedSessionRepositoryAdapter.class);
+
+  public static final char SEPARATOR = '_';
+
+  static final int VIRTUAL_NODES = 160;
+
+  private final Map<String, Shard> shards = new LinkedHashMap<>();
+
+  /**
+   * The consistent hash ring, mapping the hashes of the virtual nodes to their shards
+   */
+  private final TreeMap<Integer, Shard> ring = new TreeMap<>();
+
+  private final ShardedSessionRepository repository = new ShardedSessionRepository();
+
+  private volatile ApplicationEventPublisher eventPublisher = event -> {
+  };
+
+  /**
+   * @param shardAdapters the adapters of the remote repositories, by shard name
+   */
+  public ShardedSessionRepositoryAdapter(
+      Map<String, ? extends StickySessionRepositoryAdapter<? extends SessionRepository<?>>> shardAdapters) {
+    Assert.notEmpty(shardAdapters, "shardAdapters cannot be empty");
+    shardAdapters.forEach((name, adapter) -> {
+      Assert.hasText(name, "shard name cannot be empty");
+      Assert.isTrue(name.indexOf(SEPARATOR) < 0, "shard name cannot contain the separator character");
+      Shard shard = new Shard(name, adapter);
+      shards.put(name, shard);
+      for (int i = 0; i < VIRTUAL_NODES; i++) {
+        ring.put(hash(name + "#" + i), shard);
+      }
+      adapter.setApplicationEventPublisher(new ShardEventPublisher(shard));
+    });
+  }
+
+  /**
+   * @return the names of the shards
+   */
+  public Set<String> getShardNames() {
+    return Collections.unmodifiableSet(shards.keySet());
+  }
+
+  @Override public ShardedSessionRepository getSessionRepository() {
+    return repository;
+  }
+
+  @Override public void setApplicationEventPublisher(ApplicationEventPublisher eventPublisher) {
+    this.eventPublisher = eventPublisher;
+  }
+
+  @Override public @Nullable Instant getLastAccessedTime(String sessionId) {
+    return getLastAccessedTime(sessionId, false);
+  }
+
+  @Override public @Nullable Instant getPrimaryLastAccessedTime(String sessionId) {
+    return getLastAccessedTime(sessionId, true);
+  }
+
+  private @Nullable Instant getLastAccessedTime(String sessionId, boolean primary) {
+    Shard shard = locate(sessionId);
+    String remoteId = remoteId(sessionId);
+    if (shard.lastAccessedTimeAccessor != null) {
+      return primary ? shard.lastAccessedTimeAccessor.getPrimaryLastAccessedTime(remoteId)
+          : shard.lastAccessedTimeAccessor.getLastAccessedTime(remoteId);
+    }
+    Session session = shard.repository.findById(remoteId);
+    return session != null ? session.getLastAccessedTime() : null;
+  }
+
+  /**
+   * Returns the shard holding the session with the given (sharded) id.
+   */
+  private Shard locate(String sessionId) {
+    int separatorIndex = sessionId.lastIndexOf(SEPARATOR);
+    if (separatorIndex >= 0) {
+      Shard shard = shards.get(sessionId.substring(separatorIndex + 1));
+      if (shard != null) {
+        return shard;
+      }
+    }
+    return locateByHash(sessionId);
+  }
+
+  private Shard locateByHash(String key) {
+    Map.Entry<Integer, Shard> node = ring.ceilingEntry(hash(key));
+    return node != null ? node.getValue() : ring.firstEntry().getValue();
+  }
+
+  private String remoteId(String sessionId) {
+    int separatorIndex = sessionId.lastIndexOf(SEPARATOR);
+    return separatorIndex >= 0 && shards.containsKey(sessionId.substring(separatorIndex + 1))
+        ? sessionId.substring(0, separatorIndex) : sessionId;
+  }
+
+  /**
+   * FNV-1a, finalized with the MurmurHash3 mixer to spread similar keys over the ring.
+   */
+  static int hash(String key) {
+    int hash = 0x811c9dc5;
+    for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b & 0xff;
+      hash *= 0x01000193;
+    }
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    hash ^= hash >>> 16;
+    return hash;
+  }
+
+  private static final class Shard {
+    final String name;
+
+    final SessionRepository<Session> repository;
+
+    final @Nullable LastAccessedTimeAccessor lastAccessedTimeAccessor;
+
+    @SuppressWarnings("unchecked")
+    Shard(String name, StickySessionRepositoryAdapter<? extends SessionRepository<?>> adapter) {
+      this.name = name;
+      this.repository = (SessionRepository<Session>) adapter.getSessionRepository();
+      if (repository instanceof LastAccessedTimeAccessor) {
+        this.lastAccessedTimeAccessor = (LastAccessedTimeAccessor) repository;
+      } else if (adapter instanceof LastAccessedTimeAccessor) {
+        this.lastAccessedTimeAccessor = (LastAccessedTimeAccessor) adapter;
+      } else {
+        this.lastAccessedTimeAccessor = null;
+      }
+    }
+  }
+
+  /**
+   * The {@link SessionRepository} over all shards.
+   */
+  public final class ShardedSessionRepository implements SessionRepository<ShardedSession> {
+
+    @Override public ShardedSession createSession() {
+      Shard shard = locateByHash(UUID.randomUUID().toString());
+      return new ShardedSession(shard, shard.repository.createSession());
+    }
+
+    @Override public void save(ShardedSession session) {
+      session.shard.repository.save(session.delegate);
+    }
+
+    @Override public @Nullable ShardedSession findById(String id) {
+      Shard shard = locate(id);
+      Session delegate = shard.repository.findById(remoteId(id));
+      return delegate != null ? new ShardedSession(shard, delegate) : null;
+    }
+
+    @Override public void deleteById(String id) {
+      locate(id).repository.deleteById(remoteId(id));
+    }
+  }
+
+  /**
+   * A session of one of the shards, exposing the sharded id.
+   */
+  public static final class ShardedSession implements Session {
+    private final Shard shard;
+
+    private final Session delegate;
+
+    ShardedSession(Shard shard, Session delegate) {
+      this.shard = shard;
+      this.delegate = delegate;
+    }
+
+    /**
+     * @return the name of the shard holding this session
+     */
+    public String getShardName() {
+      return shard.name;
+    }
+
+    @Override public String getId() {
+      return delegate.getId() + SEPARATOR + shard.name;
+    }
+
+    @Override public String changeSessionId() {
+      // the new id keeps the shard name, so the session stays on its shard
+      return delegate.changeSessionId() + SEPARATOR + shard.name;
+    }
+
+    @Override public <T> T getAttribute(String attributeName) {
+      return delegate.getAttribute(attributeName);
+    }
+
+    @Override public Set<String> getAttributeNames() {
+      return delegate.getAttributeNames();
+    }
+
+    @Override public void setAttribute(String attributeName, Object attributeValue) {
+      delegate.setAttribute(attributeName, attributeValue);
+    }
+
+    @Override public void removeAttribute(String attributeName) {
+      delegate.removeAttribute(attributeName);
+    }
+
+    @Override public Instant getCreationTime() {
+      return delegate.getCreationTime();
+    }
+
+    @Override public void setLastAccessedTime(Instant lastAccessedTime) {
+      delegate.setLastAccessedTime(lastAccessedTime);
+    }
+
+    @Override public Instant getLastAccessedTime() {
+      return delegate.getLastAccessedTime();
+    }
+
+    @Override public void setMaxInactiveInterval(Duration interval) {
+      delegate.setMaxInactiveInterval(interval);
+    }
+
+    @Override public Duration getMaxInactiveInterval() {
+      return delegate.getMaxInactiveInterval();
+    }
+
+    @Override public boolean isExpired() {
+      return delegate.isExpired();
+    }
+  }
+
+  /**
+   * Re-publishes the events of a shard with sharded sessions.
+   */
+  private class ShardEventPublisher implements ApplicationEventPublisher {
+    private final Shard shard;
+
+    ShardEventPublisher(Shard shard) {
+      this.shard = shard;
+    }
+
+    @Override public void publishEvent(ApplicationEvent event) {
+      if (event instanceof AbstractSessionEvent) {
+        publishEvent((AbstractSessionEvent) event);
+      }
+    }
+
+    @Override public void publishEvent(Object event) {
+      if (event instanceof AbstractSessionEvent) {
+        publishEvent((AbstractSessionEvent) event);
+      }
+    }
+
+    private void publishEvent(AbstractSessionEvent event) {
+      Session delegateSession = event.getSession();
+      if (delegateSession == null) {
+        logger.warn("Cannot publish " + event.getClass().getSimpleName() + " for session " + event.getSessionId()
+            + " of shard " + shard.name + ", no session found.");
+        return;
+      }
+      ShardedSession session = new ShardedSession(shard, delegateSession);
+      if (event instanceof SessionCreatedEvent) {
+        eventPublisher.publishEvent(new SessionCreatedEvent(repository, session));
+      } else if (event instanceof SessionDeletedEvent) {
+        eventPublisher.publishEvent(new SessionDeletedEvent(repository, session));
+      } else if (event instanceof SessionExpiredEvent) {
+        eventPublisher.publishEvent(new SessionExpiredEvent(repository, session));
+      } else if (event instanceof SessionDestroyedEvent) {
+        eventPublisher.publishEvent(new SessionDestroyedEvent(repository, session));
+      } else {
+        logger.warn("Unknown event type " + event.getClass());
+      }
+    }
+  }
+}
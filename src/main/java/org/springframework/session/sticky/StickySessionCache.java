@@ -18,36 +18,79 @@ package org.springframework.session.sticky;
 import static java.util.Comparator.comparing;
 
 import java.lang.ref.WeakReference;
+import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.lang.Nullable;
 import org.springframework.session.sticky.StickySessionRepository.CacheEntry;
+import org.springframework.session.sticky.internal.jfr.StickySessionEvents;
+import org.springframework.session.sticky.internal.jfr.StickySessionEvents.CacheCleanupRecording;
 import org.springframework.util.Assert;
 
 /**
  * @author Bernhard Frauendienst
  */
-public class StickySessionCache {
+public class StickySessionCache implements DisposableBean {
 
   private static final Log logger = LogFactory.getLog(StickySessionRepository.class);
 
   public static final int DEFAULT_CLEANUP_AFTER_MINUTES = 20;
 
+  public static final int DEFAULT_CLEANUP_SHARDS = 1;
+
   protected final Map<String, CacheEntry> sessions;
 
-  private final CacheCleanup<CacheEntry> cacheCleanup = new CacheCleanup<>();
+  private final List<CacheCleanup<CacheEntry>> cacheCleanupShards;
 
   protected Duration cleanupAfter = Duration.ofMinutes(DEFAULT_CLEANUP_AFTER_MINUTES);
 
+  private int cleanupMaxEntries = 0;
+
+  private @Nullable Duration cleanupMaxDuration = null;
+
+  private @Nullable Executor cleanupExecutor = null;
+
+  private boolean manageCleanupExecutor = false;
+
+  private volatile CleanupStatistics lastCleanupStatistics = CleanupStatistics.NONE;
+
+  private Clock clock = Clock.systemUTC();
+
+  private @Nullable EvictionListener evictionListener = null;
+
+  private final StickySessionEvents events = StickySessionEvents.getInstance();
+
   public StickySessionCache(int cacheConcurrency) {
+    this(cacheConcurrency, DEFAULT_CLEANUP_SHARDS);
+  }
+
+  /**
+   * Creates a new cache whose cleanup schedule is split into {@code cleanupShards} independent shards. Shards can be
+   * processed in parallel if a {@linkplain #setCleanupExecutor(Executor) cleanup executor} is configured.
+   *
+   * @param cacheConcurrency the estimated number of concurrently updating threads
+   * @param cleanupShards    the number of cleanup shards, must be positive
+   */
+  public StickySessionCache(int cacheConcurrency, int cleanupShards) {
+    Assert.isTrue(cleanupShards > 0, "cleanupShards must be positive");
     this.sessions = new ConcurrentHashMap<>(16, 0.75F, cacheConcurrency);
+    this.cacheCleanupShards = new ArrayList<>(cleanupShards);
+    for (int i = 0; i < cleanupShards; i++) {
+      this.cacheCleanupShards.add(new CacheCleanup<>());
+    }
   }
 
   /**
@@ -64,6 +107,88 @@ public class StickySessionCache {
     this.cleanupAfter = cleanupAfter;
   }
 
+  /**
+   * Limits the number of scheduled cleanup entries processed by a single call to
+   * {@link #cleanupOutdatedCacheEntries()}. Entries that are due but not processed will be picked up by the next call.
+   * <p>
+   * If the cleanup is split into multiple shards, the limit is divided evenly between them.
+   *
+   * @param cleanupMaxEntries the maximum number of entries to process per cleanup pass, or {@code 0} for no limit
+   */
+  public void setCleanupMaxEntries(int cleanupMaxEntries) {
+    Assert.isTrue(cleanupMaxEntries >= 0, "cleanupMaxEntries cannot be negative");
+    this.cleanupMaxEntries = cleanupMaxEntries;
+  }
+
+  /**
+   * Limits the time a single call to {@link #cleanupOutdatedCacheEntries()} spends processing a cleanup shard. Entries
+   * that are due but not processed will be picked up by the next call.
+   *
+   * @param cleanupMaxDuration the maximum duration of a cleanup pass, or {@code null} for no limit
+   */
+  public void setCleanupMaxDuration(@Nullable Duration cleanupMaxDuration) {
+    this.cleanupMaxDuration = cleanupMaxDuration;
+  }
+
+  /**
+   * Cleanup shards will be processed in parallel by the given executor. If no executor is set (the default), all
+   * shards are processed sequentially in the thread calling {@link #cleanupOutdatedCacheEntries()}.
+   *
+   * @param cleanupExecutor the executor to process cleanup shards with, or {@code null}
+   */
+  public void setCleanupExecutor(@Nullable Executor cleanupExecutor) {
+    this.cleanupExecutor = cleanupExecutor;
+    this.manageCleanupExecutor = false;
+  }
+
+  /**
+   * Like {@link #setCleanupExecutor(Executor)}, but optionally shuts down the executor when this cache is destroyed.
+   *
+   * @param cleanupExecutor the executor to process cleanup shards with
+   * @param manageExecutor  whether to shut down the executor on {@link #destroy()}
+   */
+  public void setCleanupExecutor(ExecutorService cleanupExecutor, boolean manageExecutor) {
+    this.cleanupExecutor = cleanupExecutor;
+    this.manageCleanupExecutor = manageExecutor;
+  }
+
+  /**
+   * Sets the clock used to schedule and process cache cleanups. The default is {@link Clock#systemUTC()}.
+   *
+   * @param clock the clock to use
+   * @see StickySessionRepository#setClock(Clock)
+   */
+  public void setClock(Clock clock) {
+    Assert.notNull(clock, "clock cannot be null");
+    this.clock = clock;
+  }
+
+  /**
+   * Sets a listener that is notified of every entry removed by {@link #cleanupOutdatedCacheEntries()}.
+   *
+   * @param evictionListener the listener, or {@code null}
+   * @see StickySessionRepository#setLocalExpiryEvents(boolean)
+   */
+  public void setEvictionListener(@Nullable EvictionListener evictionListener) {
+    this.evictionListener = evictionListener;
+  }
+
+  /**
+   * Returns the statistics of the last completed call to {@link #cleanupOutdatedCacheEntries()}.
+   *
+   * @return the last cleanup statistics
+   */
+  public CleanupStatistics getLastCleanupStatistics() {
+    return lastCleanupStatistics;
+  }
+
+  @Override
+  public void destroy() {
+    if (manageCleanupExecutor && cleanupExecutor instanceof ExecutorService) {
+      ((ExecutorService) cleanupExecutor).shutdown();
+    }
+  }
+
   @Nullable
   public CacheEntry get(String id) {
     return sessions.get(id);
@@ -71,7 +196,7 @@ public class StickySessionCache {
 
   public void put(CacheEntry entry) {
     sessions.put(entry.getId(), entry);
-    cacheCleanup.schedule(entry);
+    cleanupShard(entry.getId()).schedule(entry);
   }
 
   @Nullable
@@ -82,22 +207,168 @@ public class StickySessionCache {
   }
 
   /**
-   * Removes all sessions from the cache that have not been accessed for {@link #cleanupAfter}.
+   * Removes all sessions from the cache that have not been accessed for {@link #cleanupAfter}, or that have expired.
    *
    * This does not delete sessions, it just removes them from the local cache.
+   * <p>
+   * If {@linkplain #setCleanupMaxEntries(int) an entry limit} or {@linkplain #setCleanupMaxDuration(Duration) a time
+   * limit} is configured, only a slice of the due entries might be processed, and the remaining entries will be
+   * processed by subsequent calls. In that case, this method should be called more frequently.
+   *
+   * @return the statistics of this cleanup pass
    */
-  public void cleanupOutdatedCacheEntries() {
-    cacheCleanup.cleanup();
+  public CleanupStatistics cleanupOutdatedCacheEntries() {
+    CacheCleanupRecording recording = events.beginCacheCleanup();
+    long startNanos = System.nanoTime();
+    long start = clock.millis();
+    int shards = cacheCleanupShards.size();
+    long maxEntries = cleanupMaxEntries > 0 ? (cleanupMaxEntries + shards - 1) / shards : Long.MAX_VALUE;
+    long maxNanos = cleanupMaxDuration != null ? cleanupMaxDuration.toNanos() : Long.MAX_VALUE;
+
+    int processed = 0;
+    int removed = 0;
+    boolean completed = true;
+    if (cleanupExecutor == null || shards == 1) {
+      for (CacheCleanup<CacheEntry> shard : cacheCleanupShards) {
+        ShardResult result = shard.cleanup(start, maxEntries, maxNanos);
+        processed += result.processed;
+        removed += result.removed;
+        completed &= result.completed;
+      }
+    } else {
+      List<CompletableFuture<ShardResult>> results = new ArrayList<>(shards);
+      for (CacheCleanup<CacheEntry> shard : cacheCleanupShards) {
+        results.add(CompletableFuture.supplyAsync(() -> shard.cleanup(start, maxEntries, maxNanos), cleanupExecutor));
+      }
+      for (CompletableFuture<ShardResult> future : results) {
+        ShardResult result = future.join();
+        processed += result.processed;
+        removed += result.removed;
+        completed &= result.completed;
+      }
+    }
+
+    CleanupStatistics statistics = new CleanupStatistics(Instant.ofEpochMilli(start), Duration.ofNanos(System.nanoTime() - startNanos),
+        processed, removed, completed);
+    if (logger.isDebugEnabled())
+      logger.debug("Cache cleanup processed " + processed + " entries and removed " + removed + " sessions in "
+          + statistics.getDuration().toMillis() + "ms" + (completed ? "." : ", some due entries remain."));
+    this.lastCleanupStatistics = statistics;
+    recording.finish(shards, processed, removed, completed);
+    return statistics;
+  }
+
+  private CacheCleanup<CacheEntry> cleanupShard(String sessionId) {
+    if (cacheCleanupShards.size() == 1) {
+      return cacheCleanupShards.get(0);
+    }
+    return cacheCleanupShards.get(Math.floorMod(sessionId.hashCode(), cacheCleanupShards.size()));
+  }
+
+  /**
+   * Listener for entries removed from the cache by {@link #cleanupOutdatedCacheEntries()}.
+   */
+  public interface EvictionListener {
+
+    /**
+     * Called after an outdated or expired entry has been removed from the cache.
+     *
+     * @param entry the removed entry
+     */
+    void entryEvicted(CacheEntry entry);
+
+  }
+
+  /**
+   * Statistics of a single {@linkplain #cleanupOutdatedCacheEntries() cache cleanup pass}.
+   */
+  public static final class CleanupStatistics {
+
+    static final CleanupStatistics NONE = new CleanupStatistics(Instant.EPOCH, Duration.ZERO, 0, 0, true);
+
+    private final Instant startTime;
+
+    private final Duration duration;
+
+    private final int processedEntries;
+
+    private final int removedEntries;
+
+    private final boolean completed;
+
+    CleanupStatistics(Instant startTime, Duration duration, int processedEntries, int removedEntries,
+        boolean completed) {
+      this.startTime = startTime;
+      this.duration = duration;
+      this.processedEntries = processedEntries;
+      this.removedEntries = removedEntries;
+      this.completed = completed;
+    }
+
+    /**
+     * @return the time the cleanup pass started
+     */
+    public Instant getStartTime() {
+      return startTime;
+    }
+
+    /**
+     * @return the wall-clock duration of the cleanup pass
+     */
+    public Duration getDuration() {
+      return duration;
+    }
+
+    /**
+     * @return the number of due cleanup entries that have been processed (removed or re-scheduled)
+     */
+    public int getProcessedEntries() {
+      return processedEntries;
+    }
+
+    /**
+     * @return the number of sessions that have been removed from the cache
+     */
+    public int getRemovedEntries() {
+      return removedEntries;
+    }
+
+    /**
+     * @return {@code false} if the pass hit its entry or time limit before all due entries were processed
+     */
+    public boolean isCompleted() {
+      return completed;
+    }
+
+    @Override
+    public String toString() {
+      return "CleanupStatistics[startTime=" + startTime + ", duration=" + duration + ", processedEntries="
+          + processedEntries + ", removedEntries=" + removedEntries + ", completed=" + completed + "]";
+    }
+  }
+
+  private static class ShardResult {
+    final int processed;
+
+    final int removed;
+
+    final boolean completed;
+
+    ShardResult(int processed, int removed, boolean completed) {
+      this.processed = processed;
+      this.removed = removed;
+      this.completed = completed;
+    }
   }
 
   private static class CleanupEntry<E extends CacheEntry> implements Comparable<CleanupEntry<E>> {
     final WeakReference<E> session;
 
-    final Instant scheduledCleanup;
+    final long scheduledCleanup;
 
     final String sessionId;
 
-    public CleanupEntry(E session, Instant scheduledCleanup) {
+    public CleanupEntry(E session, long scheduledCleanup) {
       this.session = new WeakReference<>(session);
       this.sessionId = session.getId();
       this.scheduledCleanup = scheduledCleanup;
@@ -105,7 +376,7 @@ public class StickySessionCache {
 
     @Override
     public int compareTo(CleanupEntry<E> o) {
-      int cmp = this.scheduledCleanup.compareTo(o.scheduledCleanup);
+      int cmp = Long.compare(this.scheduledCleanup, o.scheduledCleanup);
       return cmp != 0 ? cmp : this.sessionId.compareTo(o.sessionId);
     }
   }
@@ -115,9 +386,11 @@ public class StickySessionCache {
     private final SortedSet<CleanupEntry<E>> scheduledEntries = new ConcurrentSkipListSet<>();
 
     void schedule(E entry) {
-      CleanupEntry<E> cleanupEntry = new CleanupEntry<>(entry, entry.getLastAccessedTime().plus(cleanupAfter));
+      CleanupEntry<E> cleanupEntry = new CleanupEntry<>(entry,
+          Math.min(entry.getLastAccessedMillis() + cleanupAfter.toMillis(), entry.getExpiresAtMillis()));
       if (logger.isTraceEnabled())
-        logger.trace("Scheduling cleanup for session " + entry.getId() + " @ " + cleanupEntry.scheduledCleanup);
+        logger.trace("Scheduling cleanup for session " + entry.getId() + " @ "
+            + Instant.ofEpochMilli(cleanupEntry.scheduledCleanup));
       scheduledEntries.add(cleanupEntry);
     }
 
@@ -125,28 +398,42 @@ public class StickySessionCache {
       scheduledEntries.remove(entry);
     }
 
-    void cleanup() {
-      Instant now = Instant.now();
-      Instant maxLastAccessed = now.minus(cleanupAfter);
+    ShardResult cleanup(long now, long maxEntries, long maxNanos) {
+      long startNanos = System.nanoTime();
+      long maxLastAccessed = now - cleanupAfter.toMillis();
+      int processed = 0;
+      int removed = 0;
       for (CleanupEntry<E> entry : scheduledEntries) {
-        if (entry.scheduledCleanup.isAfter(now)) {
+        if (entry.scheduledCleanup > now) {
           // this and all further entries are not due yet
-          break;
+          return new ShardResult(processed, removed, true);
+        }
+        if (processed >= maxEntries || System.nanoTime() - startNanos >= maxNanos) {
+          // leave the remaining due entries for the next pass
+          return new ShardResult(processed, removed, false);
         }
 
+        processed++;
         remove(entry);
         E session = entry.session.get();
         if (session == null) {
           continue;
         }
-        if (session.getLastAccessedTime().isBefore(maxLastAccessed)) {
+        if (session.getLastAccessedMillis() < maxLastAccessed || session.getExpiresAtMillis() <= now) {
           if (logger.isDebugEnabled())
             logger.debug("Cached session " + session.getId() + " is scheduled for cleanup, removing from cache.");
-          sessions.remove(session.getId());
+          if (sessions.remove(session.getId(), session)) {
+            removed++;
+            EvictionListener listener = evictionListener;
+            if (listener != null) {
+              listener.entryEvicted(session);
+            }
+          }
         } else {
           schedule(session);
         }
       }
+      return new ShardResult(processed, removed, true);
     }
   }
 
@@ -17,16 +17,36 @@ package org.springframework.session.sticky;
 
 import static java.util.Comparator.comparing;
 
+import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessResourceFailureException;
 import org.springframework.lang.Nullable;
 import org.springframework.session.FlushMode;
 import org.springframework.session.MapSession;
@@ -38,22 +58,54 @@ import org.springframework.session.events.SessionCreatedEvent;
 import org.springframework.session.events.SessionDeletedEvent;
 import org.springframework.session.events.SessionDestroyedEvent;
 import org.springframework.session.events.SessionExpiredEvent;
+import org.springframework.session.sticky.internal.jfr.StickySessionEvents;
+import org.springframework.session.sticky.internal.jfr.StickySessionEvents.FindByIdOutcome;
+import org.springframework.session.sticky.internal.jfr.StickySessionEvents.FindByIdRecording;
+import org.springframework.session.sticky.internal.jfr.StickySessionEvents.SaveDelegateRecording;
 import org.springframework.session.sticky.internal.util.StringMonitorPool;
 import org.springframework.util.Assert;
+import org.springframework.util.PatternMatchUtils;
 
 /**
  * {@link SessionRepository} implementation that delegates to a (usually remote) session repository, but keeps
  * a local copy of the session in the configured cache.
  * <p>
  * Supports emitting session events IFF the configured delegate repository emits such events. The local cache will only
- * be cleaned up when the delegate repository emits {@link SessionDestroyedEvent}s.
+ * be cleaned up when the delegate repository emits {@link SessionDestroyedEvent}s, unless
+ * {@linkplain #setLocalExpiryEvents(boolean) local expiry events} are enabled.
  *
  * <p>
  * If configured to {@linkplain #setRevalidateAfter(Duration) revalidate sessions}, the lastAccessTime of the local
- * session's version will be compared against the remote version, and refreshed if stale.
+ * session's version will be compared against the remote version, and refreshed if stale. With
+ * {@linkplain #setAdaptiveRevalidateAfter(Duration, Duration) adaptive revalidation}, the period is adjusted per
+ * session, depending on whether it has been found stale before.
  * <p>
  * If configured to {@linkplain #setDelegateSaveStrategy(DelegateSaveStrategy) save session asynchronously}, saving of the delegate
  * session will be dispatched to the configured executor.
+ * <p>
+ * If configured with a {@linkplain #setSessionIdStrategy(SessionIdStrategy) session id strategy}, exposed session ids
+ * carry a route token, and sessions owned by this node will only be revalidated after a long period.
+ * <p>
+ * If the repository adapter is a {@link SessionLeaseManager}, sessions are served without revalidation while this
+ * node holds their ownership lease.
+ * <p>
+ * If the repository adapter is a {@link SessionRenamer} with {@linkplain SessionRenamer#isRenamingEnabled() renaming
+ * enabled}, session ids are changed without re-loading the session.
+ * <p>
+ * If the repository adapter is a {@link SessionChangeTracker}, outdated cached sessions are refreshed by merging only
+ * the changed attributes.
+ * <p>
+ * If the repository adapter is a {@link PartialSessionLoader}, sessions are cached without the values of some of their
+ * attributes, which are loaded when they are first read.
+ * <p>
+ * If the repository adapter is a {@link SessionFlushCoordinator}, pending changes of sessions cached by other nodes
+ * are flushed before a session is loaded or revalidated.
+ * <p>
+ * If the repository adapter is a {@link SessionExpiryConfirmer}, expiry events can be published by the nodes caching
+ * the sessions, see {@link #setLocalExpiryEvents(boolean)}.
+ * <p>
+ * If configured with a {@linkplain #setSecondLevelCache(SecondLevelSessionCache) second-level cache}, sessions evicted
+ * from the cache are kept there, and restored after revalidation instead of being re-loaded.
  *
  * @author Bernhard Frauendienst
  */
@@ -62,27 +114,110 @@ public final class StickySessionRepository
 
   private static final Log logger = LogFactory.getLog(StickySessionRepository.class);
 
+  /**
+   * Placeholder for the value of an attribute that has not been loaded yet, see {@link PartialSessionLoader}
+   */
+  private static final Object UNLOADED_ATTRIBUTE = new Object();
+
   public static final int DEFAULT_REVALIDATE_AFTER_SECONDS = 30;
 
+  public static final int DEFAULT_OWNED_REVALIDATE_AFTER_SECONDS = 300;
+
+  public static final int DEFAULT_MAX_PENDING_SAVES = 10_000;
+
+  static final int EXPIRY_BATCH_SIZE = 100;
+
+  static final int WARM_UP_BATCH_SIZE = 100;
+
   private final SessionRepository<?> delegate;
 
   private final LastAccessedTimeAccessor lastAccessedTimeAccessor;
 
+  private final @Nullable SessionLeaseManager leaseManager;
+
+  private final @Nullable SessionRenamer sessionRenamer;
+
+  private final @Nullable SessionChangeTracker changeTracker;
+
+  private final @Nullable PartialSessionLoader partialLoader;
+
+  private final @Nullable SessionFlushCoordinator flushCoordinator;
+
+  private final @Nullable SessionExpiryConfirmer expiryConfirmer;
+
+  private final @Nullable SessionReplicator replicator;
+
+  private final @Nullable SessionPreloader preloader;
+
   private final StickySessionCache sessionCache;
 
   private final StringMonitorPool monitors;
 
+  private final StickySessionEvents events = StickySessionEvents.getInstance();
+
   private ApplicationEventPublisher eventPublisher = event -> {
   };
 
   private DelegateSaveStrategy delegateSaveStrategy = new SynchronousDelegateSaveStrategy();
 
-  private @Nullable Duration revalidateAfter = Duration.ofSeconds(DEFAULT_REVALIDATE_AFTER_SECONDS);
+  /**
+   * The revalidation period in milliseconds, or {@code -1} if revalidation is disabled
+   */
+  private long revalidateAfterMillis = TimeUnit.SECONDS.toMillis(DEFAULT_REVALIDATE_AFTER_SECONDS);
+
+  /**
+   * The bounds of adaptive revalidation periods in milliseconds, or {@code -1} if adaptive revalidation is disabled
+   */
+  private long minRevalidateAfterMillis = -1;
+
+  private long maxRevalidateAfterMillis = -1;
+
+  /**
+   * The revalidation period of sessions owned by this node in milliseconds, or {@code -1} if they are never revalidated
+   */
+  private long ownedRevalidateAfterMillis = TimeUnit.SECONDS.toMillis(DEFAULT_OWNED_REVALIDATE_AFTER_SECONDS);
+
+  /**
+   * The time a request waits for a revalidation in nanoseconds, see {@link #setRevalidateTimeout(Duration, Executor)}
+   */
+  private long revalidateTimeoutNanos = -1;
+
+  private @Nullable Executor revalidateExecutor = null;
+
+  private Clock clock = Clock.systemUTC();
 
   private FlushMode flushMode = FlushMode.ON_SAVE;
 
   private SaveMode saveMode = SaveMode.ON_SET_ATTRIBUTE;
 
+  private @Nullable SessionIdStrategy sessionIdStrategy = null;
+
+  private boolean claimForeignSessions = true;
+
+  private boolean localExpiryEvents = false;
+
+  private @Nullable SecondLevelSessionCache secondLevelCache = null;
+
+  private @Nullable AttributeFingerprintStrategy attributeFingerprintStrategy = null;
+
+  private @Nullable SessionAttributeInterner attributeInterner = null;
+
+  private String[] criticalAttributeNames = new String[0];
+
+  private @Nullable DelegateCircuitBreaker circuitBreaker = null;
+
+  private int maxPendingSaves = DEFAULT_MAX_PENDING_SAVES;
+
+  /**
+   * Entries whose saves have been deferred while the remote repository is unavailable, guarded by itself
+   */
+  private final Set<CacheEntry> pendingSaves = new LinkedHashSet<>();
+
+  /**
+   * Sessions that have expired or been evicted from the cache, ordered by their (local) expiry time
+   */
+  private final ConcurrentSkipListSet<ExpiryCandidate> expiryCandidates = new ConcurrentSkipListSet<>();
+
   public StickySessionRepository(StickySessionRepositoryAdapter<? extends SessionRepository<?>> repositoryAdapter,
       StickySessionCache sessionCache, int concurrency) {
     this.delegate = repositoryAdapter.getSessionRepository();
@@ -97,6 +232,57 @@ public final class StickySessionRepository
       this.lastAccessedTimeAccessor = null;
     }
 
+    if (repositoryAdapter instanceof SessionRenamer) {
+      this.sessionRenamer = (SessionRenamer) repositoryAdapter;
+    } else {
+      this.sessionRenamer = null;
+    }
+
+    if (repositoryAdapter instanceof SessionChangeTracker) {
+      this.changeTracker = (SessionChangeTracker) repositoryAdapter;
+    } else {
+      this.changeTracker = null;
+    }
+
+    if (repositoryAdapter instanceof PartialSessionLoader) {
+      this.partialLoader = (PartialSessionLoader) repositoryAdapter;
+    } else {
+      this.partialLoader = null;
+    }
+
+    if (repositoryAdapter instanceof SessionFlushCoordinator) {
+      this.flushCoordinator = (SessionFlushCoordinator) repositoryAdapter;
+      this.flushCoordinator.setFlushListener(new FlushListener());
+    } else {
+      this.flushCoordinator = null;
+    }
+
+    if (repositoryAdapter instanceof SessionExpiryConfirmer) {
+      this.expiryConfirmer = (SessionExpiryConfirmer) repositoryAdapter;
+    } else {
+      this.expiryConfirmer = null;
+    }
+
+    if (repositoryAdapter instanceof SessionReplicator && changeTracker != null) {
+      this.replicator = (SessionReplicator) repositoryAdapter;
+      this.replicator.setReplicationListener(new ReplicationListener());
+    } else {
+      this.replicator = null;
+    }
+
+    if (repositoryAdapter instanceof SessionPreloader) {
+      this.preloader = (SessionPreloader) repositoryAdapter;
+    } else {
+      this.preloader = null;
+    }
+
+    if (repositoryAdapter instanceof SessionLeaseManager) {
+      this.leaseManager = (SessionLeaseManager) repositoryAdapter;
+      this.leaseManager.setLeaseListener(new LeaseListener());
+    } else {
+      this.leaseManager = null;
+    }
+
     repositoryAdapter.setApplicationEventPublisher(new EventPublisher());
   }
 
@@ -130,7 +316,74 @@ public final class StickySessionRepository
    * @param revalidateAfter duration after which to revalidate cached sessions, or {@code null} to disable revalidation
    */
   public void setRevalidateAfter(@Nullable Duration revalidateAfter) {
-    this.revalidateAfter = revalidateAfter;
+    this.revalidateAfterMillis = revalidateAfter != null ? Math.max(revalidateAfter.toMillis(), 0) : -1;
+  }
+
+  /**
+   * Enables adaptive revalidation: every cached session starts with the {@linkplain #setRevalidateAfter(Duration)
+   * revalidation period}, which is doubled (up to {@code maxRevalidateAfter}) whenever the session is found to be up
+   * to date, and reset to {@code minRevalidateAfter} whenever it is found to be outdated. Sessions that stay on this
+   * node are then revalidated rarely, while sessions that move between nodes are revalidated often.
+   * <p>
+   * Has no effect if revalidation is disabled.
+   *
+   * @param minRevalidateAfter the minimum revalidation period, or {@code null} to disable adaptive revalidation (the
+   *                           default)
+   * @param maxRevalidateAfter the maximum revalidation period, or {@code null} to disable adaptive revalidation
+   */
+  public void setAdaptiveRevalidateAfter(@Nullable Duration minRevalidateAfter,
+      @Nullable Duration maxRevalidateAfter) {
+    if (minRevalidateAfter == null || maxRevalidateAfter == null) {
+      this.minRevalidateAfterMillis = -1;
+      this.maxRevalidateAfterMillis = -1;
+      return;
+    }
+    Assert.isTrue(minRevalidateAfter.toMillis() > 0, "minRevalidateAfter must be positive");
+    Assert.isTrue(minRevalidateAfter.compareTo(maxRevalidateAfter) <= 0,
+        "minRevalidateAfter must not be greater than maxRevalidateAfter");
+    this.minRevalidateAfterMillis = minRevalidateAfter.toMillis();
+    this.maxRevalidateAfterMillis = maxRevalidateAfter.toMillis();
+  }
+
+  /**
+   * Bounds the time a request waits for the revalidation of a cached session. The
+   * {@link Session#getLastAccessedTime() lastAccessedTime} of the remote session is fetched by the given executor, and
+   * if it does not arrive within {@code revalidateTimeout}, the cached session is served. The result is applied to the
+   * cached session when it arrives, so later requests are served the refreshed session. Requests for the session
+   * are served from the cache without waiting while the revalidation is still pending. If the executor rejects a
+   * revalidation (e.g. because its queue is full), the cached session is served as well.
+   * <p>
+   * Requires the remote repository or the repository adapter to be a {@link LastAccessedTimeAccessor}.
+   *
+   * @param revalidateTimeout the maximum time to wait for a revalidation, or {@code null} to wait until it completes
+   *                          (the default)
+   * @param executor          the executor to revalidate sessions with, if {@code revalidateTimeout} is set
+   */
+  public void setRevalidateTimeout(@Nullable Duration revalidateTimeout, @Nullable Executor executor) {
+    if (revalidateTimeout == null) {
+      this.revalidateTimeoutNanos = -1;
+      this.revalidateExecutor = null;
+      return;
+    }
+    Assert.state(lastAccessedTimeAccessor != null, "The remote repository cannot fetch the lastAccessedTime");
+    Assert.notNull(executor, "executor cannot be null");
+    this.revalidateTimeoutNanos = Math.max(revalidateTimeout.toNanos(), 0);
+    this.revalidateExecutor = executor;
+  }
+
+  /**
+   * Sets the clock used for revalidation and expiry checks of cached sessions. Since these checks are done on every
+   * request, a {@link org.springframework.session.sticky.internal.util.CoarseClock CoarseClock} can be used to
+   * avoid reading the system time on every cache hit. A fixed or manually advanced clock makes time-dependent
+   * behavior deterministic in tests and benchmarks.
+   * <p>
+   * The default is {@link Clock#systemUTC()}.
+   *
+   * @param clock the clock to use
+   */
+  public void setClock(Clock clock) {
+    Assert.notNull(clock, "clock cannot be null");
+    this.clock = clock;
   }
 
   /**
@@ -153,225 +406,1372 @@ public final class StickySessionRepository
     this.saveMode = saveMode;
   }
 
-  private CacheEntry putCache(Session delegate) {
+  /**
+   * Sets a strategy to detect whether attributes that are only saved because of the {@linkplain #setSaveMode(SaveMode)
+   * save mode} ({@link SaveMode#ON_GET_ATTRIBUTE} or {@link SaveMode#ALWAYS}) have actually been modified. Unmodified
+   * attributes are not written to the cache entry and the remote repository.
+   *
+   * @param attributeFingerprintStrategy the strategy, or {@code null} to save all such attributes (the default)
+   */
+  public void setAttributeFingerprintStrategy(@Nullable AttributeFingerprintStrategy attributeFingerprintStrategy) {
+    this.attributeFingerprintStrategy = attributeFingerprintStrategy;
+  }
+
+  /**
+   * Sets an interner that canonicalizes the attributes of sessions when they are loaded into the cache, so equal
+   * attribute names and immutable values are shared between cached sessions instead of being retained once per
+   * session.
+   * <p>
+   * Requires the repository adapter to be a {@link SessionChangeTracker}, which
+   * {@linkplain SessionChangeTracker#restoreSession(MapSession) restores} the delegate session from the canonicalized
+   * state, so the delegate does not retain the loaded copies.
+   *
+   * @param attributeInterner the interner, or {@code null} to disable canonicalization (the default)
+   */
+  public void setAttributeInterner(@Nullable SessionAttributeInterner attributeInterner) {
+    Assert.state(attributeInterner == null || changeTracker != null,
+        "The repository adapter cannot restore sessions with interned attributes");
+    this.attributeInterner = attributeInterner;
+  }
+
+  /**
+   * Sets the names of critical attributes, e.g. the security context or a CSRF token. Changes that set or remove any
+   * of these attributes are saved to the remote repository immediately, bypassing the
+   * {@linkplain #setDelegateSaveStrategy(DelegateSaveStrategy) delegate save strategy}, so they are never lost or
+   * served outdated by other nodes. All other changes are saved by the strategy, and can still be aggregated.
+   * Attributes that are only saved because of the {@linkplain #setSaveMode(SaveMode) save mode} do not count as set.
+   * <p>
+   * Names may contain {@code *} wildcards, see {@link PatternMatchUtils#simpleMatch(String, String)}. By default,
+   * no attributes are critical.
+   *
+   * @param criticalAttributeNames the names or name patterns of critical attributes
+   */
+  public void setCriticalAttributeNames(Collection<String> criticalAttributeNames) {
+    Assert.notNull(criticalAttributeNames, "criticalAttributeNames cannot be null");
+    this.criticalAttributeNames = criticalAttributeNames.toArray(new String[0]);
+  }
+
+  /**
+   * Guards the calls to the remote repository with the given circuit breaker. While the breaker is open, cached
+   * sessions are served without revalidation, sessions that are not cached cannot be loaded (a
+   * {@link DataAccessResourceFailureException} is thrown instead of waiting for the remote repository), and saves are
+   * deferred until {@link #retryPendingSaves()} is called after the breaker has closed. Saves that fail because the
+   * remote repository is unavailable are deferred likewise, and revalidations that fail serve the cached session.
+   *
+   * @param circuitBreaker the circuit breaker, or {@code null} to disable it (the default)
+   */
+  public void setCircuitBreaker(@Nullable DelegateCircuitBreaker circuitBreaker) {
+    this.circuitBreaker = circuitBreaker;
+  }
+
+  /**
+   * Sets the maximum number of sessions whose saves can be deferred while the remote repository is unavailable, see
+   * {@link #setCircuitBreaker(DelegateCircuitBreaker)}. When this number is reached, further saves fail with an
+   * exception. Repeated saves of a session are only deferred once. The default is
+   * {@value #DEFAULT_MAX_PENDING_SAVES}.
+   *
+   * @param maxPendingSaves the maximum number of deferred saves
+   */
+  public void setMaxPendingSaves(int maxPendingSaves) {
+    Assert.isTrue(maxPendingSaves >= 0, "maxPendingSaves cannot be negative");
+    this.maxPendingSaves = maxPendingSaves;
+  }
+
+  private boolean containsCriticalAttribute(Set<String> attributeNames) {
+    if (criticalAttributeNames.length == 0) {
+      return false;
+    }
+    for (String attributeName : attributeNames) {
+      if (PatternMatchUtils.simpleMatch(criticalAttributeNames, attributeName)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Sets a strategy to embed a route token into the exposed session ids.
+   * <p>
+   * Sessions that are requested with this node's route token, and have not been requested with a foreign route since
+   * they were cached, are considered owned by this node and will only be revalidated after the
+   * {@linkplain #setOwnedRevalidateAfter(Duration) owned revalidation period}. Sessions requested with a foreign route
+   * (or without any route) will be revalidated on every access, unless they are
+   * {@linkplain #setClaimForeignSessions(boolean) claimed}.
+   * <p>
+   * By default, no strategy is configured, and session ids are exposed as-is.
+   *
+   * @param sessionIdStrategy the session id strategy, or {@code null} to disable route tokens
+   */
+  public void setSessionIdStrategy(@Nullable SessionIdStrategy sessionIdStrategy) {
+    this.sessionIdStrategy = sessionIdStrategy;
+  }
+
+  /**
+   * Sets the period after which sessions owned by this node are revalidated. Ownership is only known locally, so if a
+   * session has been modified by another node without this node seeing a foreign route (e.g. because a load balancer
+   * routed requests by other means), this period bounds the time the outdated copy is served. By default,
+   * owned sessions are revalidated after {@value #DEFAULT_OWNED_REVALIDATE_AFTER_SECONDS} seconds.
+   * <p>
+   * Only applicable if a {@linkplain #setSessionIdStrategy(SessionIdStrategy) session id strategy} is configured, and
+   * revalidation is enabled.
+   *
+   * @param ownedRevalidateAfter the revalidation period of owned sessions, or {@code null} to never revalidate them
+   */
+  public void setOwnedRevalidateAfter(@Nullable Duration ownedRevalidateAfter) {
+    this.ownedRevalidateAfterMillis =
+        ownedRevalidateAfter != null ? Math.max(ownedRevalidateAfter.toMillis(), 0) : -1;
+  }
+
+  /**
+   * If set to {@code true} (the default), sessions that are requested with a foreign route token will be claimed by
+   * this node after revalidation, i.e. the returned session will carry this node's route token. This usually causes
+   * the session cookie to be rewritten, so subsequent requests are routed to this node.
+   * <p>
+   * If set to {@code false}, sessions with a foreign route will keep their id (and thus be revalidated on every access)
+   * until {@link Session#changeSessionId()} is called.
+   * <p>
+   * Only applicable if a {@linkplain #setSessionIdStrategy(SessionIdStrategy) session id strategy} is configured.
+   *
+   * @param claimForeignSessions whether to claim sessions requested with a foreign route
+   */
+  public void setClaimForeignSessions(boolean claimForeignSessions) {
+    this.claimForeignSessions = claimForeignSessions;
+  }
+
+  /**
+   * If set to {@code true}, session expiry events are published by this repository instead of being re-published from
+   * the delegate repository, which then does not need to emit them (e.g. Redis keyspace notifications can be
+   * disabled). Requires the repository adapter to be a {@link SessionExpiryConfirmer}.
+   * <p>
+   * Sessions that expire or are evicted from the cache become expiry candidates, which are confirmed against the
+   * remote repository in batches by {@link #publishExpiredSessionEvents()} once they are due. Candidates that have been
+   * accessed on another node in the meantime are re-scheduled to their new expiry time, so each expired session is
+   * confirmed by every node that has cached it, but its expiry event is only claimed (and published) by one of them.
+   * <p>
+   * In this mode, {@link SessionDeletedEvent}s are published by {@link #deleteById(String)}, and destroyed events of
+   * the delegate repository are ignored.
+   * <p>
+   * Expiry candidates are only held in memory, and are not restored when a node is restarted. A session that has only
+   * been cached by nodes that have been shut down (or restarted) since expires without an event, unless it is
+   * requested again before it expires. The remote repository still removes such sessions. Applications that must
+   * see every expiry event should keep using the expiry events of the delegate repository.
+   *
+   * @param localExpiryEvents whether to publish expiry events locally (disabled by default)
+   */
+  public void setLocalExpiryEvents(boolean localExpiryEvents) {
+    Assert.state(!localExpiryEvents || expiryConfirmer != null,
+        "The repository adapter does not support local expiry events");
+    this.localExpiryEvents = localExpiryEvents;
+    updateEvictionListener();
+  }
+
+  /**
+   * Sets a second-level cache that holds sessions after they have been evicted from the (heap) cache by
+   * {@link StickySessionCache#cleanupOutdatedCacheEntries()}. If a session is not cached, but present in the
+   * second-level cache, its {@link Session#getLastAccessedTime() lastAccessedTime} is revalidated against the remote
+   * repository, and it is restored without loading it if it is up to date.
+   * <p>
+   * Requires the repository adapter (or the delegate) to be a {@link LastAccessedTimeAccessor}, and the adapter to be a
+   * {@link SessionChangeTracker}, which {@linkplain SessionChangeTracker#restoreSession(MapSession) restores} delegate
+   * sessions from the stored state.
+   *
+   * @param secondLevelCache the second-level cache, or {@code null} to disable it (the default)
+   */
+  public void setSecondLevelCache(@Nullable SecondLevelSessionCache secondLevelCache) {
+    Assert.state(secondLevelCache == null || (lastAccessedTimeAccessor != null && changeTracker != null),
+        "The repository adapter cannot restore sessions from a second-level cache");
+    this.secondLevelCache = secondLevelCache;
+    updateEvictionListener();
+  }
+
+  private void updateEvictionListener() {
+    sessionCache.setEvictionListener(localExpiryEvents || secondLevelCache != null ? this::entryEvicted : null);
+  }
+
+  private void entryEvicted(CacheEntry entry) {
+    if (localExpiryEvents) {
+      addExpiryCandidate(entry.getId(), entry.getExpiresAtMillis());
+    }
+    if (secondLevelCache != null && !entry.isExpired()) {
+      secondLevelCache.put(entry.toPartialSession());
+    }
+  }
+
+  private String resolveSessionId(String exposedId) {
+    return sessionIdStrategy != null ? sessionIdStrategy.resolveSessionId(exposedId) : exposedId;
+  }
+
+  private String exposeSessionId(String sessionId) {
+    return sessionIdStrategy != null ? sessionIdStrategy.exposeSessionId(sessionId) : sessionId;
+  }
+
+  private boolean needsRevalidation(CacheEntry cached, boolean foreignRoute) {
+    if (leaseManager != null && leaseManager.holdsLease(cached.getId())) {
+      return false;
+    }
+    if (sessionIdStrategy != null) {
+      if (foreignRoute) {
+        return true;
+      }
+      if (cached.owned) {
+        return revalidateAfterMillis >= 0 && ownedRevalidateAfterMillis >= 0
+            && cached.lastAccessedMillis < clock.millis() - ownedRevalidateAfterMillis;
+      }
+    }
+    return revalidateAfterMillis >= 0 && cached.lastAccessedMillis < clock.millis() - getRevalidateAfterMillis(cached);
+  }
+
+  private long getRevalidateAfterMillis(CacheEntry cached) {
+    if (minRevalidateAfterMillis < 0) {
+      return revalidateAfterMillis;
+    }
+    long adaptedMillis = cached.revalidateAfterMillis;
+    return adaptedMillis >= 0 ? adaptedMillis
+        : Math.min(Math.max(revalidateAfterMillis, minRevalidateAfterMillis), maxRevalidateAfterMillis);
+  }
+
+  /**
+   * Adapts the revalidation period of a revalidated entry, see
+   * {@link #setAdaptiveRevalidateAfter(Duration, Duration)}.
+   */
+  private void adaptRevalidateAfter(CacheEntry cached, boolean upToDate) {
+    if (minRevalidateAfterMillis < 0) {
+      return;
+    }
+    cached.revalidateAfterMillis = upToDate
+        ? Math.min(getRevalidateAfterMillis(cached) * 2, maxRevalidateAfterMillis) : minRevalidateAfterMillis;
+  }
+
+  /**
+   * Creates a view of a cache entry that has just been loaded or revalidated, claiming the entry for this node if
+   * appropriate.
+   */
+  private StickySession createValidatedView(CacheEntry entry, String requestedId, boolean foreignRoute) {
+    if (sessionIdStrategy == null) {
+      return entry.createView();
+    }
+    if (!foreignRoute) {
+      entry.owned = true;
+      return entry.createView();
+    }
+    if (!claimForeignSessions) {
+      return entry.createView(requestedId);
+    }
+    if (logger.isDebugEnabled())
+      logger.debug("Claiming session " + requestedId + " for this node.");
+    entry.owned = true;
+    return entry.createView();
+  }
+
+  /**
+   * Makes sure that no other node has unsaved changes of the given session.
+   */
+  private void requestFlush(String id) {
+    if (flushCoordinator != null && !flushCoordinator.requestFlush(id) && logger.isDebugEnabled())
+      logger.debug("Pending changes of session " + id + " on another node could not be flushed, it may be outdated.");
+  }
+
+  private @Nullable String getChangeVersion(String id) {
+    return changeTracker != null ? changeTracker.getChangeVersion(id) : null;
+  }
+
+  /**
+   * Replaces a session loaded from the remote repository by one with canonical attributes, if configured.
+   */
+  private Session intern(Session loaded) {
+    if (attributeInterner == null || changeTracker == null) {
+      return loaded;
+    }
+    return changeTracker.restoreSession(attributeInterner.intern(loaded));
+  }
+
+  private @Nullable Object internValue(@Nullable Object attributeValue) {
+    return attributeInterner != null ? attributeInterner.internValue(attributeValue) : attributeValue;
+  }
+
+  private CacheEntry putCache(Session delegate, @Nullable String changeVersion) {
+    return putCache(delegate, Collections.emptySet(), changeVersion);
+  }
+
+  private CacheEntry putCache(Session delegate, Set<String> unloadedAttributeNames, @Nullable String changeVersion) {
     if (logger.isTraceEnabled())
       logger.trace("Adding cache entry for session " + delegate.getId() + ".");
-    CacheEntry entry = new CacheEntry(delegate);
+    CacheEntry entry = new CacheEntry(delegate, unloadedAttributeNames, changeVersion);
     sessionCache.put(entry);
     return entry;
   }
 
+  /**
+   * Loads the session with the given id from the remote repository (partially, if supported) and caches it. Sessions
+   * are loaded after pending changes of other nodes have been flushed, so they are never loaded from replicas.
+   */
+  private @Nullable CacheEntry loadCacheEntry(String id) {
+    String changeVersion = getChangeVersion(id);
+    if (partialLoader != null) {
+      PartialSession partial = partialLoader.findPrimaryPartialById(id);
+      return partial != null
+          ? putCache(intern(partial.getSession()), partial.getUnloadedAttributeNames(), changeVersion) : null;
+    }
+    Session delegate = this.delegate.findById(id);
+    return delegate != null ? putCache(intern(delegate), changeVersion) : null;
+  }
+
+  private void addExpiryCandidate(String id, long expiresAtMillis) {
+    if (expiresAtMillis != Long.MAX_VALUE) {
+      expiryCandidates.add(new ExpiryCandidate(id, expiresAtMillis));
+    }
+  }
+
+  private static long getExpiresAtMillis(Session session) {
+    Duration maxInactiveInterval = session.getMaxInactiveInterval();
+    return maxInactiveInterval.isNegative() ? Long.MAX_VALUE
+        : session.getLastAccessedTime().toEpochMilli() + maxInactiveInterval.toMillis();
+  }
+
+  /**
+   * Confirms all due expiry candidates against the remote repository, and publishes a {@link SessionExpiredEvent} for
+   * every expired session whose event has been claimed by this node. This should be called periodically, e.g. after
+   * {@link StickySessionCache#cleanupOutdatedCacheEntries()}.
+   * <p>
+   * Does nothing unless {@linkplain #setLocalExpiryEvents(boolean) local expiry events} are enabled.
+   *
+   * @return the number of published expiry events
+   */
+  public int publishExpiredSessionEvents() {
+    if (!localExpiryEvents || expiryConfirmer == null) {
+      return 0;
+    }
+    long now = clock.millis();
+    int published = 0;
+    Map<String, ExpiryCandidate> batch = new LinkedHashMap<>();
+    for (ExpiryCandidate candidate : expiryCandidates) {
+      if (candidate.expiresAtMillis > now) {
+        // this and all further candidates are not due yet
+        break;
+      }
+      expiryCandidates.remove(candidate);
+      CacheEntry cached = sessionCache.get(candidate.sessionId);
+      if (cached != null && !cached.isExpired()) {
+        // the session has been cached again, it will become a candidate when it is evicted
+        continue;
+      }
+      batch.put(candidate.sessionId, candidate);
+      if (batch.size() >= EXPIRY_BATCH_SIZE) {
+        published += confirmExpiry(batch);
+        batch.clear();
+      }
+    }
+    if (!batch.isEmpty()) {
+      published += confirmExpiry(batch);
+    }
+    if (published > 0 && logger.isDebugEnabled())
+      logger.debug("Published " + published + " session expiry events.");
+    return published;
+  }
+
+  /**
+   * Saves the sessions whose saves have been deferred while the remote repository was unavailable, unless the
+   * {@linkplain #setCircuitBreaker(DelegateCircuitBreaker) circuit breaker} is still open. This should be called
+   * periodically if a circuit breaker is configured.
+   *
+   * @return the number of sessions that have been saved
+   */
+  public int retryPendingSaves() {
+    if (circuitBreaker == null) {
+      return 0;
+    }
+    int saved = 0;
+    while (circuitBreaker.allowRequest()) {
+      CacheEntry entry;
+      synchronized (pendingSaves) {
+        Iterator<CacheEntry> iterator = pendingSaves.iterator();
+        if (!iterator.hasNext()) {
+          break;
+        }
+        entry = iterator.next();
+        iterator.remove();
+      }
+      if (!entry.saveDelegate()) {
+        // the remote repository is still unavailable, the save has been deferred again
+        break;
+      }
+      saved++;
+    }
+    if (saved > 0 && logger.isInfoEnabled())
+      logger.info("Saved " + saved + " sessions whose saves have been deferred.");
+    return saved;
+  }
+
+  /**
+   * Loads the most recently active sessions into the cache, in batches that are loaded in parallel by the given
+   * executor. This is meant to be called after startup, before the node receives requests, so it does not start
+   * with an empty cache. Sessions that are already cached, or have expired, are skipped.
+   * <p>
+   * Requires the repository adapter to be a {@link SessionPreloader}.
+   *
+   * @param maxSessions the maximum number of sessions to load
+   * @param timeBudget  the maximum time to spend, after which the remaining batches are skipped
+   * @param executor    the executor to load batches with
+   * @return the number of sessions that have been cached
+   */
+  public int warmUp(int maxSessions, Duration timeBudget, Executor executor) {
+    Assert.state(preloader != null, "The repository adapter cannot preload sessions");
+    long deadline = System.nanoTime() + timeBudget.toNanos();
+    List<String> sessionIds = preloader.findRecentlyActiveSessionIds(maxSessions);
+    AtomicInteger cached = new AtomicInteger();
+    List<CompletableFuture<Void>> batches = new ArrayList<>();
+    for (int i = 0; i < sessionIds.size(); i += WARM_UP_BATCH_SIZE) {
+      List<String> batch = sessionIds.subList(i, Math.min(i + WARM_UP_BATCH_SIZE, sessionIds.size()));
+      batches.add(CompletableFuture.runAsync(() -> {
+        if (System.nanoTime() - deadline < 0) {
+          cached.addAndGet(warmUp(batch));
+        }
+      }, executor));
+    }
+    try {
+      CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0]))
+          .get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      logger.info("Cache warm-up did not complete within " + timeBudget + ".");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      logger.warn("Cache warm-up failed.", e.getCause());
+    }
+    if (logger.isInfoEnabled())
+      logger.info("Warmed up cache with " + cached.get() + " of " + sessionIds.size() + " recently active sessions.");
+    return cached.get();
+  }
+
+  private int warmUp(List<String> sessionIds) {
+    long now = clock.millis();
+    int cached = 0;
+    for (Session session : preloader.loadSessions(sessionIds).values()) {
+      if (getExpiresAtMillis(session) <= now) {
+        continue;
+      }
+      synchronized (monitors.getMonitor(session.getId())) {
+        if (sessionCache.get(session.getId()) == null) {
+          // we don't know which changes the loaded state contains
+          putCache(intern(session), null);
+          cached++;
+        }
+      }
+    }
+    return cached;
+  }
+
+  private int confirmExpiry(Map<String, ExpiryCandidate> batch) {
+    Map<String, Session> remoteSessions;
+    Set<String> claimed;
+    List<Session> expiredSessions = new ArrayList<>();
+    try {
+      remoteSessions = expiryConfirmer.findSessionsById(batch.keySet());
+      long now = clock.millis();
+      for (Session remoteSession : remoteSessions.values()) {
+        long expiresAtMillis = getExpiresAtMillis(remoteSession);
+        if (expiresAtMillis <= now) {
+          expiredSessions.add(remoteSession);
+        } else if (sessionCache.get(remoteSession.getId()) == null) {
+          // the session has been accessed on another node, check again when it might have expired
+          addExpiryCandidate(remoteSession.getId(), expiresAtMillis);
+        }
+      }
+      claimed = expiredSessions.isEmpty() ? Collections.emptySet()
+          : expiryConfirmer.claimExpiryEvents(expiredSessions);
+    } catch (RuntimeException e) {
+      logger.warn("Could not confirm expiry of " + batch.size() + " sessions, will retry.", e);
+      expiryCandidates.addAll(batch.values());
+      return 0;
+    }
+
+    int published = 0;
+    for (Session remoteSession : expiredSessions) {
+      String id = remoteSession.getId();
+      if (!claimed.contains(id)) {
+        // another node publishes the event
+        continue;
+      }
+      CacheEntry cached = sessionCache.get(id);
+      Session session = cached != null ? cached.createView() : remoteSession;
+      if (logger.isTraceEnabled())
+        logger.trace("Session " + id + " has expired, publishing expiry event.");
+      sessionCache.remove(id);
+      removeSecondLevel(id);
+      releaseLease(id);
+      eventPublisher.publishEvent(new SessionExpiredEvent(this, session));
+      published++;
+    }
+    return published;
+  }
+
+  private void removeSecondLevel(String id) {
+    if (secondLevelCache != null) {
+      secondLevelCache.remove(id);
+    }
+  }
+
+  private void acquireLease(String id) {
+    if (leaseManager != null) {
+      leaseManager.acquireLease(id);
+    }
+  }
+
+  private void releaseLease(String id) {
+    if (leaseManager != null) {
+      leaseManager.releaseLease(id);
+    }
+  }
+
   @Override public StickySession createSession() {
     Session delegate = this.delegate.createSession();
-    return putCache(delegate).createView();
+    CacheEntry entry = putCache(delegate, changeTracker != null ? SessionChangeTracker.NEW_SESSION_VERSION : null);
+    entry.owned = true;
+    // the remote session does not exist until it has been saved
+    entry.savedExpiresAtMillis = 0;
+    acquireLease(entry.getId());
+    return entry.createView();
   }
 
   @Override public void save(StickySession session) {
     session.save();
   }
 
-  @Override public @Nullable StickySession findById(String id) {
+  @Override public @Nullable StickySession findById(String exposedId) {
+    final String id = resolveSessionId(exposedId);
+    final boolean foreignRoute = sessionIdStrategy != null && !sessionIdStrategy.isLocal(exposedId);
+    final FindByIdRecording recording = events.beginFindById(id);
     CacheEntry cached = sessionCache.get(id);
     if (cached == null || cached.isExpired()) {
+      long waitStart = System.nanoTime();
       synchronized (monitors.getMonitor(id)) {
+        recording.monitorAcquired(System.nanoTime() - waitStart);
         CacheEntry doubleChecked = sessionCache.get(id);
         if (doubleChecked != null) {
           if (doubleChecked.isExpired()) {
             if (logger.isTraceEnabled())
               logger.trace("Removing expired session " + id + " from cache.");
             sessionCache.remove(id);
+            if (localExpiryEvents) {
+              addExpiryCandidate(id, doubleChecked.getExpiresAtMillis());
+            }
           } else {
-            return doubleChecked.createView();
+            return recorded(recording, FindByIdOutcome.HIT,
+                createValidatedView(doubleChecked, exposedId, foreignRoute));
           }
         }
-        Session delegate = this.delegate.findById(id);
-        if (delegate == null) {
-          return null;
+        if (circuitBreaker != null && !circuitBreaker.allowRequest()) {
+          throw new DataAccessResourceFailureException("Remote session repository is unavailable, cannot load session "
+              + id + ".");
+        }
+        try {
+          StickySession loaded = loadUncached(id, exposedId, foreignRoute, recording);
+          recordDelegateSuccess();
+          return loaded;
+        } catch (RuntimeException e) {
+          if (circuitBreaker != null) {
+            circuitBreaker.recordFailure(e);
+          }
+          throw e;
+        }
+      }
+    }
+
+    if (foreignRoute && cached.owned) {
+      // another node has served this session since we have claimed it
+      if (logger.isDebugEnabled())
+        logger.debug("Session " + id + " has been requested with a foreign route, revoking ownership.");
+      cached.owned = false;
+    }
+
+    if (!needsRevalidation(cached, foreignRoute)) {
+      return recorded(recording, FindByIdOutcome.HIT, cached.createView());
+    }
+
+    long waitStart = System.nanoTime();
+    synchronized (monitors.getMonitor(id)) {
+      recording.monitorAcquired(System.nanoTime() - waitStart);
+      if (circuitBreaker != null && !circuitBreaker.allowRequest()) {
+        return recorded(recording, FindByIdOutcome.DEGRADED, cached.createView(foreignRoute ? exposedId : null));
+      }
+      try {
+        StickySession revalidated = revalidate(cached, id, exposedId, foreignRoute, recording);
+        recordDelegateSuccess();
+        return revalidated;
+      } catch (RuntimeException e) {
+        if (circuitBreaker == null || !circuitBreaker.recordFailure(e)) {
+          throw e;
+        }
+        if (logger.isDebugEnabled())
+          logger.debug("Could not revalidate session " + id + ", serving cached session.", e);
+        return recorded(recording, FindByIdOutcome.DEGRADED, cached.createView(foreignRoute ? exposedId : null));
+      }
+    }
+  }
+
+  /**
+   * Loads a session that is not cached, must be called while holding the session's monitor.
+   */
+  private @Nullable StickySession loadUncached(String id, String exposedId, boolean foreignRoute,
+      FindByIdRecording recording) {
+    requestFlush(id);
+    PartialSession stored = secondLevelCache != null ? secondLevelCache.get(id) : null;
+    if (stored != null) {
+      secondLevelCache.remove(id);
+      Instant lastAccessedTime = lastAccessedTimeAccessor.getPrimaryLastAccessedTime(id);
+      if (lastAccessedTime == null) {
+        if (logger.isTraceEnabled())
+          logger.trace("Delegate session " + id + " is unknown, discarding second-level cache entry.");
+        return recorded(recording, FindByIdOutcome.MISS, null);
+      }
+      if (!lastAccessedTime.isAfter(stored.getSession().getLastAccessedTime())) {
+        if (logger.isTraceEnabled())
+          logger.trace("Restoring session " + id + " from second-level cache.");
+        // we don't know which changes the stored state contains
+        MapSession storedSession = (MapSession) stored.getSession();
+        CacheEntry restored = putCache(changeTracker.restoreSession(attributeInterner != null
+            ? attributeInterner.intern(storedSession) : storedSession), stored.getUnloadedAttributeNames(), null);
+        restored = acquireLeaseAfterLoad(restored);
+        return recorded(recording, FindByIdOutcome.RESTORED,
+            restored != null ? createValidatedView(restored, exposedId, foreignRoute) : null);
+      }
+      if (logger.isDebugEnabled())
+        logger.debug("Session " + id + " is newer on the remote (" + lastAccessedTime + ") than in the "
+            + "second-level cache, re-loading.");
+    }
+    CacheEntry loaded = loadCacheEntry(id);
+    if (loaded != null) {
+      loaded = acquireLeaseAfterLoad(loaded);
+    }
+    return recorded(recording, FindByIdOutcome.MISS,
+        loaded != null ? createValidatedView(loaded, exposedId, foreignRoute) : null);
+  }
+
+  /**
+   * Acquires the lease for a session that has just been loaded, so no lease is acquired for unknown session ids.
+   * Another node might have saved the session between the load and the acquisition, so the lastAccessedTime is
+   * checked again once the lease is held, and the session is re-loaded if it has changed.
+   */
+  private @Nullable CacheEntry acquireLeaseAfterLoad(CacheEntry loaded) {
+    String id = loaded.getId();
+    if (leaseManager == null || !leaseManager.acquireLease(id) || lastAccessedTimeAccessor == null) {
+      return loaded;
+    }
+    Instant lastAccessedTime = lastAccessedTimeAccessor.getPrimaryLastAccessedTime(id);
+    if (lastAccessedTime != null && !lastAccessedTime.isAfter(loaded.getLastAccessedTime())) {
+      return loaded;
+    }
+    if (logger.isDebugEnabled())
+      logger.debug("Session " + id + " has changed while acquiring its lease, re-loading.");
+    sessionCache.remove(id);
+    CacheEntry reloaded = lastAccessedTime != null ? loadCacheEntry(id) : null;
+    if (reloaded == null) {
+      releaseLease(id);
+    }
+    return reloaded;
+  }
+
+  /**
+   * Revalidates a cached session, must be called while holding the session's monitor.
+   */
+  private @Nullable StickySession revalidate(CacheEntry cached, String id, String exposedId, boolean foreignRoute,
+      FindByIdRecording recording) {
+    // re-validate if not accessed within the configured period
+    if (logger.isTraceEnabled())
+      logger.trace("Revalidating session " + id + " against delegate repository.");
+    // the session is cached, so it is known to exist (or is about to be saved), acquire the lease before reading
+    acquireLease(id);
+    requestFlush(id);
+
+    Session delegate = null;
+    final Instant lastAccessedTime;
+    if (revalidateExecutor != null) {
+      if (cached.pendingRevalidation != null) {
+        // the remote repository is slow to answer, don't wait for it again
+        return recorded(recording, FindByIdOutcome.TIMED_OUT, cached.createView(foreignRoute ? exposedId : null));
+      }
+      Instant cachedLastAccessedTime = cached.getLastAccessedTime();
+      CompletableFuture<Instant> revalidation;
+      try {
+        revalidation = CompletableFuture
+            .supplyAsync(() -> lastAccessedTimeAccessor.getLastAccessedTime(id), revalidateExecutor);
+      } catch (RejectedExecutionException e) {
+        if (logger.isDebugEnabled())
+          logger.debug("Revalidation of session " + id + " was rejected, serving cached session.");
+        return recorded(recording, FindByIdOutcome.TIMED_OUT, cached.createView(foreignRoute ? exposedId : null));
+      }
+      try {
+        lastAccessedTime = revalidation.get(revalidateTimeoutNanos, TimeUnit.NANOSECONDS);
+      } catch (TimeoutException | InterruptedException e) {
+        if (e instanceof InterruptedException) {
+          Thread.currentThread().interrupt();
+        }
+        if (logger.isDebugEnabled())
+          logger.debug("Revalidation of session " + id + " did not complete in time, serving cached session.");
+        cached.pendingRevalidation = revalidation;
+        revalidation.whenComplete((remoteLastAccessedTime, failure) -> completeRevalidation(cached,
+            cachedLastAccessedTime, remoteLastAccessedTime, failure));
+        return recorded(recording, FindByIdOutcome.TIMED_OUT, cached.createView(foreignRoute ? exposedId : null));
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
         }
-        return putCache(delegate).createView();
+        throw new IllegalStateException("Could not revalidate session " + id, e.getCause());
       }
+    } else if (lastAccessedTimeAccessor != null) {
+      // if we can get the lastAccessedTime without loading the session, let's try to be efficient
+      lastAccessedTime = lastAccessedTimeAccessor.getLastAccessedTime(id);
+    } else {
+      delegate = this.delegate.findById(id);
+      lastAccessedTime = delegate != null ? delegate.getLastAccessedTime() : null;
     }
 
-    if (revalidateAfter == null || !cached.getLastAccessedTime().isBefore(Instant.now().minus(revalidateAfter))) {
-      return cached.createView();
+    // if the delegate repository does not know this session because we have not yet saved it, don't remove it
+    if (lastAccessedTime == null && !cached.delegateAwaitsSave) {
+      if (logger.isTraceEnabled())
+        logger.trace("Delegate session " + id + " is unknown, removing from cache.");
+      sessionCache.remove(id);
+      releaseLease(id);
+      return recorded(recording, FindByIdOutcome.REVALIDATED, null);
     }
 
-    synchronized (monitors.getMonitor(id)) {
-      // re-validate if not accessed within the configured period
+    if (delegate != null && delegate.isExpired()) {
       if (logger.isTraceEnabled())
-        logger.trace("Revalidating session " + id + " against delegate repository.");
+        logger.trace("Delegate session " + id + " is expired, removing from cache.");
+      sessionCache.remove(id);
+      releaseLease(id);
+      return recorded(recording, FindByIdOutcome.REVALIDATED, null);
+    }
 
-      Session delegate = null;
-      final Instant lastAccessedTime;
-      if (lastAccessedTimeAccessor != null) {
-        // if we can get the lastAccessedTime without loading the session, let's try to be efficient
-        lastAccessedTime = lastAccessedTimeAccessor.getLastAccessedTime(id);
-      } else {
-        delegate = this.delegate.findById(id);
-        lastAccessedTime = delegate != null ? delegate.getLastAccessedTime() : null;
-      }
+    if (lastAccessedTime == null || !lastAccessedTime.isAfter(cached.getLastAccessedTime())) {
+      adaptRevalidateAfter(cached, true);
+      return recorded(recording, FindByIdOutcome.REVALIDATED,
+          createValidatedView(cached, exposedId, foreignRoute));
+    }
 
-      // if the delegate repository does not know this session because we have not yet saved it, don't remove it
-      if (lastAccessedTime == null && !cached.delegateAwaitsSave) {
-        if (logger.isTraceEnabled())
-          logger.trace("Delegate session " + id + " is unknown, removing from cache.");
-        sessionCache.remove(id);
-        return null;
-      }
+    // the delegate session is newer than our cache, try to merge the changed attributes
+    if (delegate == null && cached.refreshChanges()) {
+      adaptRevalidateAfter(cached, false);
+      if (logger.isDebugEnabled())
+        logger.debug("Cached session " + id + " is newer on the remote (" + lastAccessedTime + "), refreshed "
+            + "changed attributes.");
+      return recorded(recording, FindByIdOutcome.REFRESHED, createValidatedView(cached, exposedId, foreignRoute));
+    }
 
-      if (delegate != null && delegate.isExpired()) {
-        if (logger.isTraceEnabled())
-          logger.trace("Delegate session " + id + " is expired, removing from cache.");
-        sessionCache.remove(id);
-        return null;
-      }
+    // otherwise, we need to evict it
+    if (logger.isDebugEnabled())
+      logger.debug("Cached session " + id + " is newer on the remote (" + lastAccessedTime + " > " + cached
+          .getLastAccessedTime() + "), removing from cache.");
+    sessionCache.remove(id);
 
-      if (lastAccessedTime == null || !lastAccessedTime.isAfter(cached.getLastAccessedTime())) {
-        return cached.createView();
-      }
+    // if the delegate has already been loaded, we don't know which changes it contains
+    CacheEntry reloaded = delegate != null ? putCache(intern(delegate), null) : loadCacheEntry(id);
+    if (reloaded == null) {
+      releaseLease(id);
+      return recorded(recording, FindByIdOutcome.RELOADED, null);
+    }
+    adaptRevalidateAfter(reloaded, false);
 
-      // the delegate session is newer than our cache, we need to evict it
-      if (logger.isDebugEnabled())
-        logger.debug("Cached session " + id + " is newer on the remote (" + lastAccessedTime + " > " + cached
-            .getLastAccessedTime() + "), removing from cache.");
-      sessionCache.remove(id);
+    return recorded(recording, FindByIdOutcome.RELOADED, createValidatedView(reloaded, exposedId, foreignRoute));
+  }
 
-      if (delegate == null) {
-        delegate = this.delegate.findById(id);
+  /**
+   * Applies the result of a revalidation that has not completed in time, see
+   * {@link #setRevalidateTimeout(Duration, Executor)}.
+   *
+   * @param cachedLastAccessedTime the lastAccessedTime of the cached session when the revalidation started
+   */
+  private void completeRevalidation(CacheEntry cached, Instant cachedLastAccessedTime,
+      @Nullable Instant lastAccessedTime, @Nullable Throwable failure) {
+    String id = cached.getId();
+    synchronized (monitors.getMonitor(id)) {
+      cached.pendingRevalidation = null;
+      if (failure != null) {
+        Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+        if (circuitBreaker != null && cause instanceof RuntimeException) {
+          circuitBreaker.recordFailure((RuntimeException) cause);
+        }
+        if (logger.isDebugEnabled())
+          logger.debug("Could not revalidate session " + id + ".", cause);
+        return;
+      }
+      recordDelegateSuccess();
+      if (sessionCache.get(id) != cached) {
+        // the session has been removed or re-loaded in the meantime
+        return;
+      }
+      if (lastAccessedTime == null) {
+        if (!cached.delegateAwaitsSave) {
+          if (logger.isTraceEnabled())
+            logger.trace("Delegate session " + id + " is unknown, removing from cache.");
+          sessionCache.remove(id);
+          releaseLease(id);
+        }
+        return;
+      }
+      // the session may have been accessed locally since, but that does not include remote changes
+      if (!lastAccessedTime.isAfter(cachedLastAccessedTime)) {
+        adaptRevalidateAfter(cached, true);
+        return;
       }
-      if (delegate == null) {
-        return null;
+      adaptRevalidateAfter(cached, false);
+      if (cached.refreshChanges()) {
+        if (logger.isDebugEnabled())
+          logger.debug("Cached session " + id + " is newer on the remote (" + lastAccessedTime + "), refreshed "
+              + "changed attributes after revalidation timeout.");
+        return;
       }
+      if (logger.isDebugEnabled())
+        logger.debug("Cached session " + id + " is newer on the remote (" + lastAccessedTime + "), removing from "
+            + "cache after revalidation timeout.");
+      // the next request re-loads the session
+      sessionCache.remove(id);
+    }
+  }
 
-      return putCache(delegate).createView();
+  private void recordDelegateSuccess() {
+    if (circuitBreaker != null) {
+      circuitBreaker.recordSuccess();
     }
   }
 
-  @Override public void deleteById(String id) {
+  private @Nullable StickySession recorded(FindByIdRecording recording, FindByIdOutcome outcome,
+      @Nullable StickySession session) {
+    recording.finish(outcome, session != null);
+    return session;
+  }
+
+  @Override public void deleteById(String exposedId) {
+    final String id = resolveSessionId(exposedId);
     if (logger.isDebugEnabled())
       logger.debug("Deleting session " + id + ".");
+    Session deleted = null;
+    if (localExpiryEvents) {
+      CacheEntry cached = sessionCache.get(id);
+      deleted = cached != null ? cached.createView() : delegate.findById(id);
+    }
     sessionCache.remove(id);
+    removeSecondLevel(id);
+    if (circuitBreaker != null) {
+      synchronized (pendingSaves) {
+        // a deferred save would re-create the session
+        pendingSaves.removeIf(entry -> entry.getId().equals(id));
+      }
+    }
+    releaseLease(id);
     delegate.deleteById(id);
+    if (deleted != null) {
+      eventPublisher.publishEvent(new SessionDeletedEvent(this, deleted));
+    }
   }
 
   /**
    * This class holds a {@link MapSession} entry as well as a matching {@linkplain Session delegate session} from the
    * remote repository.
    * Entries allow to create "view" sessions that will be saved back to this stored entry (by calling
-   * {@link #saveDelta(Map, Instant, Duration, Session) saveDelta}). This should allows multiple threads to access
-   * the same session entry without concurrency issues or unexpected race conditions.
+   * {@link #saveDelta(Map, Set, Instant, Duration, Session, String) saveDelta}). This should allows multiple threads to
+   * access the same session entry without concurrency issues or unexpected race conditions.
+   * <p>
+   * The cached {@link MapSession} is an immutable snapshot that is replaced (never modified) on every change, so
+   * views can share it without copying. Attributes that have not been loaded (see {@link PartialSessionLoader}) are
+   * represented by a placeholder value in the snapshot, and are only ever present in the snapshot, never in the
+   * delegate.
    */
   public final class CacheEntry {
-    private final MapSession cached;
+    private volatile MapSession snapshot;
+
+    private volatile long lastAccessedMillis;
+
+    private volatile long expiresAtMillis;
+
+    /**
+     * The adapted revalidation period in milliseconds, or {@code -1} if it has not been adapted yet, see
+     * {@link #setAdaptiveRevalidateAfter(Duration, Duration)}
+     */
+    private volatile long revalidateAfterMillis = -1;
 
     private Session delegate;
 
     private boolean delegateAwaitsSave = false;
 
-    CacheEntry(Session delegate) {
+    /**
+     * The expiry time of the remote session as last saved or loaded, {@code 0} if it has never been saved
+     */
+    private long savedExpiresAtMillis;
+
+    /**
+     * {@link System#nanoTime()} when the delegate started to await saving, if a flight recording was running
+     */
+    private long saveQueuedNanos = Long.MIN_VALUE;
+
+    /**
+     * Whether this node is known to own this session, see {@link #setSessionIdStrategy(SessionIdStrategy)}
+     */
+    private volatile boolean owned = false;
+
+    /**
+     * A revalidation that has not completed in time, see {@link #setRevalidateTimeout(Duration, Executor)}
+     */
+    private volatile @Nullable CompletableFuture<Instant> pendingRevalidation;
+
+    /**
+     * The change version of the cached state, {@code null} if changes are not tracked (see
+     * {@link SessionChangeTracker})
+     */
+    private @Nullable String changeVersion;
+
+    /**
+     * The names of the attributes changed since the delegate has last been saved, if changes are tracked
+     */
+    private @Nullable Set<String> unsavedAttributeNames;
+
+    /**
+     * Whether this entry has been marked as unsaved, see {@link SessionFlushCoordinator}
+     */
+    private boolean markedUnsaved = false;
+
+    CacheEntry(Session delegate, Set<String> unloadedAttributeNames, @Nullable String changeVersion) {
       this.delegate = delegate;
-      this.cached = new MapSession(delegate);
+      this.changeVersion = changeVersion;
+      this.savedExpiresAtMillis = getExpiresAtMillis(delegate);
+      MapSession snapshot = new MapSession(delegate);
+      unloadedAttributeNames.forEach(attributeName -> snapshot.setAttribute(attributeName, UNLOADED_ATTRIBUTE));
+      publish(snapshot);
+    }
+
+    private void publish(MapSession snapshot) {
+      this.snapshot = snapshot;
+      this.lastAccessedMillis = snapshot.getLastAccessedTime().toEpochMilli();
+      Duration maxInactiveInterval = snapshot.getMaxInactiveInterval();
+      this.expiresAtMillis = maxInactiveInterval.isNegative() ? Long.MAX_VALUE
+          : this.lastAccessedMillis + maxInactiveInterval.toMillis();
     }
 
     /**
      * Saves the given session changes to this cache entry.
      *
      * @param deltaAttributes     the attributes that have changed in the view
+     * @param setAttributeNames   the names of the attributes that have been set or removed explicitly in the view
      * @param lastAccessedTime    the lastAccessedTime if it has changed in the view, {@code null} otherwise
      * @param maxInactiveInterval the maxInactiveInterval if it has changed in the view, {@code null} otherwise
      * @param changedIdDelegate   a new delegate if #changeSessionId was called on the view, {@code null} otherwise
+     * @param renamedSessionId    the new session id if #changeSessionId was called on the view and the remote session
+     *                            is to be renamed by the {@link SessionRenamer}, {@code null} otherwise
+     * @return the updated snapshot of this entry
      * @apiNote see {@link StickySession#changeSessionId()} for an explanation why switching delegates is necessary
      */
-    private synchronized void saveDelta(Map<String, Object> deltaAttributes, @Nullable Instant lastAccessedTime,
-        @Nullable Duration maxInactiveInterval, @Nullable Session changedIdDelegate) {
+    private synchronized MapSession saveDelta(Map<String, Object> deltaAttributes, Set<String> setAttributeNames,
+        @Nullable Instant lastAccessedTime, @Nullable Duration maxInactiveInterval, @Nullable Session changedIdDelegate,
+        @Nullable String renamedSessionId) {
       String originalSessionId = getId();
-      if (changedIdDelegate != null) {
+      if (renamedSessionId != null && sessionRenamer != null) {
+        if (delegateAwaitsSave) {
+          // pending changes must be written to the remote session before it is renamed
+          saveDelegate();
+        }
+        MapSession renamedSession = copyLoadedAttributes(snapshot);
+        renamedSession.setId(renamedSessionId);
+        changedIdDelegate = sessionRenamer.renameSession(originalSessionId, renamedSession);
+      } else if (changedIdDelegate != null) {
         if (delegateAwaitsSave) {
           // if the delegate is going to be replaced, but the old one is not saved yet, we have to save it
           // right now so it does not write to the old session later.
           saveDelegate();
         }
-        delegate = changedIdDelegate;
-        cached.setId(changedIdDelegate.getId());
       }
 
-      deltaAttributes.forEach((attributeName, attributeValue) -> {
-        cached.setAttribute(attributeName, attributeValue);
-        delegate.setAttribute(attributeName, attributeValue);
-      });
-
-      if (lastAccessedTime != null && lastAccessedTime.isAfter(getLastAccessedTime())) {
-        cached.setLastAccessedTime(lastAccessedTime);
-        delegate.setLastAccessedTime(lastAccessedTime);
+      if (lastAccessedTime != null && !lastAccessedTime.isAfter(getLastAccessedTime())) {
+        lastAccessedTime = null;
       }
+      long previousExpiresAtMillis = expiresAtMillis;
+      if (changedIdDelegate != null || !deltaAttributes.isEmpty() || lastAccessedTime != null
+          || maxInactiveInterval != null) {
+        MapSession updated = new MapSession(snapshot);
+        if (changedIdDelegate != null) {
+          delegate = changedIdDelegate;
+          updated.setId(changedIdDelegate.getId());
+        }
+
+        deltaAttributes.forEach((attributeName, attributeValue) -> {
+          updated.setAttribute(attributeName, attributeValue);
+          delegate.setAttribute(attributeName, attributeValue);
+        });
+        if (changeVersion != null && !deltaAttributes.isEmpty()) {
+          if (unsavedAttributeNames == null) {
+            unsavedAttributeNames = new HashSet<>();
+          }
+          unsavedAttributeNames.addAll(deltaAttributes.keySet());
+        }
+
+        if (lastAccessedTime != null) {
+          updated.setLastAccessedTime(lastAccessedTime);
+          delegate.setLastAccessedTime(lastAccessedTime);
+        }
 
-      if (maxInactiveInterval != null) {
-        cached.setMaxInactiveInterval(maxInactiveInterval);
-        delegate.setMaxInactiveInterval(maxInactiveInterval);
+        if (maxInactiveInterval != null) {
+          updated.setMaxInactiveInterval(maxInactiveInterval);
+          delegate.setMaxInactiveInterval(maxInactiveInterval);
+        }
+        publish(updated);
       }
 
       if (changedIdDelegate != null) {
+        if (renamedSessionId == null && changeVersion != null) {
+          // a new remote session has been created for the new id
+          changeVersion = SessionChangeTracker.NEW_SESSION_VERSION;
+        }
         sessionCache.remove(originalSessionId);
         sessionCache.put(this);
+        // the new id carries our route token
+        owned = true;
+        acquireLease(getId());
+      } else if (localExpiryEvents && expiresAtMillis < previousExpiresAtMillis) {
+        // the cleanup is scheduled for the previous expiry time, make sure the expiry is detected in time
+        sessionCache.put(this);
       }
 
+      // attributes only added to the delta because of the save mode are not considered
+      boolean critical = containsCriticalAttribute(setAttributeNames);
+      if (!delegateAwaitsSave) {
+        saveQueuedNanos = events.isRecording() ? System.nanoTime() : Long.MIN_VALUE;
+        if (flushCoordinator != null && !markedUnsaved && changedIdDelegate == null && !critical
+            && !(delegateSaveStrategy instanceof SynchronousDelegateSaveStrategy)
+            && (circuitBreaker == null || circuitBreaker.allowRequest())) {
+          // the save is deferred, let other nodes know that they need to ask us for a flush
+          flushCoordinator.markUnsaved(getId(), snapshot.getMaxInactiveInterval());
+          markedUnsaved = true;
+        }
+      }
       delegateAwaitsSave = true;
-      // if the session id changes, save to delegate session immediately
-      if (changedIdDelegate != null) {
+      // if the session id changes, save to delegate session immediately (unless the renamer already did), and
+      // likewise if critical attributes have changed
+      if ((changedIdDelegate != null && renamedSessionId == null) || critical) {
         this.saveDelegate();
       } else {
-        delegateSaveStrategy.queueSaveDelegate(this::saveDelegate);
+        delegateSaveStrategy.queueSaveDelegate(getId(), getSaveDeadline(), this::saveDelegate);
       }
+      return snapshot;
     }
 
-    private synchronized void saveDelegate() {
+    /**
+     * Returns the time by which the delegate should be saved: before the remote session expires, and before the
+     * changes are older than the revalidation period of other nodes. With adaptive revalidation, other nodes may
+     * revalidate their copies after the minimum period already.
+     */
+    private Instant getSaveDeadline() {
+      long deadlineMillis = savedExpiresAtMillis;
+      if (StickySessionRepository.this.revalidateAfterMillis >= 0) {
+        long revalidateAfterMillis = minRevalidateAfterMillis >= 0 ? minRevalidateAfterMillis
+            : StickySessionRepository.this.revalidateAfterMillis;
+        deadlineMillis = Math.min(deadlineMillis, clock.millis() + revalidateAfterMillis);
+      }
+      return Instant.ofEpochMilli(deadlineMillis);
+    }
+
+    private long getExpiresAtMillis(Session session) {
+      Duration maxInactiveInterval = session.getMaxInactiveInterval();
+      return maxInactiveInterval.isNegative() ? Long.MAX_VALUE
+          : session.getLastAccessedTime().toEpochMilli() + maxInactiveInterval.toMillis();
+    }
+
+    /**
+     * @return {@code false} if the save has been deferred because the remote repository is unavailable
+     */
+    private synchronized boolean saveDelegate() {
       if (!delegateAwaitsSave) {
         if (logger.isTraceEnabled()) {
           logger.trace("Delegate session " + delegate.getId() + " does not need saving.");
         }
-        return;
+        return true;
+      }
+      if (circuitBreaker != null && !circuitBreaker.allowRequest()) {
+        if (!deferSave()) {
+          throw new DataAccessResourceFailureException("Remote session repository is unavailable, cannot save "
+              + "session " + delegate.getId() + ".");
+        }
+        return false;
       }
       if (logger.isDebugEnabled())
         logger.debug("Saving delegate session " + delegate.getId());
+      long queueDelay = saveQueuedNanos != Long.MIN_VALUE ? System.nanoTime() - saveQueuedNanos : -1;
+      SaveDelegateRecording recording = events.beginSaveDelegate(delegate.getId(), queueDelay);
+      Set<String> changedAttributeNames = unsavedAttributeNames;
+      unsavedAttributeNames = null;
+      String baseVersion = changeVersion;
       @SuppressWarnings("unchecked") // if we don't do this here, we need to to it in a lot of other places
       SessionRepository<Session> delegateRepository = (SessionRepository<Session>) StickySessionRepository.this.delegate;
-      delegateRepository.save(delegate);
+      try {
+        if (changeTracker != null && changedAttributeNames != null) {
+          // mark before saving, so concurrent readers will re-fetch these attributes later
+          changeVersion = changeTracker.markChanged(delegate.getId(), changedAttributeNames,
+              delegate.getMaxInactiveInterval(), changeVersion);
+        }
+        delegateRepository.save(delegate);
+      } catch (RuntimeException e) {
+        // the changes are still unsaved
+        unsavedAttributeNames = changedAttributeNames;
+        if (circuitBreaker == null || !circuitBreaker.recordFailure(e) || !deferSave()) {
+          throw e;
+        }
+        if (logger.isDebugEnabled())
+          logger.debug("Could not save delegate session " + delegate.getId() + ", deferring the save.", e);
+        return false;
+      }
+      String markedVersion = changeVersion;
+      recordDelegateSuccess();
       delegateAwaitsSave = false;
+      savedExpiresAtMillis = getExpiresAtMillis(delegate);
+      if (flushCoordinator != null && markedUnsaved) {
+        flushCoordinator.markSaved(delegate.getId());
+        markedUnsaved = false;
+      }
+      if (changeTracker != null && changedAttributeNames != null && changeVersion != null) {
+        // mark again after saving, so readers that have fetched the attributes before cannot miss the saved values
+        changeVersion = changeTracker.markChanged(delegate.getId(), changedAttributeNames,
+            delegate.getMaxInactiveInterval(), changeVersion);
+        // if no other node has marked changes in between, peers in the base version can apply our changes
+        if (replicator != null && baseVersion != null && !baseVersion.equals(markedVersion)
+            && changeVersion != null && !changeVersion.equals(markedVersion)) {
+          replicateChanges(baseVersion, changeVersion, changedAttributeNames);
+        }
+      }
+      recording.finish();
+      return true;
+    }
+
+    /**
+     * Defers saving the delegate until {@link #retryPendingSaves()} is called.
+     *
+     * @return {@code false} if too many saves have been deferred already
+     */
+    private boolean deferSave() {
+      synchronized (pendingSaves) {
+        if (pendingSaves.size() >= maxPendingSaves && !pendingSaves.contains(this)) {
+          return false;
+        }
+        pendingSaves.add(this);
+      }
+      if (logger.isTraceEnabled())
+        logger.trace("Deferring save of delegate session " + delegate.getId() + ".");
+      return true;
+    }
+
+    private void replicateChanges(String baseVersion, String version, Set<String> changedAttributeNames) {
+      MapSession snapshot = this.snapshot;
+      Map<String, Object> changedAttributes = new HashMap<>();
+      for (String attributeName : changedAttributeNames) {
+        changedAttributes.put(attributeName, snapshot.getAttribute(attributeName));
+      }
+      replicator.replicateChanges(getId(), baseVersion, new SessionChanges(version, snapshot.getLastAccessedTime(),
+          snapshot.getMaxInactiveInterval(), changedAttributes));
+    }
+
+    /**
+     * Saves pending changes on request of another node, see {@link SessionFlushCoordinator}.
+     *
+     * @return {@code false} if the pending changes could not be saved
+     */
+    private synchronized boolean flush() {
+      if (delegateAwaitsSave) {
+        return saveDelegate();
+      }
+      if (flushCoordinator != null) {
+        flushCoordinator.markSaved(getId());
+        markedUnsaved = false;
+      }
+      return true;
+    }
+
+    /**
+     * Merges the attributes that have changed in the remote session into this entry.
+     *
+     * @return {@code false} if the changes are unknown and the session needs to be re-loaded
+     */
+    private synchronized boolean refreshChanges() {
+      if (changeTracker == null || changeVersion == null || delegateAwaitsSave) {
+        return false;
+      }
+      SessionChanges changes = changeTracker.loadChanges(getId(), changeVersion);
+      if (changes == null) {
+        return false;
+      }
+      mergeChanges(changes);
+      return true;
+    }
+
+    /**
+     * Applies the changes saved by another node, if they are based on the cached state, see
+     * {@link SessionReplicator}.
+     */
+    /**
+     * Returns whether replicated changes with the given base version can be applied. This does not synchronize, so
+     * the result is only a hint, which is checked again when the changes are applied.
+     */
+    private boolean acceptsReplicatedChanges(String baseVersion) {
+      return changeTracker != null && !delegateAwaitsSave && baseVersion.equals(changeVersion);
+    }
+
+    private synchronized void applyReplicatedChanges(String baseVersion, SessionChanges changes) {
+      if (changeTracker == null || delegateAwaitsSave || !baseVersion.equals(changeVersion)) {
+        return;
+      }
+      mergeChanges(changes);
+    }
+
+    private void mergeChanges(SessionChanges changes) {
+      if (logger.isTraceEnabled())
+        logger.trace("Merging changed attributes " + changes.getChangedAttributes().keySet() + " into session "
+            + getId());
+      MapSession updated = new MapSession(snapshot);
+      changes.getChangedAttributes().forEach((attributeName, attributeValue) -> updated.setAttribute(
+          attributeInterner != null ? attributeInterner.internName(attributeName) : attributeName,
+          internValue(attributeValue)));
+      updated.setLastAccessedTime(changes.getLastAccessedTime());
+      updated.setMaxInactiveInterval(changes.getMaxInactiveInterval());
+      // the previous delegate still holds the outdated state
+      delegate = changeTracker.restoreSession(copyLoadedAttributes(updated));
+      savedExpiresAtMillis = getExpiresAtMillis(delegate);
+      changeVersion = changes.getVersion();
+      publish(updated);
+    }
+
+    /**
+     * Returns the value of an attribute that has not been loaded with the session, loading it from the remote
+     * repository the first time it is requested.
+     */
+    private @Nullable Object loadAttribute(String attributeName) {
+      Object value = snapshot.getAttribute(attributeName);
+      if (value != UNLOADED_ATTRIBUTE) {
+        return value;
+      }
+      synchronized (this) {
+        value = snapshot.getAttribute(attributeName);
+        if (value != UNLOADED_ATTRIBUTE || partialLoader == null) {
+          return value;
+        }
+        if (logger.isTraceEnabled())
+          logger.trace("Loading attribute " + attributeName + " of session " + getId());
+        value = internValue(partialLoader.loadAttribute(getId(), attributeName));
+        MapSession updated = new MapSession(snapshot);
+        updated.setAttribute(attributeName, value);
+        publish(updated);
+        return value;
+      }
     }
 
-    private synchronized StickySession createView() {
+    /**
+     * Returns the loaded state of this entry, for the {@link SecondLevelSessionCache}.
+     */
+    private PartialSession toPartialSession() {
+      MapSession snapshot = this.snapshot;
+      Set<String> unloadedAttributeNames = new HashSet<>();
+      for (String attributeName : snapshot.getAttributeNames()) {
+        if (snapshot.getAttribute(attributeName) == UNLOADED_ATTRIBUTE) {
+          unloadedAttributeNames.add(attributeName);
+        }
+      }
+      return new PartialSession(copyLoadedAttributes(snapshot), unloadedAttributeNames);
+    }
+
+    private StickySession createView() {
+      return createView(null);
+    }
+
+    /**
+     * @param foreignId the exposed id of the view if it should keep a foreign route, {@code null} otherwise
+     */
+    private StickySession createView(@Nullable String foreignId) {
       if (logger.isTraceEnabled())
         logger.trace("Creating new session view for " + getId());
-      return new StickySession(this, new MapSession(cached));
+      return new StickySession(this, snapshot, foreignId);
     }
 
     public String getId() {
-      return cached.getId();
+      return snapshot.getId();
     }
 
     public boolean isExpired() {
-      return cached.isExpired();
+      return clock.millis() >= expiresAtMillis;
     }
 
     public Instant getLastAccessedTime() {
-      return cached.getLastAccessedTime();
+      return snapshot.getLastAccessedTime();
+    }
+
+    long getLastAccessedMillis() {
+      return lastAccessedMillis;
+    }
+
+    long getExpiresAtMillis() {
+      return expiresAtMillis;
+    }
+  }
+
+  private static final class ExpiryCandidate implements Comparable<ExpiryCandidate> {
+    final String sessionId;
+
+    final long expiresAtMillis;
+
+    ExpiryCandidate(String sessionId, long expiresAtMillis) {
+      this.sessionId = sessionId;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+
+    @Override
+    public int compareTo(ExpiryCandidate o) {
+      int cmp = Long.compare(this.expiresAtMillis, o.expiresAtMillis);
+      return cmp != 0 ? cmp : this.sessionId.compareTo(o.sessionId);
+    }
+  }
+
+  /**
+   * Returns a copy of the given session without the attributes that have not been loaded.
+   */
+  private static MapSession copyLoadedAttributes(MapSession session) {
+    MapSession copy = new MapSession(session);
+    for (String attributeName : session.getAttributeNames()) {
+      if (session.getAttribute(attributeName) == UNLOADED_ATTRIBUTE) {
+        copy.removeAttribute(attributeName);
+      }
     }
+    return copy;
   }
 
   /**
-   * A custom implementation of {@link Session} that uses a {@link MapSession} as the
-   * basis for its mapping. It keeps track of any attributes that have changed. When
-   * {@link #save()} is invoked all the attributes that have been changed will be
-   * persisted to the owning {@link CacheEntry}.
+   * A custom implementation of {@link Session} that is backed by an immutable {@link MapSession} snapshot of its
+   * {@link CacheEntry}. It keeps track of any attributes that have changed. When {@link #save()} is invoked all the
+   * attributes that have been changed will be persisted to the owning {@link CacheEntry}.
+   * <p>
+   * Changes are only tracked once the session is modified, so a session that is only read does not allocate any
+   * additional state.
    */
   public final class StickySession implements Session {
 
     // keep a reference on our cache entry as long as this session object lives
     private final CacheEntry cacheEntry;
 
-    private final MapSession cached;
+    private MapSession base;
+
+    private String sessionId;
+
+    private String exposedId;
+
+    private @Nullable Map<String, Object> delta;
+
+    /**
+     * Fingerprints of the attributes in the delta that have only been added because of the save mode
+     */
+    private @Nullable Map<String, Object> fingerprints;
+
+    /**
+     * Names of the attributes that have been set or removed explicitly, only tracked if critical attributes are
+     * configured
+     */
+    private @Nullable Set<String> setAttributeNames;
+
+    private Instant lastAccessedTime;
 
-    private Map<String, Object> delta = new HashMap<>();
+    private Duration maxInactiveInterval;
 
     private Instant originalLastAccessTime;
 
@@ -379,35 +1779,56 @@ public final class StickySessionRepository
 
     private @Nullable Session changedIdDelegate;
 
-    StickySession(CacheEntry cacheEntry, MapSession cached) {
+    private @Nullable String renamedSessionId;
+
+    StickySession(CacheEntry cacheEntry, MapSession base, @Nullable String foreignId) {
       this.cacheEntry = cacheEntry;
-      this.cached = cached;
-      this.originalLastAccessTime = cached.getLastAccessedTime();
-      this.originalMaxInactiveInterval = cached.getMaxInactiveInterval();
+      this.base = base;
+      this.sessionId = base.getId();
+      this.exposedId = foreignId != null ? foreignId : exposeSessionId(this.sessionId);
+      this.lastAccessedTime = this.originalLastAccessTime = base.getLastAccessedTime();
+      this.maxInactiveInterval = this.originalMaxInactiveInterval = base.getMaxInactiveInterval();
       if (StickySessionRepository.this.saveMode == SaveMode.ALWAYS) {
         markAllAttributes();
       }
     }
 
     @Override public boolean isExpired() {
-      return this.cached.isExpired();
+      if (this.maxInactiveInterval.isNegative()) {
+        return false;
+      }
+      return clock.millis() - this.maxInactiveInterval.toMillis() >= this.lastAccessedTime.toEpochMilli();
     }
 
     @Override public Instant getCreationTime() {
-      return this.cached.getCreationTime();
+      return this.base.getCreationTime();
     }
 
     @Override public String getId() {
-      return this.cached.getId();
+      return this.exposedId;
     }
 
     @Override public String changeSessionId() {
+      if (sessionRenamer != null && sessionRenamer.isRenamingEnabled()) {
+        // The remote session will be renamed in place when this view is saved, so there is no need to load it.
+        final String id = this.sessionId;
+        String newSessionId = UUID.randomUUID().toString();
+        this.sessionId = newSessionId;
+        this.renamedSessionId = newSessionId;
+        this.exposedId = exposeSessionId(newSessionId);
+
+        if (logger.isDebugEnabled())
+          logger.debug("Session changed its id from " + id + " to " + newSessionId + ".");
+
+        return this.exposedId;
+      }
+
       // This one is a bit tricky: since we can't set the id on the delegate session, we must call the delegates
       // #changeSessionId. However, we don't want to persist that change until #save is called, so we must fetch a new
       // delegate and call #changeSessionId on that copy. When saving our StickySession, we will exchange the delegate
       // in the CacheEntry with our changed one.
       cacheEntry.saveDelegate();
-      final String id = getId();
+      final String id = this.sessionId;
       Session changedIdDelegate = StickySessionRepository.this.delegate.findById(id);
       if (changedIdDelegate == null) {
         // This is strange, the remote repository does not know this session? Let's create a new one.
@@ -419,56 +1840,103 @@ public final class StickySessionRepository
       this.changedIdDelegate = changedIdDelegate;
 
       String newSessionId = changedIdDelegate.changeSessionId();
-      cached.setId(newSessionId);
+      this.sessionId = newSessionId;
+      this.exposedId = exposeSessionId(newSessionId);
 
       if (logger.isDebugEnabled())
         logger.debug("Session changed its id from " + id + " to " + newSessionId + ".");
 
-      return newSessionId;
+      return this.exposedId;
     }
 
     @Override public Instant getLastAccessedTime() {
-      return this.cached.getLastAccessedTime();
+      return this.lastAccessedTime;
     }
 
     @Override public void setLastAccessedTime(Instant lastAccessedTime) {
-      this.cached.setLastAccessedTime(lastAccessedTime);
+      this.lastAccessedTime = lastAccessedTime;
       flushImmediateIfNecessary();
     }
 
     @Override public Duration getMaxInactiveInterval() {
-      return this.cached.getMaxInactiveInterval();
+      return this.maxInactiveInterval;
     }
 
     @Override public void setMaxInactiveInterval(Duration interval) {
-      this.cached.setMaxInactiveInterval(interval);
+      this.maxInactiveInterval = interval;
       flushImmediateIfNecessary();
     }
 
     @Override @Nullable public <T> T getAttribute(String attributeName) {
-      T attributeValue = this.cached.getAttribute(attributeName);
+      T attributeValue = lookupAttribute(attributeName);
       if (attributeValue != null && saveMode.equals(SaveMode.ON_GET_ATTRIBUTE)) {
-        this.delta.put(attributeName, attributeValue);
+        markAttribute(attributeName, attributeValue);
       }
       return attributeValue;
     }
 
+    @SuppressWarnings("unchecked")
+    @Nullable
+    private <T> T lookupAttribute(String attributeName) {
+      if (this.delta != null && this.delta.containsKey(attributeName)) {
+        return (T) this.delta.get(attributeName);
+      }
+      Object attributeValue = this.base.getAttribute(attributeName);
+      if (attributeValue == UNLOADED_ATTRIBUTE) {
+        attributeValue = cacheEntry.loadAttribute(attributeName);
+      }
+      return (T) attributeValue;
+    }
+
     @Override public Set<String> getAttributeNames() {
-      return this.cached.getAttributeNames();
+      Set<String> attributeNames = this.base.getAttributeNames();
+      if (this.delta != null) {
+        this.delta.forEach((attributeName, attributeValue) -> {
+          if (attributeValue != null) {
+            attributeNames.add(attributeName);
+          } else {
+            attributeNames.remove(attributeName);
+          }
+        });
+      }
+      return attributeNames;
     }
 
     @Override public void setAttribute(String attributeName, @Nullable Object attributeValue) {
-      this.cached.setAttribute(attributeName, attributeValue);
-      this.delta.put(attributeName, attributeValue);
+      delta().put(attributeName, attributeValue);
+      if (this.fingerprints != null) {
+        this.fingerprints.remove(attributeName);
+      }
+      markSet(attributeName);
       flushImmediateIfNecessary();
     }
 
     @Override public void removeAttribute(String attributeName) {
-      this.cached.removeAttribute(attributeName);
-      this.delta.put(attributeName, null);
+      delta().put(attributeName, null);
+      if (this.fingerprints != null) {
+        this.fingerprints.remove(attributeName);
+      }
+      markSet(attributeName);
       flushImmediateIfNecessary();
     }
 
+    private void markSet(String attributeName) {
+      if (criticalAttributeNames.length == 0) {
+        return;
+      }
+      if (this.setAttributeNames == null) {
+        this.setAttributeNames = new HashSet<>();
+      }
+      this.setAttributeNames.add(attributeName);
+    }
+
+    private Map<String, Object> delta() {
+      if (this.delta == null) {
+        this.delta = new HashMap<>();
+      }
+      return this.delta;
+    }
+
     private void flushImmediateIfNecessary() {
       if (StickySessionRepository.this.flushMode == FlushMode.IMMEDIATE) {
         save();
@@ -476,12 +1944,53 @@ public final class StickySessionRepository
     }
 
     private void markAllAttributes() {
-      getAttributeNames().forEach((attributeName) -> this.delta.put(attributeName, this.cached.getAttribute(attributeName)));
+      getAttributeNames().forEach((attributeName) -> markAttribute(attributeName, lookupAttribute(attributeName)));
+    }
+
+    /**
+     * Adds an attribute to the delta because of the save mode, recording its fingerprint when it is handed out for
+     * the first time.
+     */
+    private void markAttribute(String attributeName, @Nullable Object attributeValue) {
+      Map<String, Object> delta = delta();
+      boolean marked = delta.containsKey(attributeName);
+      delta.put(attributeName, attributeValue);
+      if (marked || attributeValue == null || attributeFingerprintStrategy == null) {
+        return;
+      }
+      Object fingerprint = attributeFingerprintStrategy.fingerprint(attributeName, attributeValue);
+      if (fingerprint != null) {
+        if (this.fingerprints == null) {
+          this.fingerprints = new HashMap<>();
+        }
+        this.fingerprints.put(attributeName, fingerprint);
+      }
+    }
+
+    /**
+     * Removes the attributes from the delta that have only been added because of the save mode, and are unchanged.
+     */
+    private void removeUnchangedAttributes(Map<String, Object> delta) {
+      if (this.fingerprints == null || attributeFingerprintStrategy == null) {
+        return;
+      }
+      this.fingerprints.forEach((attributeName, fingerprint) -> {
+        Object attributeValue = delta.get(attributeName);
+        if (attributeValue != null
+            && fingerprint.equals(attributeFingerprintStrategy.fingerprint(attributeName, attributeValue))) {
+          delta.remove(attributeName);
+        }
+      });
+      this.fingerprints = null;
     }
 
     private void save() {
-      final Map<String, Object> delta = this.delta;
-      this.delta = new HashMap<>((int) (delta.size() / 0.75 + 1));
+      final Map<String, Object> delta = this.delta != null ? this.delta : Collections.emptyMap();
+      this.delta = null;
+      removeUnchangedAttributes(delta);
+      final Set<String> setAttributeNames =
+          this.setAttributeNames != null ? this.setAttributeNames : Collections.emptySet();
+      this.setAttributeNames = null;
 
       Instant lastAccessedTime = getLastAccessedTime();
       if (lastAccessedTime.equals(originalLastAccessTime)) {
@@ -500,7 +2009,12 @@ public final class StickySessionRepository
       Session newDelegate = this.changedIdDelegate;
       this.changedIdDelegate = null;
 
-      cacheEntry.saveDelta(delta, lastAccessedTime, maxInactiveInterval, newDelegate);
+      String renamedSessionId = this.renamedSessionId;
+      this.renamedSessionId = null;
+
+      // continue on the updated snapshot, which contains our changes (and possibly those of concurrent views)
+      this.base = cacheEntry.saveDelta(delta, setAttributeNames, lastAccessedTime, maxInactiveInterval, newDelegate,
+          renamedSessionId);
     }
 
   }
@@ -536,15 +2050,66 @@ public final class StickySessionRepository
       if (event instanceof SessionCreatedEvent) {
         eventPublisher.publishEvent(new SessionCreatedEvent(StickySessionRepository.this, session));
       } else if (event instanceof SessionDestroyedEvent) {
-        if (event instanceof SessionDeletedEvent) {
-          eventPublisher.publishEvent(new SessionDeletedEvent(StickySessionRepository.this, session));
-        } else if (event instanceof SessionExpiredEvent) {
-          eventPublisher.publishEvent(new SessionExpiredEvent(StickySessionRepository.this, session));
+        // with local expiry events, destroyed events are published by this repository itself
+        if (!localExpiryEvents) {
+          if (event instanceof SessionDeletedEvent) {
+            eventPublisher.publishEvent(new SessionDeletedEvent(StickySessionRepository.this, session));
+          } else if (event instanceof SessionExpiredEvent) {
+            eventPublisher.publishEvent(new SessionExpiredEvent(StickySessionRepository.this, session));
+          }
         }
         sessionCache.remove(event.getSessionId());
+        removeSecondLevel(event.getSessionId());
+        releaseLease(event.getSessionId());
       } else {
         logger.warn("Unknown event type " + event.getClass());
       }
     }
   }
+
+  private class LeaseListener implements SessionLeaseManager.LeaseListener {
+    @Override public boolean isLeaseNeeded(String sessionId) {
+      return sessionCache.get(sessionId) != null;
+    }
+
+    @Override public void leaseLost(String sessionId) {
+      CacheEntry cached = sessionCache.get(sessionId);
+      if (cached == null) {
+        return;
+      }
+      if (logger.isDebugEnabled())
+        logger.debug("Another node revoked the lease of session " + sessionId + ", removing from cache.");
+      // make sure our pending changes are visible to the new owner
+      cached.saveDelegate();
+      sessionCache.remove(sessionId);
+    }
+  }
+
+  private class ReplicationListener implements SessionReplicator.ReplicationListener {
+    @Override public boolean isCached(String sessionId, String baseVersion) {
+      CacheEntry cached = sessionCache.get(sessionId);
+      return cached != null && cached.acceptsReplicatedChanges(baseVersion);
+    }
+
+    @Override public void changesReplicated(String sessionId, String baseVersion, SessionChanges changes) {
+      CacheEntry cached = sessionCache.get(sessionId);
+      if (cached != null) {
+        cached.applyReplicatedChanges(baseVersion, changes);
+      }
+    }
+  }
+
+  private class FlushListener implements SessionFlushCoordinator.FlushListener {
+    @Override public boolean flushRequested(String sessionId) {
+      CacheEntry cached = sessionCache.get(sessionId);
+      if (cached != null) {
+        return cached.flush();
+      }
+      if (flushCoordinator != null) {
+        // we don't have any pending changes (anymore)
+        flushCoordinator.markSaved(sessionId);
+      }
+      return true;
+    }
+  }
 }
@@ -31,6 +31,7 @@ import org.springframework.session.MapSession;
 import org.springframework.session.SaveMode;
 import org.springframework.session.Session;
 import org.springframework.session.SessionRepository;
+import org.springframework.session.data.redis.CompactRedisSerializer;
 import org.springframework.session.data.redis.RedisIndexedSessionRepository;
 import org.springframework.session.data.redis.config.annotation.web.http.EnableRedisHttpSession;
 import org.springframework.session.sticky.StickySessionCache;
@@ -94,6 +95,34 @@ public @interface EnableStickyRedisHttpSession {
 	@AliasFor(annotation = EnableStickyHttpSession.class)
 	int revalidateAfterSeconds() default StickySessionRepository.DEFAULT_REVALIDATE_AFTER_SECONDS;
 
+	/**
+	 * If set to a positive value, the revalidation period is adapted per session: it starts at
+	 * {@link #revalidateAfterSeconds()}, doubles up to this value whenever the session is found
+	 * to be up to date, and drops to {@link #minRevalidateAfterSeconds()} whenever it is found
+	 * to be outdated. By default ({@code 0}), all sessions use the same period.
+	 * @return the maximum revalidation period in seconds
+	 */
+	@AliasFor(annotation = EnableStickyHttpSession.class)
+	int maxRevalidateAfterSeconds() default 0;
+
+	/**
+	 * The minimum revalidation period in seconds if the period is adapted per session, see
+	 * {@link #maxRevalidateAfterSeconds()}.
+	 * @return the minimum revalidation period in seconds
+	 */
+	@AliasFor(annotation = EnableStickyHttpSession.class)
+	int minRevalidateAfterSeconds() default 1;
+
+	/**
+	 * If set to a positive value, requests wait at most this number of milliseconds for the
+	 * revalidation of a cached session, and are served the cached session if it takes longer.
+	 * The revalidation then completes in the background, and its result is applied to the
+	 * cached session. By default ({@code 0}), requests wait until the revalidation completes.
+	 * @return the maximum time to wait for a revalidation in milliseconds
+	 */
+	@AliasFor(annotation = EnableStickyHttpSession.class)
+	int revalidateTimeoutMillis() default 0;
+
 	/**
 	 * Cached session entries that have not been accessed for this number of minutes will
 	 * be removed from the cache (but not the remote store).
@@ -132,6 +161,30 @@ public @interface EnableStickyRedisHttpSession {
 	@AliasFor(annotation = EnableStickyHttpSession.class)
 	int asyncSaveThreads() default StickyHttpSessionConfiguration.DEFAULT_ASYNC_SAVE_THREADS;
 
+	/**
+	 * Save delegate sessions in earliest-deadline-first order with a
+	 * {@link org.springframework.session.sticky.DeadlineDelegateSaveStrategy}, instead of the
+	 * strategies described at {@link #asyncSaveThreads()}. Routine saves are still delayed by
+	 * {@link #delaySavesSeconds()}, but sessions close to their remote expiry and sessions that have
+	 * never been saved are saved first when saves are backlogged. The default is {@code false}.
+	 *
+	 * Only applicable if {@link #asyncSaveThreads()} is set to a non-zero number.
+	 * @return whether to save sessions in the order of their deadlines
+	 */
+	@AliasFor(annotation = EnableStickyHttpSession.class)
+	boolean deadlineOrderedSaves() default false;
+
+	/**
+	 * Names of critical session attributes, such as
+	 * {@code SPRING_SECURITY_CONTEXT} or a CSRF token. Changes to these attributes are saved
+	 * to the remote store immediately, bypassing {@link #delaySavesSeconds()} and
+	 * {@link #asyncSaveThreads()}, while all other changes are still saved asynchronously.
+	 * Names may contain {@code *} wildcards. By default, no attributes are critical.
+	 * @return the names or name patterns of critical attributes
+	 */
+	@AliasFor(annotation = EnableStickyHttpSession.class)
+	String[] criticalAttributes() default {};
+
 	/**
 	 * Defines a unique namespace for keys. The value is used to isolate sessions by
 	 * changing the prefix from default {@code spring:session:} to
@@ -183,6 +236,287 @@ public @interface EnableStickyRedisHttpSession {
 	@AliasFor(annotation = EnableStickyHttpSession.class)
 	String cacheCleanupCron() default StickyHttpSessionConfiguration.DEFAULT_CACHE_CLEANUP_CRON;
 
+	/**
+	 * Maximum number of due cache entries processed by a single run of the cache cleanup job.
+	 * Remaining due entries are processed by subsequent runs, so a bounded cleanup should be
+	 * combined with a more frequent {@link #cacheCleanupCron()}.
+	 * <p>
+	 * By default ({@code 0}), all due entries are processed in a single run.
+	 * @return the maximum number of entries per cache cleanup run
+	 */
+	@AliasFor(annotation = EnableStickyHttpSession.class)
+	int cacheCleanupMaxEntries() default 0;
+
+	/**
+	 * Maximum number of milliseconds a single run of the cache cleanup job spends on a cleanup
+	 * shard. Remaining due entries are processed by subsequent runs.
+	 * <p>
+	 * By default ({@code 0}), cleanup runs are not time-limited.
+	 * @return the maximum duration of a cache cleanup run in milliseconds
+	 */
+	@AliasFor(annotation = EnableStickyHttpSession.class)
+	int cacheCleanupMaxMillis() default 0;
+
+	/**
+	 * Number of shards the cache cleanup schedule is split into. If set to a value greater than
+	 * one, shards are processed in parallel by a dedicated thread pool of that size.
+	 * @return the number of cache cleanup shards
+	 */
+	@AliasFor(annotation = EnableStickyHttpSession.class)
+	int cacheCleanupShards() default StickyHttpSessionConfiguration.DEFAULT_CACHE_CLEANUP_SHARDS;
+
+	/**
+	 * The route token of this node. If set, exposed session ids carry the route of the node
+	 * owning the session as a suffix (like Tomcat's {@code jvmRoute}), and sessions owned by
+	 * this node are not revalidated with the remote repository.
+	 * <p>
+	 * Supports property placeholders, e.g. {@code "${jvmRoute}"}. By default, no route is
+	 * configured.
+	 * @return the route token of this node
+	 */
+	@AliasFor(annotation = EnableStickyHttpSession.class)
+	String sessionRoute() default "";
+
+	/**
+	 * The seconds after which sessions owned by this node are revalidated with the remote
+	 * repository, since ownership is only known locally. Set to a negative value to never
+	 * revalidate owned sessions.
+	 * <p>
+	 * Only applicable if a {@link #sessionRoute()} is configured.
+	 * @return the seconds after which owned sessions are revalidated
+	 */
+	@AliasFor(annotation = EnableStickyHttpSession.class)
+	int ownedRevalidateAfterSeconds() default StickySessionRepository.DEFAULT_OWNED_REVALIDATE_AFTER_SECONDS;
+
+	/**
+	 * Whether sessions requested with a foreign route token should be claimed by this node
+	 * after they have been revalidated. If set to {@code false}, such sessions keep their id
+	 * and are revalidated on every request until their id is changed.
+	 * <p>
+	 * Only applicable if a {@link #sessionRoute()} is configured.
+	 * @return whether to claim sessions requested with a foreign route
+	 */
+	@AliasFor(annotation = EnableStickyHttpSession.class)
+	boolean claimForeignSessions() default true;
+
+	/**
+	 * If set to a positive value, cached sessions are revalidated and checked for expiry
+	 * against a coarse clock that is updated by a background thread in this interval (in
+	 * milliseconds), instead of reading the system time on every request.
+	 * <p>
+	 * By default ({@code 0}), the system clock is used.
+	 * @return the resolution of the session clock in milliseconds
+	 */
+	@AliasFor(annotation = EnableStickyHttpSession.class)
+	int clockResolutionMillis() default 0;
+
+	/**
+	 * Whether session expiry events are published by the nodes caching the sessions instead
+	 * of being derived from Redis keyspace notifications. Expired and evicted cache entries
+	 * are confirmed against Redis in batches by the cache cleanup job, and each expiry event
+	 * is claimed (and published) by one node only.
+	 * <p>
+	 * With this enabled, keyspace notifications are not needed anymore, and can be disabled
+	 * by providing a {@code ConfigureRedisAction.NO_OP} bean and turning off
+	 * {@code notify-keyspace-events} in Redis. Note that sessions that have only been cached by
+	 * nodes that have been shut down will expire without an event.
+	 * @return whether to publish expiry events locally
+	 */
+	@AliasFor(annotation = EnableStickyHttpSession.class)
+	boolean localExpiryEvents() default false;
+
+	/**
+	 * If set to a positive value, sessions evicted from the cache by the cache cleanup job are
+	 * kept in a memory-mapped, append-only disk cache of (at most) this size in megabytes. When
+	 * such a session is requested again, its {@code lastAccessedTime} is revalidated with Redis
+	 * and it is restored from disk if it is up to date, instead of being re-loaded.
+	 * <p>
+	 * By default ({@code 0}), the disk cache is disabled.
+	 * @return the size of the disk cache in megabytes
+	 */
+	@AliasFor(annotation = EnableStickyHttpSession.class)
+	int diskCacheMegabytes() default 0;
+
+	/**
+	 * The directory in which the {@link #diskCacheMegabytes() disk cache} creates its own
+	 * subdirectory for the segment files. Supports property placeholders. By default, the
+	 * temporary directory is used.
+	 * @return the directory of the disk cache
+	 */
+	@AliasFor(annotation = EnableStickyHttpSession.class)
+	String diskCacheDirectory() default "";
+
+	/**
+	 * If set to a positive value, up to this number of the most recently active sessions are
+	 * loaded into the cache in parallel batches after startup, before the application context
+	 * has been refreshed (and thus before requests are served), so the node does not start with
+	 * an empty cache. Requires a repository adapter that can preload sessions. By default
+	 * ({@code 0}), the cache is not warmed up.
+	 * @return the maximum number of sessions to load on startup
+	 */
+	@AliasFor(annotation = EnableStickyHttpSession.class)
+	int warmUpMaxSessions() default 0;
+
+	/**
+	 * The maximum time to spend on the {@link #warmUpMaxSessions() cache warm-up}.
+	 * @return the time budget of the cache warm-up in seconds
+	 */
+	@AliasFor(annotation = EnableStickyHttpSession.class)
+	int warmUpSeconds() default StickyHttpSessionConfiguration.DEFAULT_WARM_UP_SECONDS;
+
+	/**
+	 * The number of threads loading batches of sessions during the
+	 * {@link #warmUpMaxSessions() cache warm-up}.
+	 * @return the number of warm-up threads
+	 */
+	@AliasFor(annotation = EnableStickyHttpSession.class)
+	int warmUpThreads() default StickyHttpSessionConfiguration.DEFAULT_WARM_UP_THREADS;
+
+	/**
+	 * If set to a positive value, calls to the remote store are guarded by a circuit breaker that
+	 * opens after this number of consecutive failures (connection failures or timeouts). While
+	 * the breaker is open, cached sessions are served without revalidation, sessions that are not
+	 * cached cannot be loaded, and saves are deferred and retried after the breaker has closed.
+	 * By default ({@code 0}), no circuit breaker is used.
+	 * @return the number of consecutive failures after which the circuit breaker opens
+	 */
+	@AliasFor(annotation = EnableStickyHttpSession.class)
+	int circuitBreakerFailures() default 0;
+
+	/**
+	 * The time the {@link #circuitBreakerFailures() circuit breaker} stays open before calls to
+	 * the remote store are tried again. The time is doubled (up to a minute) whenever the trial
+	 * fails.
+	 * @return the open time of the circuit breaker in seconds
+	 */
+	@AliasFor(annotation = EnableStickyHttpSession.class)
+	int circuitBreakerOpenSeconds() default StickyHttpSessionConfiguration.DEFAULT_CIRCUIT_BREAKER_OPEN_SECONDS;
+
+	/**
+	 * The maximum number of sessions whose saves are deferred while the
+	 * {@link #circuitBreakerFailures() circuit breaker} is open. Further saves fail.
+	 * @return the maximum number of deferred saves
+	 */
+	@AliasFor(annotation = EnableStickyHttpSession.class)
+	int maxPendingSaves() default StickySessionRepository.DEFAULT_MAX_PENDING_SAVES;
+
+	/**
+	 * Whether to fingerprint attributes that are only saved because of the save mode
+	 * ({@code ON_GET_ATTRIBUTE} or {@code ALWAYS}), by hashing their serialized form when they
+	 * are handed out. Such attributes are only written to the cache and the remote repository
+	 * if they have been modified in place.
+	 * <p>
+	 * This trades two serializations per handed out attribute for skipping unnecessary writes.
+	 * Custom strategies can be configured with
+	 * {@link StickyHttpSessionConfiguration#setAttributeFingerprintStrategy}.
+	 * @return whether to skip saving unchanged attributes
+	 */
+	@AliasFor(annotation = EnableStickyHttpSession.class)
+	boolean fingerprintAttributes() default false;
+
+	/**
+	 * Whether to canonicalize the attributes of sessions loaded into the cache: attribute names
+	 * are interned, and equal values of {@link #internedAttributeTypes() immutable types} are
+	 * shared between cached sessions instead of being retained once per session.
+	 * @return whether to intern attributes
+	 */
+	@AliasFor(annotation = EnableStickyHttpSession.class)
+	boolean internAttributes() default false;
+
+	/**
+	 * Additional immutable attribute types whose values are deduplicated if
+	 * {@link #internAttributes()} is enabled. Instances of these types must never be modified,
+	 * since they are shared by all cached sessions. Strings, boxed integers and booleans, and
+	 * {@link java.util.Locale locales} are always included.
+	 * @return the immutable attribute types
+	 */
+	@AliasFor(annotation = EnableStickyHttpSession.class)
+	Class<?>[] internedAttributeTypes() default {};
+
+	/**
+	 * If set to a positive value, this node acquires an ownership lease with the given duration
+	 * in Redis for every session it caches. Leases are renewed in the background, and sessions
+	 * are served from the cache without revalidation while this node holds their lease.
+	 * <p>
+	 * When another node serves a session, it revokes the lease, and this node saves its
+	 * pending changes, removes the session from its cache and releases the lease. The other node
+	 * waits until the lease has been released or has expired before it acquires the lease and
+	 * reads the session.
+	 * <p>
+	 * By default ({@code 0}), leases are disabled.
+	 * @return the lease duration in seconds
+	 */
+	int leaseSeconds() default 0;
+
+	/**
+	 * Whether to track which session attributes are changed in Redis. If enabled, outdated
+	 * cached sessions are refreshed by fetching only the attributes changed since they have been
+	 * cached, instead of re-loading the whole session.
+	 * <p>
+	 * This costs two additional round trips for every save that changes attributes.
+	 * @return whether to track attribute changes
+	 */
+	boolean trackAttributeChanges() default false;
+
+	/**
+	 * Whether to replicate saved changes to the caches of other nodes through a Redis stream.
+	 * Nodes caching the session in the version the changes are based on apply them in place,
+	 * so warm copies stay consistent without being refreshed. Requires
+	 * {@link #trackAttributeChanges()}.
+	 * <p>
+	 * This costs one additional round trip for every save that changes attributes, and a
+	 * background thread on every node that reads all replicated changes.
+	 * @return whether to replicate attribute changes
+	 */
+	boolean replicateChanges() default false;
+
+	/**
+	 * Whether to change session ids by renaming the keys of the session in Redis with a single
+	 * script, instead of re-loading the session and saving it under its new id. This relies on
+	 * the key layout of Spring Session's {@code RedisIndexedSessionRepository}.
+	 * @return whether to rename sessions in place
+	 */
+	boolean renameSessions() default false;
+
+	/**
+	 * Whether to load session attributes on demand. If enabled, sessions are loaded into the
+	 * cache with their metadata and the {@link #eagerAttributes() eagerly loaded attributes}
+	 * only, all other attributes are loaded from Redis the first time they are read.
+	 * @return whether to load attributes on demand
+	 */
+	boolean loadAttributesOnDemand() default false;
+
+	/**
+	 * The names of the attributes that are loaded together with the session if
+	 * {@link #loadAttributesOnDemand() attributes are loaded on demand}. The principal name
+	 * and the security context are always loaded eagerly.
+	 * @return the names of the eagerly loaded attributes
+	 */
+	String[] eagerAttributes() default {};
+
+	/**
+	 * If set to a positive value, sessions with changes that have not been saved to Redis yet
+	 * (e.g. because saves are delayed) are marked as unsaved by this node. Before another node
+	 * loads or revalidates such a session, it requests this node via Redis pub/sub to save the
+	 * changes immediately, and waits at most for the given time.
+	 * <p>
+	 * This allows long save delays without serving outdated sessions when requests are moved
+	 * to another node. By default ({@code 0}), flush requests are disabled.
+	 * @return the maximum time to wait for a flush in milliseconds
+	 */
+	int flushTimeoutMillis() default 0;
+
+	/**
+	 * Whether to serialize session attribute values with a {@link CompactRedisSerializer}
+	 * instead of JDK serialization. Existing JDK-serialized values can still be read, but
+	 * values written in the compact format cannot be read by nodes using JDK serialization.
+	 * <p>
+	 * To register additional types, set a configured serializer with
+	 * {@link StickyRedisHttpSessionConfiguration#setAttributeSerializer} instead.
+	 * @return whether to use compact attribute serialization
+	 */
+	boolean compactAttributeSerialization() default false;
+
 	/**
 	 * Save mode for the redis session. The default is {@link SaveMode#ON_SET_ATTRIBUTE}, which
 	 * only saves changes made to session.
@@ -16,16 +16,31 @@
 package org.springframework.session.sticky.config.annotation.web.http;
 
 import static org.springframework.session.sticky.StickySessionCache.DEFAULT_CLEANUP_AFTER_MINUTES;
+import static org.springframework.session.sticky.StickySessionRepository.DEFAULT_OWNED_REVALIDATE_AFTER_SECONDS;
 import static org.springframework.session.sticky.StickySessionRepository.DEFAULT_REVALIDATE_AFTER_SECONDS;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Clock;
 import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.springframework.beans.factory.BeanClassLoaderAware;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.EmbeddedValueResolverAware;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.ImportAware;
@@ -40,14 +55,23 @@ import org.springframework.session.FlushMode;
 import org.springframework.session.SaveMode;
 import org.springframework.session.SessionRepository;
 import org.springframework.session.sticky.AsyncDelegateSaveStrategy;
+import org.springframework.session.sticky.AttributeFingerprintStrategy;
+import org.springframework.session.sticky.DeadlineDelegateSaveStrategy;
 import org.springframework.session.sticky.DelayedDelegateSaveStrategy;
+import org.springframework.session.sticky.DelegateCircuitBreaker;
 import org.springframework.session.sticky.DelegateSaveStrategy;
+import org.springframework.session.sticky.MappedFileSessionCache;
+import org.springframework.session.sticky.RouteSuffixSessionIdStrategy;
+import org.springframework.session.sticky.SerializedAttributeFingerprintStrategy;
+import org.springframework.session.sticky.SessionAttributeInterner;
 import org.springframework.session.sticky.StickySessionCache;
 import org.springframework.session.sticky.StickySessionRepository;
 import org.springframework.session.sticky.StickySessionRepositoryAdapter;
 import org.springframework.session.sticky.SynchronousDelegateSaveStrategy;
+import org.springframework.session.sticky.internal.util.CoarseClock;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
+import org.springframework.util.StringValueResolver;
 
 /**
  * Configures a {@link StickySessionRepository} as a {@link Primary} session repository.
@@ -57,7 +81,8 @@ import org.springframework.util.StringUtils;
  * @author Bernhard Frauendienst
  */
 @Configuration(proxyBeanMethods = false)
-public class StickyHttpSessionConfiguration implements ImportAware {
+public class StickyHttpSessionConfiguration implements ImportAware, EmbeddedValueResolverAware, BeanClassLoaderAware,
+    DisposableBean {
 
   public static final String DEFAULT_CACHE_CLEANUP_CRON = "0 * * * * *";
 
@@ -65,29 +90,107 @@ public class StickyHttpSessionConfiguration implements ImportAware {
 
   public static final int DEFAULT_ASYNC_SAVE_THREADS = 16;
 
+  public static final int DEFAULT_CACHE_CLEANUP_SHARDS = StickySessionCache.DEFAULT_CLEANUP_SHARDS;
+
+  public static final int DEFAULT_WARM_UP_SECONDS = 30;
+
+  public static final int DEFAULT_WARM_UP_THREADS = 4;
+
+  public static final int DEFAULT_CIRCUIT_BREAKER_OPEN_SECONDS = 5;
+
+  private static final int MAX_CIRCUIT_BREAKER_OPEN_SECONDS = 60;
+
+  private static final long PENDING_SAVES_RETRY_MILLIS = 1000;
+
   private ApplicationEventPublisher eventPublisher;
 
+  private StringValueResolver embeddedValueResolver;
+
+  private @Nullable ClassLoader classLoader;
+
   private FlushMode flushMode = FlushMode.ON_SAVE;
 
   private SaveMode saveMode = SaveMode.ON_SET_ATTRIBUTE;
 
   private String cacheCleanupCron = DEFAULT_CACHE_CLEANUP_CRON;
 
+  private int cacheCleanupMaxEntries = 0;
+
+  private @Nullable Duration cacheCleanupMaxDuration = null;
+
+  private int cacheCleanupShards = DEFAULT_CACHE_CLEANUP_SHARDS;
+
   private int sessionConcurrency = DEFAULT_CONCURRENCY;
 
   private @Nullable Duration revalidateAfter = Duration.ofSeconds(DEFAULT_REVALIDATE_AFTER_SECONDS);
 
+  private @Nullable Duration minRevalidateAfter = null;
+
+  private @Nullable Duration maxRevalidateAfter = null;
+
+  private @Nullable Duration revalidateTimeout = null;
+
   private Duration cleanupAfter = Duration.ofMinutes(DEFAULT_CLEANUP_AFTER_MINUTES);
 
   private @Nullable Duration delaySaves = null;
 
   private int asyncSaveThreads = DEFAULT_ASYNC_SAVE_THREADS;
 
+  private boolean deadlineOrderedSaves = false;
+
+  private Collection<String> criticalAttributeNames = Collections.emptySet();
+
+  private @Nullable String sessionRoute = null;
+
+  private @Nullable Duration ownedRevalidateAfter = Duration.ofSeconds(DEFAULT_OWNED_REVALIDATE_AFTER_SECONDS);
+
+  private boolean claimForeignSessions = true;
+
+  private @Nullable Duration clockResolution = null;
+
+  private boolean localExpiryEvents = false;
+
+  private long diskCacheSize = 0;
+
+  private @Nullable String diskCacheDirectory = null;
+
+  private @Nullable MappedFileSessionCache diskCache = null;
+
+  private @Nullable ExecutorService revalidateExecutor = null;
+
+  private @Nullable AttributeFingerprintStrategy attributeFingerprintStrategy = null;
+
+  private @Nullable SessionAttributeInterner attributeInterner = null;
+
+  private int warmUpMaxSessions = 0;
+
+  private Duration warmUpTimeBudget = Duration.ofSeconds(DEFAULT_WARM_UP_SECONDS);
+
+  private int warmUpThreads = DEFAULT_WARM_UP_THREADS;
+
+  private int circuitBreakerFailures = 0;
+
+  private Duration circuitBreakerOpenDuration = Duration.ofSeconds(DEFAULT_CIRCUIT_BREAKER_OPEN_SECONDS);
+
+  private int maxPendingSaves = StickySessionRepository.DEFAULT_MAX_PENDING_SAVES;
+
+  private @Nullable Clock clock = null;
+
   @Autowired
   public void setApplicationEventPublisher(ApplicationEventPublisher applicationEventPublisher) {
     this.eventPublisher = applicationEventPublisher;
   }
 
+  @Override
+  public void setEmbeddedValueResolver(StringValueResolver resolver) {
+    this.embeddedValueResolver = resolver;
+  }
+
+  @Override
+  public void setBeanClassLoader(ClassLoader classLoader) {
+    this.classLoader = classLoader;
+  }
+
   public void setFlushMode(FlushMode flushMode) {
     Assert.notNull(flushMode, "flushMode cannot be null");
     this.flushMode = flushMode;
@@ -102,6 +205,18 @@ public class StickyHttpSessionConfiguration implements ImportAware {
     this.cacheCleanupCron = cacheCleanupCron;
   }
 
+  public void setCacheCleanupMaxEntries(int cacheCleanupMaxEntries) {
+    this.cacheCleanupMaxEntries = cacheCleanupMaxEntries;
+  }
+
+  public void setCacheCleanupMaxDuration(@Nullable Duration cacheCleanupMaxDuration) {
+    this.cacheCleanupMaxDuration = cacheCleanupMaxDuration;
+  }
+
+  public void setCacheCleanupShards(int cacheCleanupShards) {
+    this.cacheCleanupShards = cacheCleanupShards > 0 ? cacheCleanupShards : DEFAULT_CACHE_CLEANUP_SHARDS;
+  }
+
   public void setSessionConcurrency(int sessionConcurrency) {
     this.sessionConcurrency = sessionConcurrency;
   }
@@ -110,6 +225,24 @@ public class StickyHttpSessionConfiguration implements ImportAware {
     this.revalidateAfter = revalidateAfter;
   }
 
+  /**
+   * @param minRevalidateAfter the minimum adaptive revalidation period, or {@code null} to disable adaptive revalidation
+   * @param maxRevalidateAfter the maximum adaptive revalidation period, or {@code null} to disable adaptive revalidation
+   */
+  public void setAdaptiveRevalidateAfter(@Nullable Duration minRevalidateAfter,
+      @Nullable Duration maxRevalidateAfter) {
+    this.minRevalidateAfter = minRevalidateAfter;
+    this.maxRevalidateAfter = maxRevalidateAfter;
+  }
+
+  /**
+   * @param revalidateTimeout the maximum time a request waits for a revalidation, or {@code null} to wait until it
+   *                          completes
+   */
+  public void setRevalidateTimeout(@Nullable Duration revalidateTimeout) {
+    this.revalidateTimeout = revalidateTimeout;
+  }
+
   public void setCleanupAfter(Duration cleanupAfter) {
     Assert.notNull(cleanupAfter, "cleanupAfter cannot be null");
     this.cleanupAfter = cleanupAfter;
@@ -123,13 +256,120 @@ public class StickyHttpSessionConfiguration implements ImportAware {
     this.asyncSaveThreads = asyncSaveThreads >= 0 ? asyncSaveThreads : DEFAULT_ASYNC_SAVE_THREADS;
   }
 
+  public void setDeadlineOrderedSaves(boolean deadlineOrderedSaves) {
+    this.deadlineOrderedSaves = deadlineOrderedSaves;
+  }
+
+  public void setCriticalAttributeNames(Collection<String> criticalAttributeNames) {
+    this.criticalAttributeNames = criticalAttributeNames;
+  }
+
+  public void setSessionRoute(@Nullable String sessionRoute) {
+    this.sessionRoute = sessionRoute;
+  }
+
+  public void setOwnedRevalidateAfter(@Nullable Duration ownedRevalidateAfter) {
+    this.ownedRevalidateAfter = ownedRevalidateAfter;
+  }
+
+  public void setClaimForeignSessions(boolean claimForeignSessions) {
+    this.claimForeignSessions = claimForeignSessions;
+  }
+
+  public void setClockResolution(@Nullable Duration clockResolution) {
+    this.clockResolution = clockResolution;
+  }
+
+  public void setLocalExpiryEvents(boolean localExpiryEvents) {
+    this.localExpiryEvents = localExpiryEvents;
+  }
+
+  /**
+   * @param diskCacheSize the maximum size of the disk cache in bytes, or {@code 0} to disable it
+   */
+  public void setDiskCacheSize(long diskCacheSize) {
+    this.diskCacheSize = diskCacheSize;
+  }
+
+  public void setDiskCacheDirectory(@Nullable String diskCacheDirectory) {
+    this.diskCacheDirectory = diskCacheDirectory;
+  }
+
+  public void setAttributeFingerprintStrategy(@Nullable AttributeFingerprintStrategy attributeFingerprintStrategy) {
+    this.attributeFingerprintStrategy = attributeFingerprintStrategy;
+  }
+
+  public void setAttributeInterner(@Nullable SessionAttributeInterner attributeInterner) {
+    this.attributeInterner = attributeInterner;
+  }
+
+  /**
+   * @param warmUpMaxSessions the maximum number of sessions to load on startup, or {@code 0} to disable the warm-up
+   */
+  public void setWarmUpMaxSessions(int warmUpMaxSessions) {
+    this.warmUpMaxSessions = warmUpMaxSessions;
+  }
+
+  public void setWarmUpTimeBudget(Duration warmUpTimeBudget) {
+    this.warmUpTimeBudget = warmUpTimeBudget;
+  }
+
+  public void setWarmUpThreads(int warmUpThreads) {
+    this.warmUpThreads = warmUpThreads;
+  }
+
+  /**
+   * @param circuitBreakerFailures the number of consecutive failures after which the circuit breaker opens, or
+   *                               {@code 0} to disable the circuit breaker
+   */
+  public void setCircuitBreakerFailures(int circuitBreakerFailures) {
+    this.circuitBreakerFailures = circuitBreakerFailures;
+  }
+
+  public void setCircuitBreakerOpenDuration(Duration circuitBreakerOpenDuration) {
+    this.circuitBreakerOpenDuration = circuitBreakerOpenDuration;
+  }
+
+  public void setMaxPendingSaves(int maxPendingSaves) {
+    this.maxPendingSaves = maxPendingSaves;
+  }
+
+  /**
+   * Returns the clock shared by the session cache and repository, a {@link CoarseClock} if a
+   * {@linkplain #setClockResolution(Duration) clock resolution} is configured.
+   */
+  protected synchronized Clock getClock() {
+    if (this.clock == null) {
+      this.clock = this.clockResolution != null ? new CoarseClock(this.clockResolution) : Clock.systemUTC();
+    }
+    return this.clock;
+  }
+
+  @Override
+  public void destroy() {
+    if (this.diskCache != null) {
+      this.diskCache.destroy();
+    }
+    if (this.clock instanceof CoarseClock) {
+      ((CoarseClock) this.clock).close();
+    }
+    if (this.revalidateExecutor != null) {
+      this.revalidateExecutor.shutdown();
+    }
+  }
+
   @Bean
   public DelegateSaveStrategy stickySessionDelegateSaveStrategy() {
     if (asyncSaveThreads == 0) {
       return new SynchronousDelegateSaveStrategy();
     }
     long delaySavesSeconds = delaySaves == null ? 0 : delaySaves.getSeconds();
-    if (delaySavesSeconds > 0) {
+    if (deadlineOrderedSaves) {
+      DeadlineDelegateSaveStrategy saveStrategy = new DeadlineDelegateSaveStrategy(asyncSaveThreads,
+          delaySavesSeconds, TimeUnit.SECONDS);
+      saveStrategy.setClock(getClock());
+      return saveStrategy;
+    } else if (delaySavesSeconds > 0) {
       return DelayedDelegateSaveStrategy.withScheduledThreadPool(asyncSaveThreads, delaySavesSeconds, TimeUnit.SECONDS);
     } else {
       return AsyncDelegateSaveStrategy.withFixedThreadPool(asyncSaveThreads);
@@ -138,8 +378,14 @@ public class StickyHttpSessionConfiguration implements ImportAware {
 
   @Bean
   public StickySessionCache stickySessionCache() {
-    StickySessionCache cache = new StickySessionCache(this.sessionConcurrency);
+    StickySessionCache cache = new StickySessionCache(this.sessionConcurrency, this.cacheCleanupShards);
     cache.setCleanupAfter(this.cleanupAfter);
+    cache.setCleanupMaxEntries(this.cacheCleanupMaxEntries);
+    cache.setCleanupMaxDuration(this.cacheCleanupMaxDuration);
+    cache.setClock(getClock());
+    if (this.cacheCleanupShards > 1) {
+      cache.setCleanupExecutor(Executors.newFixedThreadPool(this.cacheCleanupShards), true);
+    }
     return cache;
   }
 
@@ -158,10 +404,77 @@ public class StickyHttpSessionConfiguration implements ImportAware {
 
     sessionRepository.setApplicationEventPublisher(this.eventPublisher);
     sessionRepository.setDelegateSaveStrategy(stickySessionDelegateSaveStrategy);
+    sessionRepository.setCriticalAttributeNames(this.criticalAttributeNames);
     sessionRepository.setRevalidateAfter(this.revalidateAfter);
+    sessionRepository.setAdaptiveRevalidateAfter(this.minRevalidateAfter, this.maxRevalidateAfter);
+    if (this.revalidateTimeout != null) {
+      // bounded, so a hanging remote repository does not pile up revalidations; rejected ones serve the cached session
+      AtomicInteger threadNumber = new AtomicInteger();
+      this.revalidateExecutor = new ThreadPoolExecutor(this.sessionConcurrency, this.sessionConcurrency, 0,
+          TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(this.sessionConcurrency), runnable -> {
+        Thread thread = new Thread(runnable, "sticky-session-revalidate-" + threadNumber.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+      sessionRepository.setRevalidateTimeout(this.revalidateTimeout, this.revalidateExecutor);
+    }
+    sessionRepository.setClock(getClock());
+    sessionRepository.setLocalExpiryEvents(this.localExpiryEvents);
+    sessionRepository.setAttributeFingerprintStrategy(this.attributeFingerprintStrategy);
+    sessionRepository.setAttributeInterner(this.attributeInterner);
+    if (this.diskCacheSize > 0) {
+      sessionRepository.setSecondLevelCache(createDiskCache());
+    }
+    if (this.circuitBreakerFailures > 0) {
+      DelegateCircuitBreaker circuitBreaker = new DelegateCircuitBreaker(this.circuitBreakerFailures,
+          this.circuitBreakerOpenDuration, Duration.ofSeconds(MAX_CIRCUIT_BREAKER_OPEN_SECONDS));
+      circuitBreaker.setClock(getClock());
+      sessionRepository.setCircuitBreaker(circuitBreaker);
+      sessionRepository.setMaxPendingSaves(this.maxPendingSaves);
+    }
+    if (StringUtils.hasText(this.sessionRoute)) {
+      sessionRepository.setSessionIdStrategy(new RouteSuffixSessionIdStrategy(this.sessionRoute));
+      sessionRepository.setOwnedRevalidateAfter(this.ownedRevalidateAfter);
+      sessionRepository.setClaimForeignSessions(this.claimForeignSessions);
+    }
     return sessionRepository;
   }
 
+  /**
+   * Warms up the cache after all singletons have been created, see {@link #setWarmUpMaxSessions(int)}.
+   */
+  @Bean
+  public SmartInitializingSingleton stickySessionCacheWarmUp(StickySessionRepository stickySessionRepository) {
+    return () -> {
+      if (this.warmUpMaxSessions <= 0) {
+        return;
+      }
+      ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, this.warmUpThreads));
+      try {
+        stickySessionRepository.warmUp(this.warmUpMaxSessions, this.warmUpTimeBudget, executor);
+      } finally {
+        executor.shutdownNow();
+      }
+    };
+  }
+
+  private synchronized MappedFileSessionCache createDiskCache() {
+    if (this.diskCache == null) {
+      try {
+        this.diskCache = new MappedFileSessionCache(
+            StringUtils.hasText(this.diskCacheDirectory) ? Paths.get(this.diskCacheDirectory) : null,
+            this.diskCacheSize);
+      } catch (IOException e) {
+        throw new IllegalStateException("Could not create disk cache directory", e);
+      }
+      if (this.classLoader != null) {
+        this.diskCache.setClassLoader(this.classLoader);
+      }
+      this.diskCache.setClock(getClock());
+    }
+    return this.diskCache;
+  }
+
   @Override
   public void setImportMetadata(AnnotationMetadata importMetadata) {
     Map<String, Object> attributeMap = importMetadata
@@ -169,6 +482,18 @@ public class StickyHttpSessionConfiguration implements ImportAware {
     AnnotationAttributes attributes = AnnotationAttributes.fromMap(attributeMap);
     int revalidateAfterSeconds = attributes.getNumber("revalidateAfterSeconds");
     this.revalidateAfter = revalidateAfterSeconds >= 0 ? Duration.ofSeconds(revalidateAfterSeconds) : null;
+    int maxRevalidateAfterSeconds = attributes.getNumber("maxRevalidateAfterSeconds");
+    if (maxRevalidateAfterSeconds > 0) {
+      int minRevalidateAfterSeconds = attributes.getNumber("minRevalidateAfterSeconds");
+      this.minRevalidateAfter = Duration.ofSeconds(Math.max(1, Math.min(minRevalidateAfterSeconds,
+          maxRevalidateAfterSeconds)));
+      this.maxRevalidateAfter = Duration.ofSeconds(maxRevalidateAfterSeconds);
+    } else {
+      this.minRevalidateAfter = null;
+      this.maxRevalidateAfter = null;
+    }
+    int revalidateTimeoutMillis = attributes.getNumber("revalidateTimeoutMillis");
+    this.revalidateTimeout = revalidateTimeoutMillis > 0 ? Duration.ofMillis(revalidateTimeoutMillis) : null;
 
     int cleanupAfterMinutes = attributes.getNumber("cleanupAfterMinutes");
     if (cleanupAfterMinutes > 0) {
@@ -183,6 +508,8 @@ public class StickyHttpSessionConfiguration implements ImportAware {
     if (asyncSaveThreads >= 0) {
       this.asyncSaveThreads = asyncSaveThreads;
     }
+    this.deadlineOrderedSaves = attributes.getBoolean("deadlineOrderedSaves");
+    this.criticalAttributeNames = Arrays.asList(attributes.getStringArray("criticalAttributes"));
 
     this.flushMode = attributes.getEnum("flushMode");
     this.saveMode = attributes.getEnum("saveMode");
@@ -190,11 +517,65 @@ public class StickyHttpSessionConfiguration implements ImportAware {
     if (StringUtils.hasText(cacheCleanupCron)) {
       this.cacheCleanupCron = cacheCleanupCron;
     }
+    int cacheCleanupMaxEntries = attributes.getNumber("cacheCleanupMaxEntries");
+    if (cacheCleanupMaxEntries >= 0) {
+      this.cacheCleanupMaxEntries = cacheCleanupMaxEntries;
+    }
+    int cacheCleanupMaxMillis = attributes.getNumber("cacheCleanupMaxMillis");
+    this.cacheCleanupMaxDuration = cacheCleanupMaxMillis > 0 ? Duration.ofMillis(cacheCleanupMaxMillis) : null;
+    setCacheCleanupShards(attributes.getNumber("cacheCleanupShards"));
+
+    String sessionRoute = attributes.getString("sessionRoute");
+    if (StringUtils.hasText(sessionRoute)) {
+      this.sessionRoute = this.embeddedValueResolver.resolveStringValue(sessionRoute);
+    }
+    int ownedRevalidateAfterSeconds = attributes.getNumber("ownedRevalidateAfterSeconds");
+    this.ownedRevalidateAfter =
+        ownedRevalidateAfterSeconds >= 0 ? Duration.ofSeconds(ownedRevalidateAfterSeconds) : null;
+    this.claimForeignSessions = attributes.getBoolean("claimForeignSessions");
+    int clockResolutionMillis = attributes.getNumber("clockResolutionMillis");
+    this.clockResolution = clockResolutionMillis > 0 ? Duration.ofMillis(clockResolutionMillis) : null;
+    this.localExpiryEvents = attributes.getBoolean("localExpiryEvents");
+    int diskCacheMegabytes = attributes.getNumber("diskCacheMegabytes");
+    this.diskCacheSize = diskCacheMegabytes > 0 ? diskCacheMegabytes * 1024L * 1024L : 0;
+    if (attributes.getBoolean("fingerprintAttributes")) {
+      this.attributeFingerprintStrategy = new SerializedAttributeFingerprintStrategy();
+    }
+    if (attributes.getBoolean("internAttributes")) {
+      SessionAttributeInterner attributeInterner = new SessionAttributeInterner();
+      for (Class<?> immutableType : attributes.getClassArray("internedAttributeTypes")) {
+        attributeInterner.registerImmutableType(immutableType);
+      }
+      this.attributeInterner = attributeInterner;
+    }
+    this.warmUpMaxSessions = attributes.getNumber("warmUpMaxSessions");
+    int warmUpSeconds = attributes.getNumber("warmUpSeconds");
+    if (warmUpSeconds > 0) {
+      this.warmUpTimeBudget = Duration.ofSeconds(warmUpSeconds);
+    }
+    int warmUpThreads = attributes.getNumber("warmUpThreads");
+    if (warmUpThreads > 0) {
+      this.warmUpThreads = warmUpThreads;
+    }
+    this.circuitBreakerFailures = attributes.getNumber("circuitBreakerFailures");
+    int circuitBreakerOpenSeconds = attributes.getNumber("circuitBreakerOpenSeconds");
+    if (circuitBreakerOpenSeconds > 0) {
+      this.circuitBreakerOpenDuration = Duration.ofSeconds(circuitBreakerOpenSeconds);
+    }
+    int maxPendingSaves = attributes.getNumber("maxPendingSaves");
+    if (maxPendingSaves >= 0) {
+      this.maxPendingSaves = maxPendingSaves;
+    }
+    String diskCacheDirectory = attributes.getString("diskCacheDirectory");
+    if (StringUtils.hasText(diskCacheDirectory)) {
+      this.diskCacheDirectory = this.embeddedValueResolver.resolveStringValue(diskCacheDirectory);
+    }
   }
 
 
   /**
-   * Configuration of scheduled job for cleaning up outdated cache entries.
+   * Configuration of scheduled job for cleaning up outdated cache entries, publishing local expiry events, and retrying
+   * deferred saves.
    */
   @EnableScheduling
   @Configuration(proxyBeanMethods = false)
@@ -202,14 +583,28 @@ public class StickyHttpSessionConfiguration implements ImportAware {
 
     private final StickySessionCache sessionCache;
 
-    SessionCleanupConfiguration(StickySessionCache sessionCache) {
+    private final StickySessionRepository sessionRepository;
+
+    SessionCleanupConfiguration(StickySessionCache sessionCache, StickySessionRepository sessionRepository) {
       this.sessionCache = sessionCache;
+      this.sessionRepository = sessionRepository;
     }
 
     @Override
     public void configureTasks(ScheduledTaskRegistrar taskRegistrar) {
-      taskRegistrar.addCronTask(this.sessionCache::cleanupOutdatedCacheEntries,
-          StickyHttpSessionConfiguration.this.cacheCleanupCron);
+      if (StickyHttpSessionConfiguration.this.localExpiryEvents) {
+        // evicted entries become expiry candidates, so confirm them right after the cleanup
+        taskRegistrar.addCronTask(() -> {
+          this.sessionCache.cleanupOutdatedCacheEntries();
+          this.sessionRepository.publishExpiredSessionEvents();
+        }, StickyHttpSessionConfiguration.this.cacheCleanupCron);
+      } else {
+        taskRegistrar.addCronTask(this.sessionCache::cleanupOutdatedCacheEntries,
+            StickyHttpSessionConfiguration.this.cacheCleanupCron);
+      }
+      if (StickyHttpSessionConfiguration.this.circuitBreakerFailures > 0) {
+        taskRegistrar.addFixedDelayTask(this.sessionRepository::retryPendingSaves, PENDING_SAVES_RETRY_MILLIS);
+      }
     }
 
   }
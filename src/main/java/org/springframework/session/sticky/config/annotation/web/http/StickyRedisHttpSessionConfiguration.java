@@ -15,9 +15,26 @@
  */
 package org.springframework.session.sticky.config.annotation.web.http;
 
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import org.springframework.beans.factory.BeanClassLoaderAware;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.ImportAware;
+import org.springframework.core.annotation.AnnotationAttributes;
+import org.springframework.core.type.AnnotationMetadata;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.lang.Nullable;
+import org.springframework.session.data.redis.CompactRedisSerializer;
 import org.springframework.session.data.redis.RedisIndexedSessionRepository;
 import org.springframework.session.data.redis.StickyRedisSessionRepositoryAdapter;
 
@@ -26,12 +43,112 @@ import org.springframework.session.data.redis.StickyRedisSessionRepositoryAdapte
  * @see EnableStickyRedisHttpSession
  */
 @Configuration(proxyBeanMethods = false)
-public class StickyRedisHttpSessionConfiguration {
+public class StickyRedisHttpSessionConfiguration implements ImportAware, BeanClassLoaderAware {
+
+  /**
+   * The name of an optional {@link RedisConnectionFactory} bean for Redis replicas, see
+   * {@link StickyRedisSessionRepositoryAdapter#setReplicaConnectionFactory(RedisConnectionFactory)}.
+   */
+  public static final String REPLICA_CONNECTION_FACTORY_BEAN_NAME = "stickySessionReplicaRedisConnectionFactory";
+
+  private @Nullable Duration leaseDuration = null;
+
+  public void setLeaseDuration(@Nullable Duration leaseDuration) {
+    this.leaseDuration = leaseDuration;
+  }
+
+  private boolean trackAttributeChanges = false;
+
+  public void setTrackAttributeChanges(boolean trackAttributeChanges) {
+    this.trackAttributeChanges = trackAttributeChanges;
+  }
+
+  private boolean replicateChanges = false;
+
+  public void setReplicateChanges(boolean replicateChanges) {
+    this.replicateChanges = replicateChanges;
+  }
+
+  private boolean renameSessions = false;
+
+  public void setRenameSessions(boolean renameSessions) {
+    this.renameSessions = renameSessions;
+  }
+
+  private boolean loadAttributesOnDemand = false;
+
+  public void setLoadAttributesOnDemand(boolean loadAttributesOnDemand) {
+    this.loadAttributesOnDemand = loadAttributesOnDemand;
+  }
+
+  private Collection<String> eagerAttributeNames = Collections.emptySet();
+
+  public void setEagerAttributeNames(Collection<String> eagerAttributeNames) {
+    this.eagerAttributeNames = eagerAttributeNames;
+  }
+
+  private @Nullable Duration flushTimeout = null;
+
+  public void setFlushTimeout(@Nullable Duration flushTimeout) {
+    this.flushTimeout = flushTimeout;
+  }
+
+  private @Nullable RedisSerializer<Object> attributeSerializer = null;
+
+  private @Nullable ClassLoader classLoader;
+
+  public void setAttributeSerializer(@Nullable RedisSerializer<Object> attributeSerializer) {
+    this.attributeSerializer = attributeSerializer;
+  }
+
+  @Override
+  public void setBeanClassLoader(ClassLoader classLoader) {
+    this.classLoader = classLoader;
+  }
 
   @Bean
   public StickyRedisSessionRepositoryAdapter stickyRedisSessionRepositoryAdapter(
-      @Autowired RedisIndexedSessionRepository sessionRepository) {
-    return new StickyRedisSessionRepositoryAdapter(sessionRepository);
+      @Autowired RedisIndexedSessionRepository sessionRepository,
+      @Autowired @Qualifier("springSessionRedisMessageListenerContainer")
+          RedisMessageListenerContainer messageListenerContainer,
+      @Qualifier(REPLICA_CONNECTION_FACTORY_BEAN_NAME)
+          ObjectProvider<RedisConnectionFactory> replicaConnectionFactory) {
+    StickyRedisSessionRepositoryAdapter adapter = new StickyRedisSessionRepositoryAdapter(sessionRepository);
+    adapter.setLeaseDuration(this.leaseDuration);
+    adapter.setTrackAttributeChanges(this.trackAttributeChanges);
+    adapter.setReplicateChanges(this.replicateChanges);
+    adapter.setRenameSessions(this.renameSessions);
+    adapter.setEagerAttributeNames(this.eagerAttributeNames);
+    adapter.setLoadAttributesOnDemand(this.loadAttributesOnDemand);
+    adapter.setMessageListenerContainer(messageListenerContainer);
+    adapter.setFlushTimeout(this.flushTimeout);
+    if (this.attributeSerializer != null) {
+      adapter.setAttributeSerializer(this.attributeSerializer);
+    }
+    adapter.setReplicaConnectionFactory(replicaConnectionFactory.getIfAvailable());
+    return adapter;
+  }
+
+  @Override
+  public void setImportMetadata(AnnotationMetadata importMetadata) {
+    Map<String, Object> attributeMap = importMetadata
+        .getAnnotationAttributes(EnableStickyRedisHttpSession.class.getName());
+    AnnotationAttributes attributes = AnnotationAttributes.fromMap(attributeMap);
+    if (attributes == null) {
+      return;
+    }
+    int leaseSeconds = attributes.getNumber("leaseSeconds");
+    this.leaseDuration = leaseSeconds > 0 ? Duration.ofSeconds(leaseSeconds) : null;
+    this.trackAttributeChanges = attributes.getBoolean("trackAttributeChanges");
+    this.replicateChanges = attributes.getBoolean("replicateChanges");
+    this.renameSessions = attributes.getBoolean("renameSessions");
+    this.loadAttributesOnDemand = attributes.getBoolean("loadAttributesOnDemand");
+    this.eagerAttributeNames = Arrays.asList(attributes.getStringArray("eagerAttributes"));
+    int flushTimeoutMillis = attributes.getNumber("flushTimeoutMillis");
+    this.flushTimeout = flushTimeoutMillis > 0 ? Duration.ofMillis(flushTimeoutMillis) : null;
+    if (attributes.getBoolean("compactAttributeSerialization")) {
+      this.attributeSerializer = new CompactRedisSerializer(this.classLoader);
+    }
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky.internal.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * {@link StickySessionEvents} backed by the Java Flight Recorder. Must only be loaded if {@code jdk.jfr} is
+ * available (JDK 11+, or 8u262+).
+ *
+ * @author Bernhard Frauendienst
+ */
+final class JfrStickySessionEvents extends StickySessionEvents implements FlightRecorderListener {
+
+  private static final String CATEGORY = "Spring Session";
+
+  private volatile boolean recording = false;
+
+  JfrStickySessionEvents() {
+    // invokes recorderInitialized if the flight recorder is already running
+    FlightRecorder.addListener(this);
+  }
+
+  @Override
+  public void recorderInitialized(FlightRecorder recorder) {
+    updateRecordingState(recorder);
+  }
+
+  @Override
+  public void recordingStateChanged(Recording recording) {
+    updateRecordingState(FlightRecorder.getFlightRecorder());
+  }
+
+  private void updateRecordingState(FlightRecorder recorder) {
+    boolean running = false;
+    for (Recording recording : recorder.getRecordings()) {
+      if (recording.getState() == RecordingState.RUNNING) {
+        running = true;
+        break;
+      }
+    }
+    this.recording = running;
+  }
+
+  @Override
+  public boolean isRecording() {
+    return recording;
+  }
+
+  @Override
+  public FindByIdRecording beginFindById(String sessionId) {
+    if (!recording) {
+      return NoOpRecording.EVENTS;
+    }
+    FindByIdEvent event = new FindByIdEvent();
+    if (!event.isEnabled()) {
+      return NoOpRecording.EVENTS;
+    }
+    event.sessionId = sessionId;
+    event.begin();
+    return event;
+  }
+
+  @Override
+  public SaveDelegateRecording beginSaveDelegate(String sessionId, long queueDelayNanos) {
+    if (!recording) {
+      return NoOpRecording.EVENTS;
+    }
+    SaveDelegateEvent event = new SaveDelegateEvent();
+    if (!event.isEnabled()) {
+      return NoOpRecording.EVENTS;
+    }
+    event.sessionId = sessionId;
+    event.queueDelay = queueDelayNanos;
+    event.begin();
+    return event;
+  }
+
+  @Override
+  public CacheCleanupRecording beginCacheCleanup() {
+    if (!recording) {
+      return NoOpRecording.EVENTS;
+    }
+    CacheCleanupEvent event = new CacheCleanupEvent();
+    if (!event.isEnabled()) {
+      return NoOpRecording.EVENTS;
+    }
+    event.begin();
+    return event;
+  }
+
+  @Override
+  public LastAccessedTimeRecording beginLastAccessedTime(String sessionId) {
+    if (!recording) {
+      return NoOpRecording.EVENTS;
+    }
+    LastAccessedTimeEvent event = new LastAccessedTimeEvent();
+    if (!event.isEnabled()) {
+      return NoOpRecording.EVENTS;
+    }
+    event.sessionId = sessionId;
+    event.begin();
+    return event;
+  }
+
+  @Name("org.springframework.session.sticky.FindById")
+  @Label("Sticky Session Lookup")
+  @Description("A session has been requested from the sticky session repository")
+  @Category(CATEGORY)
+  static final class FindByIdEvent extends Event implements FindByIdRecording {
+    @Label("Session Id")
+    String sessionId;
+
+    @Label("Outcome")
+    String outcome;
+
+    @Label("Found")
+    boolean found;
+
+    @Label("Monitor Wait")
+    @Timespan(Timespan.NANOSECONDS)
+    long monitorWait;
+
+    @Override
+    public void monitorAcquired(long waitNanos) {
+      this.monitorWait += waitNanos;
+    }
+
+    @Override
+    public void finish(FindByIdOutcome outcome, boolean found) {
+      end();
+      if (shouldCommit()) {
+        this.outcome = outcome.name();
+        this.found = found;
+        commit();
+      }
+    }
+  }
+
+  @Name("org.springframework.session.sticky.SaveDelegate")
+  @Label("Sticky Session Delegate Save")
+  @Description("A cached session has been saved to the remote repository")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  static final class SaveDelegateEvent extends Event implements SaveDelegateRecording {
+    @Label("Session Id")
+    String sessionId;
+
+    @Label("Queue Delay")
+    @Description("Time between the first unsaved change and the save, -1 if unknown")
+    @Timespan(Timespan.NANOSECONDS)
+    long queueDelay;
+
+    @Override
+    public void finish() {
+      end();
+      if (shouldCommit()) {
+        commit();
+      }
+    }
+  }
+
+  @Name("org.springframework.session.sticky.CacheCleanup")
+  @Label("Sticky Session Cache Cleanup")
+  @Description("Outdated entries have been removed from the sticky session cache")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  static final class CacheCleanupEvent extends Event implements CacheCleanupRecording {
+    @Label("Shards")
+    int shards;
+
+    @Label("Processed Entries")
+    int processedEntries;
+
+    @Label("Removed Entries")
+    int removedEntries;
+
+    @Label("Completed")
+    @Description("Whether all due entries have been processed")
+    boolean completed;
+
+    @Override
+    public void finish(int shards, int processedEntries, int removedEntries, boolean completed) {
+      end();
+      if (shouldCommit()) {
+        this.shards = shards;
+        this.processedEntries = processedEntries;
+        this.removedEntries = removedEntries;
+        this.completed = completed;
+        commit();
+      }
+    }
+  }
+
+  @Name("org.springframework.session.sticky.LastAccessedTime")
+  @Label("Sticky Session Revalidation Lookup")
+  @Description("The lastAccessedTime of a session has been fetched from the remote repository")
+  @Category(CATEGORY)
+  static final class LastAccessedTimeEvent extends Event implements LastAccessedTimeRecording {
+    @Label("Session Id")
+    String sessionId;
+
+    @Label("Found")
+    boolean found;
+
+    @Override
+    public void finish(boolean found) {
+      end();
+      if (shouldCommit()) {
+        this.found = found;
+        commit();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky.internal.jfr;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.BeanUtils;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Emits Java Flight Recorder events for sticky session operations, if JFR is available.
+ * <p>
+ * Every {@code begin*} method returns a recording that must be finished by the caller. While no flight recording is
+ * running (or if JFR is not available at all), a shared no-op recording is returned, so the overhead is a single
+ * volatile read.
+ *
+ * @author Bernhard Frauendienst
+ */
+public abstract class StickySessionEvents {
+
+  private static final Log logger = LogFactory.getLog(StickySessionEvents.class);
+
+  private static final String JFR_EVENTS_CLASS_NAME =
+      "org.springframework.session.sticky.internal.jfr.JfrStickySessionEvents";
+
+  private static final StickySessionEvents INSTANCE = createInstance();
+
+  /**
+   * Returns the JFR backed instance if JFR is available, a no-op instance otherwise.
+   */
+  public static StickySessionEvents getInstance() {
+    return INSTANCE;
+  }
+
+  private static StickySessionEvents createInstance() {
+    ClassLoader classLoader = StickySessionEvents.class.getClassLoader();
+    if (ClassUtils.isPresent("jdk.jfr.FlightRecorder", classLoader)) {
+      try {
+        // loaded reflectively, so this class can be linked without jdk.jfr
+        Class<?> eventsClass = ClassUtils.forName(JFR_EVENTS_CLASS_NAME, classLoader);
+        return (StickySessionEvents) BeanUtils.instantiateClass(eventsClass);
+      } catch (Throwable e) {
+        logger.debug("Flight recorder events for sticky sessions are not available.", e);
+      }
+    }
+    return NoOpRecording.EVENTS;
+  }
+
+  /**
+   * @param sessionId the id of the requested session
+   * @return the recording of a {@link org.springframework.session.sticky.StickySessionRepository#findById(String)}
+   * call
+   */
+  public abstract FindByIdRecording beginFindById(String sessionId);
+
+  /**
+   * @param sessionId       the id of the saved session
+   * @param queueDelayNanos the time the save was queued, or {@code -1} if unknown
+   * @return the recording of a save of a delegate session to the remote repository
+   */
+  public abstract SaveDelegateRecording beginSaveDelegate(String sessionId, long queueDelayNanos);
+
+  /**
+   * @return the recording of a cache cleanup pass
+   */
+  public abstract CacheCleanupRecording beginCacheCleanup();
+
+  /**
+   * @param sessionId the id of the session
+   * @return the recording of a lookup of a session's lastAccessedTime in the remote repository
+   */
+  public abstract LastAccessedTimeRecording beginLastAccessedTime(String sessionId);
+
+  /**
+   * Whether a flight recording is running. Callers can use this to skip measurements that are only needed for events.
+   */
+  public abstract boolean isRecording();
+
+  public enum FindByIdOutcome {
+    /**
+     * The session was served from the cache without revalidation
+     */
+    HIT,
+    /**
+     * The session was not cached and has been loaded from the remote repository
+     */
+    MISS,
+    /**
+     * The cached session has been revalidated and was up to date
+     */
+    REVALIDATED,
+    /**
+     * The cached session has been revalidated and its changed attributes have been merged
+     */
+    REFRESHED,
+    /**
+     * The cached session has been revalidated and was re-loaded from the remote repository
+     */
+    RELOADED,
+    /**
+     * The session was not cached, and has been restored from the second-level cache after revalidation
+     */
+    RESTORED,
+    /**
+     * The cached session was served without revalidation, because the remote repository is unavailable
+     */
+    DEGRADED,
+    /**
+     * The cached session was served, because its revalidation has not completed in time
+     */
+    TIMED_OUT
+  }
+
+  public interface FindByIdRecording {
+    /**
+     * @param waitNanos the time spent waiting for the session's monitor
+     */
+    void monitorAcquired(long waitNanos);
+
+    /**
+     * @param outcome the outcome of the lookup
+     * @param found   whether a session was returned
+     */
+    void finish(FindByIdOutcome outcome, boolean found);
+  }
+
+  public interface SaveDelegateRecording {
+    void finish();
+  }
+
+  public interface CacheCleanupRecording {
+    void finish(int shards, int processedEntries, int removedEntries, boolean completed);
+  }
+
+  public interface LastAccessedTimeRecording {
+    /**
+     * @param found whether the remote repository knows the session
+     */
+    void finish(boolean found);
+  }
+
+  static final class NoOpRecording extends StickySessionEvents implements FindByIdRecording,
+      SaveDelegateRecording, CacheCleanupRecording, LastAccessedTimeRecording {
+
+    static final NoOpRecording EVENTS = new NoOpRecording();
+
+    @Override
+    public FindByIdRecording beginFindById(String sessionId) {
+      return this;
+    }
+
+    @Override
+    public SaveDelegateRecording beginSaveDelegate(String sessionId, long queueDelayNanos) {
+      return this;
+    }
+
+    @Override
+    public CacheCleanupRecording beginCacheCleanup() {
+      return this;
+    }
+
+    @Override
+    public LastAccessedTimeRecording beginLastAccessedTime(String sessionId) {
+      return this;
+    }
+
+    @Override
+    public boolean isRecording() {
+      return false;
+    }
+
+    @Override
+    public void monitorAcquired(long waitNanos) {
+    }
+
+    @Override
+    public void finish(FindByIdOutcome outcome, boolean found) {
+    }
+
+    @Override
+    public void finish() {
+    }
+
+    @Override
+    public void finish(int shards, int processedEntries, int removedEntries, boolean completed) {
+    }
+
+    @Override
+    public void finish(boolean found) {
+    }
+  }
+}
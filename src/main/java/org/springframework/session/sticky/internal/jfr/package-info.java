@@ -0,0 +1,4 @@
+@NonNullApi
+package org.springframework.session.sticky.internal.jfr;
+
+import org.springframework.lang.NonNullApi;
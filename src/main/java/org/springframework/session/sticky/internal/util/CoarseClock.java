@@ -0,0 +1,120 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky.internal.util;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.util.Assert;
+
+/**
+ * A {@link Clock} that only reads the system time once per tick. The current time is updated by a background
+ * thread with the configured resolution, so reading it is a plain volatile read.
+ * <p>
+ * This clock is meant for hot paths that compare timestamps with a tolerance much larger than the resolution,
+ * e.g. revalidation and expiry checks of cached sessions.
+ *
+ * @author Bernhard Frauendienst
+ */
+public final class CoarseClock extends Clock implements AutoCloseable {
+
+  public static final Duration DEFAULT_RESOLUTION = Duration.ofMillis(10);
+
+  private final Ticker ticker;
+
+  private final ZoneId zone;
+
+  public CoarseClock() {
+    this(DEFAULT_RESOLUTION);
+  }
+
+  /**
+   * @param resolution the interval in which the current time is updated, must be positive
+   */
+  public CoarseClock(Duration resolution) {
+    Assert.notNull(resolution, "resolution cannot be null");
+    Assert.isTrue(!resolution.isNegative() && !resolution.isZero(), "resolution must be positive");
+    this.ticker = new Ticker(resolution);
+    this.zone = ZoneOffset.UTC;
+  }
+
+  private CoarseClock(Ticker ticker, ZoneId zone) {
+    this.ticker = ticker;
+    this.zone = zone;
+  }
+
+  @Override
+  public long millis() {
+    return ticker.millis;
+  }
+
+  @Override
+  public Instant instant() {
+    return Instant.ofEpochMilli(ticker.millis);
+  }
+
+  @Override
+  public ZoneId getZone() {
+    return zone;
+  }
+
+  /**
+   * Returns a copy of this clock with a different zone. The copy shares the background thread of this clock.
+   */
+  @Override
+  public Clock withZone(ZoneId zone) {
+    if (zone.equals(this.zone)) {
+      return this;
+    }
+    return new CoarseClock(ticker, zone);
+  }
+
+  /**
+   * Stops the background thread. The clock will not advance afterwards.
+   */
+  @Override
+  public void close() {
+    ticker.executor.shutdown();
+  }
+
+  @Override
+  public String toString() {
+    return "CoarseClock[" + zone + "]";
+  }
+
+  private static class Ticker {
+    final ScheduledExecutorService executor;
+
+    volatile long millis = System.currentTimeMillis();
+
+    Ticker(Duration resolution) {
+      this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "sticky-session-clock");
+        thread.setDaemon(true);
+        return thread;
+      });
+      long resolutionNanos = resolution.toNanos();
+      this.executor.scheduleAtFixedRate(() -> millis = System.currentTimeMillis(), resolutionNanos, resolutionNanos,
+          TimeUnit.NANOSECONDS);
+    }
+  }
+}
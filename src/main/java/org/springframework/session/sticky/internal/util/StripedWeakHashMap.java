@@ -0,0 +1,91 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky.internal.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.BiFunction;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * A thread-safe map with weak keys (compared by equality, like {@link WeakHashMap}), split into stripes that are
+ * locked independently. Entries are removed once their key is no longer strongly referenced.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ * @author Bernhard Frauendienst
+ */
+public final class StripedWeakHashMap<K, V> {
+
+  private static final int STRIPES = 16;
+
+  private final List<Map<K, V>> stripes = new ArrayList<>(STRIPES);
+
+  public StripedWeakHashMap() {
+    for (int i = 0; i < STRIPES; i++) {
+      stripes.add(new WeakHashMap<>());
+    }
+  }
+
+  public @Nullable V get(K key) {
+    Map<K, V> stripe = stripe(key);
+    synchronized (stripe) {
+      return stripe.get(key);
+    }
+  }
+
+  public void put(K key, V value) {
+    Map<K, V> stripe = stripe(key);
+    synchronized (stripe) {
+      stripe.put(key, value);
+    }
+  }
+
+  /**
+   * Atomically computes the value for the given key, see {@link Map#compute(Object, BiFunction)}.
+   *
+   * @param key               the key
+   * @param remappingFunction the function computing the new value from the key and the current value (if any)
+   * @return the new value
+   */
+  public @Nullable V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+    Map<K, V> stripe = stripe(key);
+    synchronized (stripe) {
+      return stripe.compute(key, remappingFunction);
+    }
+  }
+
+  /**
+   * @return the number of entries, including entries whose keys are no longer referenced but have not been cleared yet
+   */
+  public int size() {
+    int size = 0;
+    for (Map<K, V> stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.size();
+      }
+    }
+    return size;
+  }
+
+  private Map<K, V> stripe(K key) {
+    int hash = key.hashCode();
+    return stripes.get((hash ^ (hash >>> 16)) & (STRIPES - 1));
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky.simulation;
+
+/**
+ * A single-threaded latency histogram. Latencies are recorded in microseconds, in log-linear buckets with a precision
+ * of about 1.5%.
+ *
+ * @author Bernhard Frauendienst
+ */
+class LatencyRecorder {
+
+  private static final int SUB_BUCKETS = 64;
+
+  private final long[] counts = new long[2 * SUB_BUCKETS + 64 * SUB_BUCKETS];
+
+  private long totalCount;
+
+  private long totalNanos;
+
+  private long maxNanos;
+
+  void record(long nanos) {
+    counts[bucket(Math.max(nanos / 1000, 0))]++;
+    totalCount++;
+    totalNanos += nanos;
+    maxNanos = Math.max(maxNanos, nanos);
+  }
+
+  private static int bucket(long micros) {
+    if (micros < 2 * SUB_BUCKETS) {
+      return (int) micros;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(micros) - 6;
+    return 2 * SUB_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) ((micros >> shift) - SUB_BUCKETS);
+  }
+
+  private static long upperBound(int bucket) {
+    if (bucket < 2 * SUB_BUCKETS) {
+      return bucket + 1;
+    }
+    int shift = (bucket - 2 * SUB_BUCKETS) / SUB_BUCKETS + 1;
+    long mantissa = (bucket - 2 * SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+    return (mantissa + 1) << shift;
+  }
+
+  void add(LatencyRecorder other) {
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] += other.counts[i];
+    }
+    totalCount += other.totalCount;
+    totalNanos += other.totalNanos;
+    maxNanos = Math.max(maxNanos, other.maxNanos);
+  }
+
+  long getCount() {
+    return totalCount;
+  }
+
+  double getMeanMicros() {
+    return totalCount > 0 ? totalNanos / 1000.0 / totalCount : 0;
+  }
+
+  double getMaxMicros() {
+    return maxNanos / 1000.0;
+  }
+
+  /**
+   * @param percentile the percentile, between 0 and 100
+   * @return the upper bound of the bucket containing the percentile, in microseconds
+   */
+  long getPercentileMicros(double percentile) {
+    long rank = (long) Math.ceil(percentile / 100 * totalCount);
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank && seen > 0) {
+        return upperBound(i);
+      }
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky.simulation;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.session.sticky.AsyncDelegateSaveStrategy;
+import org.springframework.session.sticky.DeadlineDelegateSaveStrategy;
+import org.springframework.session.sticky.DelayedDelegateSaveStrategy;
+import org.springframework.session.sticky.DelegateSaveStrategy;
+import org.springframework.session.sticky.StickySessionCache;
+import org.springframework.session.sticky.StickySessionRepository;
+import org.springframework.session.sticky.StickySessionRepository.StickySession;
+import org.springframework.session.sticky.SynchronousDelegateSaveStrategy;
+import org.springframework.session.sticky.internal.util.CoarseClock;
+
+/**
+ * Drives two {@link StickySessionRepository} nodes sharing a {@link SimulatedRemoteRepository} from many threads,
+ * and reports throughput, latencies, remote repository calls and stale reads.
+ * <p>
+ * Every session is owned by one of the nodes, and a configurable share of requests is routed to the other node.
+ * Every write increments a version attribute of the session. A read is counted as stale if it returns an older
+ * version than the last one saved (on any node) before the read started.
+ * <p>
+ * Run with {@code ./gradlew simulate --args="name=value ..."}, see {@link SimulationSettings} for the settings.
+ *
+ * @author Bernhard Frauendienst
+ */
+public class LoadSimulation {
+
+  private static final String VERSION_ATTRIBUTE = "version";
+
+  private static final String PAYLOAD_ATTRIBUTE = "payload";
+
+  private final SimulationSettings settings;
+
+  private final SimulatedRemoteRepository remote;
+
+  private final Node[] nodes;
+
+  private final Clock clock;
+
+  private final String[] sessionIds;
+
+  private final AtomicLongArray savedVersions;
+
+  private final LongAdder staleReads = new LongAdder();
+
+  private final LongAdder missingSessions = new LongAdder();
+
+  private final LongAdder switchedRequests = new LongAdder();
+
+  private final LongAdder writes = new LongAdder();
+
+  private volatile boolean measuring = false;
+
+  private volatile boolean running = true;
+
+  public static void main(String[] args) throws InterruptedException {
+    SimulationSettings settings = SimulationSettings.parse(args);
+    System.out.println("Settings: " + settings.toMap());
+    new LoadSimulation(settings).run();
+  }
+
+  LoadSimulation(SimulationSettings settings) {
+    this.settings = settings;
+    this.remote = new SimulatedRemoteRepository(settings.remoteLatencyMillis, settings.remoteJitterMillis);
+    this.clock = settings.clockResolutionMillis > 0
+        ? new CoarseClock(Duration.ofMillis(settings.clockResolutionMillis)) : Clock.systemUTC();
+    this.nodes = new Node[] { new Node(), new Node() };
+    this.sessionIds = new String[settings.sessions];
+    this.savedVersions = new AtomicLongArray(settings.sessions);
+  }
+
+  void run() throws InterruptedException {
+    createSessions();
+
+    List<Thread> threads = new ArrayList<>(settings.threads);
+    List<LatencyRecorder> recorders = new ArrayList<>(settings.threads);
+    for (int i = 0; i < settings.threads; i++) {
+      LatencyRecorder recorder = new LatencyRecorder();
+      recorders.add(recorder);
+      Thread thread = new Thread(() -> runRequests(recorder), "simulation-" + i);
+      threads.add(thread);
+      thread.start();
+    }
+
+    System.out.println("Warming up for " + settings.warmupSeconds + "s...");
+    Thread.sleep(TimeUnit.SECONDS.toMillis(settings.warmupSeconds));
+    Counts warmupCounts = new Counts();
+    measuring = true;
+    long start = System.nanoTime();
+    System.out.println("Measuring for " + settings.durationSeconds + "s...");
+    Thread.sleep(TimeUnit.SECONDS.toMillis(settings.durationSeconds));
+    measuring = false;
+    long elapsedNanos = System.nanoTime() - start;
+    Counts counts = new Counts().minus(warmupCounts);
+    running = false;
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    for (Node node : nodes) {
+      node.destroy();
+    }
+    if (clock instanceof CoarseClock) {
+      ((CoarseClock) clock).close();
+    }
+
+    LatencyRecorder latencies = new LatencyRecorder();
+    recorders.forEach(latencies::add);
+    report(latencies, counts, elapsedNanos);
+  }
+
+  private void createSessions() {
+    System.out.println("Creating " + settings.sessions + " sessions...");
+    for (int i = 0; i < sessionIds.length; i++) {
+      StickySessionRepository repository = nodes[i % nodes.length].repository;
+      StickySession session = repository.createSession();
+      session.setAttribute(VERSION_ATTRIBUTE, 0L);
+      session.setAttribute(PAYLOAD_ATTRIBUTE, new byte[settings.attributeSize]);
+      repository.save(session);
+      sessionIds[i] = session.getId();
+    }
+  }
+
+  private void runRequests(LatencyRecorder recorder) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    while (running) {
+      int index = random.nextInt(sessionIds.length);
+      boolean switched = random.nextDouble() < settings.switchRatio;
+      Node node = nodes[(index + (switched ? 1 : 0)) % nodes.length];
+      boolean write = random.nextDouble() < settings.writeRatio;
+
+      long savedVersion = savedVersions.get(index);
+      long start = System.nanoTime();
+      StickySession session = node.repository.findById(sessionIds[index]);
+      long version = -1;
+      if (session != null) {
+        Long sessionVersion = session.getAttribute(VERSION_ATTRIBUTE);
+        version = sessionVersion != null ? sessionVersion : -1;
+        session.setLastAccessedTime(Instant.now());
+        if (write) {
+          session.setAttribute(VERSION_ATTRIBUTE, version + 1);
+          session.setAttribute(PAYLOAD_ATTRIBUTE, new byte[settings.attributeSize]);
+        }
+        node.repository.save(session);
+      }
+      long latency = System.nanoTime() - start;
+
+      if (session != null && write) {
+        savedVersions.accumulateAndGet(index, version + 1, Math::max);
+      }
+      if (!measuring) {
+        continue;
+      }
+      recorder.record(latency);
+      if (switched) {
+        switchedRequests.increment();
+      }
+      if (session == null) {
+        missingSessions.increment();
+      } else {
+        if (version < savedVersion) {
+          staleReads.increment();
+        }
+        if (write) {
+          writes.increment();
+        }
+      }
+    }
+  }
+
+  private void report(LatencyRecorder latencies, Counts counts, long elapsedNanos) {
+    double seconds = elapsedNanos / 1e9;
+    long requests = latencies.getCount();
+    System.out.println();
+    System.out.printf("Requests:          %d (%.0f/s), %d writes, %d switched nodes%n", requests, requests / seconds,
+        writes.sum(), switchedRequests.sum());
+    System.out.printf("Latency (us):      mean %.1f, p50 %d, p90 %d, p99 %d, p99.9 %d, max %.1f%n",
+        latencies.getMeanMicros(), latencies.getPercentileMicros(50), latencies.getPercentileMicros(90),
+        latencies.getPercentileMicros(99), latencies.getPercentileMicros(99.9), latencies.getMaxMicros());
+    System.out.printf("Remote calls:      findById %d, getLastAccessedTime %d, save %d, deleteById %d%n",
+        counts.findById, counts.getLastAccessedTime, counts.save, counts.deleteById);
+    System.out.printf("Remote calls/req:  %.3f%n",
+        requests > 0 ? (double) (counts.findById + counts.getLastAccessedTime + counts.save) / requests : 0);
+    System.out.printf("Stale reads:       %d (%.3f%%)%n", staleReads.sum(),
+        requests > 0 ? 100.0 * staleReads.sum() / requests : 0);
+    System.out.printf("Missing sessions:  %d%n", missingSessions.sum());
+  }
+
+  private DelegateSaveStrategy createSaveStrategy() {
+    switch (settings.saveStrategy) {
+      case "sync":
+        return new SynchronousDelegateSaveStrategy();
+      case "async":
+        return AsyncDelegateSaveStrategy.withFixedThreadPool(settings.asyncSaveThreads);
+      case "delayed":
+        return new DelayedDelegateSaveStrategy(new ScheduledThreadPoolExecutor(settings.asyncSaveThreads), true,
+            settings.delaySavesMillis, TimeUnit.MILLISECONDS);
+      case "deadline":
+        return new DeadlineDelegateSaveStrategy(settings.asyncSaveThreads, settings.delaySavesMillis,
+            TimeUnit.MILLISECONDS);
+      default:
+        throw new IllegalArgumentException("Unknown save strategy " + settings.saveStrategy
+            + ", expected sync, async, delayed or deadline");
+    }
+  }
+
+  private class Node {
+    final StickySessionRepository repository;
+
+    final DelegateSaveStrategy saveStrategy;
+
+    Node() {
+      StickySessionCache cache = new StickySessionCache(settings.threads);
+      cache.setClock(clock);
+      this.saveStrategy = createSaveStrategy();
+      this.repository = new StickySessionRepository(remote, cache, settings.threads);
+      this.repository.setClock(clock);
+      this.repository.setDelegateSaveStrategy(saveStrategy);
+      this.repository.setRevalidateAfter(settings.revalidateAfterMillis >= 0
+          ? Duration.ofMillis(settings.revalidateAfterMillis) : null);
+    }
+
+    void destroy() {
+      if (saveStrategy instanceof DisposableBean) {
+        try {
+          ((DisposableBean) saveStrategy).destroy();
+        } catch (Exception e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    }
+  }
+
+  private class Counts {
+    long findById = remote.findByIdCalls.sum();
+
+    long getLastAccessedTime = remote.getLastAccessedTimeCalls.sum();
+
+    long save = remote.saveCalls.sum();
+
+    long deleteById = remote.deleteByIdCalls.sum();
+
+    Counts minus(Counts other) {
+      findById -= other.findById;
+      getLastAccessedTime -= other.getLastAccessedTime;
+      save -= other.save;
+      deleteById -= other.deleteById;
+      return this;
+    }
+  }
+}
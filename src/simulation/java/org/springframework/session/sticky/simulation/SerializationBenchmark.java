@@ -0,0 +1,182 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky.simulation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.session.data.redis.CompactRedisSerializer;
+
+/**
+ * Compares the throughput and serialized size of {@link JdkSerializationRedisSerializer} and
+ * {@link CompactRedisSerializer} for a typical set of session attributes.
+ * <p>
+ * Run with {@code ./gradlew benchmarkSerialization --args="iterations=200000"}.
+ *
+ * @author Bernhard Frauendienst
+ */
+public class SerializationBenchmark {
+
+  private static final int DEFAULT_ITERATIONS = 100_000;
+
+  /**
+   * Keeps the JIT from eliminating the benchmarked code
+   */
+  private static long blackhole;
+
+  public static void main(String[] args) {
+    int iterations = DEFAULT_ITERATIONS;
+    for (String arg : args) {
+      if (!arg.startsWith("iterations=")) {
+        throw new IllegalArgumentException("Expected iterations=<n>, got " + arg);
+      }
+      iterations = Integer.parseInt(arg.substring("iterations=".length()));
+    }
+
+    Map<String, Object> attributes = createAttributes();
+    Map<String, RedisSerializer<Object>> serializers = new LinkedHashMap<>();
+    serializers.put("jdk", new JdkSerializationRedisSerializer());
+    serializers.put("compact", createCompactSerializer(true));
+    serializers.put("compact (unregistered)", createCompactSerializer(false));
+
+    System.out.println("Attributes: " + attributes.keySet() + ", " + iterations + " iterations");
+    System.out.println();
+    System.out.printf("%-24s %12s %16s %16s%n", "Serializer", "Bytes", "Serialize/s", "Deserialize/s");
+    for (Map.Entry<String, RedisSerializer<Object>> entry : serializers.entrySet()) {
+      RedisSerializer<Object> serializer = entry.getValue();
+      // warm up
+      run(serializer, attributes, iterations / 10);
+      Result result = run(serializer, attributes, iterations);
+      System.out.printf("%-24s %12d %16.0f %16.0f%n", entry.getKey(), result.bytes,
+          iterations / (result.serializeNanos / 1e9), iterations / (result.deserializeNanos / 1e9));
+    }
+  }
+
+  private static Result run(RedisSerializer<Object> serializer, Map<String, Object> attributes, int iterations) {
+    Object[] values = attributes.values().toArray();
+    byte[][] serialized = new byte[values.length][];
+    Result result = new Result();
+    for (int i = 0; i < iterations; i++) {
+      long start = System.nanoTime();
+      for (int j = 0; j < values.length; j++) {
+        serialized[j] = serializer.serialize(values[j]);
+      }
+      long serializedAt = System.nanoTime();
+      for (byte[] bytes : serialized) {
+        Object value = serializer.deserialize(bytes);
+        blackhole += value != null ? 1 : 0;
+      }
+      result.serializeNanos += serializedAt - start;
+      result.deserializeNanos += System.nanoTime() - serializedAt;
+    }
+    for (byte[] bytes : serialized) {
+      result.bytes += bytes.length;
+    }
+    return result;
+  }
+
+  private static Map<String, Object> createAttributes() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    Map<String, Object> attributes = new LinkedHashMap<>();
+    attributes.put("user", new SampleUser(random.nextLong(), "jane.doe@example.com",
+        new ArrayList<>(Arrays.asList("ROLE_USER", "ROLE_CUSTOMER"))));
+    attributes.put("locale", "de_DE");
+    attributes.put("visits", 17);
+    attributes.put("lastSearch", System.currentTimeMillis());
+    attributes.put("newsletter", Boolean.TRUE);
+    attributes.put("score", 0.75);
+    List<String> cart = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      cart.add("article-" + random.nextInt(100_000));
+    }
+    attributes.put("cart", cart);
+    Map<String, Object> preferences = new LinkedHashMap<>();
+    for (int i = 0; i < 10; i++) {
+      preferences.put("preference" + i, i % 2 == 0 ? "value" + i : i);
+    }
+    attributes.put("preferences", preferences);
+    byte[] token = new byte[64];
+    random.nextBytes(token);
+    attributes.put("token", token);
+    return attributes;
+  }
+
+  private static RedisSerializer<Object> createCompactSerializer(boolean registerSampleUser) {
+    CompactRedisSerializer serializer = new CompactRedisSerializer();
+    if (registerSampleUser) {
+      serializer.register(1, SampleUser.class, new SampleUserCodec());
+    }
+    return serializer;
+  }
+
+  private static class Result {
+    long serializeNanos;
+
+    long deserializeNanos;
+
+    long bytes;
+  }
+
+  static class SampleUser implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final long id;
+
+    final String email;
+
+    final ArrayList<String> roles;
+
+    SampleUser(long id, String email, ArrayList<String> roles) {
+      this.id = id;
+      this.email = email;
+      this.roles = roles;
+    }
+  }
+
+  static class SampleUserCodec implements CompactRedisSerializer.Codec<SampleUser> {
+    @Override
+    public void write(SampleUser value, DataOutput output) throws IOException {
+      output.writeLong(value.id);
+      output.writeUTF(value.email);
+      output.writeInt(value.roles.size());
+      for (String role : value.roles) {
+        output.writeUTF(role);
+      }
+    }
+
+    @Override
+    public SampleUser read(DataInput input) throws IOException {
+      long id = input.readLong();
+      String email = input.readUTF();
+      int roleCount = input.readInt();
+      ArrayList<String> roles = new ArrayList<>(roleCount);
+      for (int i = 0; i < roleCount; i++) {
+        roles.add(input.readUTF());
+      }
+      return new SampleUser(id, email, roles);
+    }
+  }
+}
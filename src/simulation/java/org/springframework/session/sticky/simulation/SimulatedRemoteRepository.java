@@ -0,0 +1,122 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky.simulation;
+
+import java.time.Instant;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.lang.Nullable;
+import org.springframework.session.MapSession;
+import org.springframework.session.MapSessionRepository;
+import org.springframework.session.Session;
+import org.springframework.session.SessionRepository;
+import org.springframework.session.sticky.LastAccessedTimeAccessor;
+import org.springframework.session.sticky.StickySessionRepositoryAdapter;
+
+/**
+ * A {@link MapSessionRepository} that simulates the latency of a remote repository and counts the calls made to it.
+ * It acts as its own {@link StickySessionRepositoryAdapter}, so it can be shared by multiple simulated nodes.
+ *
+ * @author Bernhard Frauendienst
+ */
+class SimulatedRemoteRepository implements SessionRepository<MapSession>, LastAccessedTimeAccessor,
+    StickySessionRepositoryAdapter<SimulatedRemoteRepository> {
+
+  private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+
+  private final MapSessionRepository repository = new MapSessionRepository(sessions);
+
+  private final long latencyNanos;
+
+  private final long jitterNanos;
+
+  final LongAdder createSessionCalls = new LongAdder();
+
+  final LongAdder findByIdCalls = new LongAdder();
+
+  final LongAdder saveCalls = new LongAdder();
+
+  final LongAdder deleteByIdCalls = new LongAdder();
+
+  final LongAdder getLastAccessedTimeCalls = new LongAdder();
+
+  SimulatedRemoteRepository(double latencyMillis, double jitterMillis) {
+    this.latencyNanos = (long) (latencyMillis * 1_000_000);
+    this.jitterNanos = (long) (jitterMillis * 1_000_000);
+  }
+
+  private void simulateLatency() {
+    long nanos = latencyNanos;
+    if (jitterNanos > 0) {
+      nanos += ThreadLocalRandom.current().nextLong(jitterNanos);
+    }
+    if (nanos > 0) {
+      LockSupport.parkNanos(nanos);
+    }
+  }
+
+  @Override
+  public MapSession createSession() {
+    // creating a session does not talk to the remote store
+    createSessionCalls.increment();
+    return repository.createSession();
+  }
+
+  @Override
+  public void save(MapSession session) {
+    saveCalls.increment();
+    simulateLatency();
+    repository.save(session);
+  }
+
+  @Override
+  @Nullable
+  public MapSession findById(String id) {
+    findByIdCalls.increment();
+    simulateLatency();
+    return repository.findById(id);
+  }
+
+  @Override
+  public void deleteById(String id) {
+    deleteByIdCalls.increment();
+    simulateLatency();
+    repository.deleteById(id);
+  }
+
+  @Override
+  @Nullable
+  public Instant getLastAccessedTime(String sessionId) {
+    getLastAccessedTimeCalls.increment();
+    simulateLatency();
+    Session session = sessions.get(sessionId);
+    return session != null ? session.getLastAccessedTime() : null;
+  }
+
+  @Override
+  public SimulatedRemoteRepository getSessionRepository() {
+    return this;
+  }
+
+  @Override
+  public void setApplicationEventPublisher(ApplicationEventPublisher eventPublisher) {
+    // the map repository does not publish events
+  }
+}
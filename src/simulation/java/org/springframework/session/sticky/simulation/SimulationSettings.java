@@ -0,0 +1,139 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky.simulation;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Settings of a {@link LoadSimulation}. Every field can be overridden by a {@code name=value} argument.
+ *
+ * @author Bernhard Frauendienst
+ */
+class SimulationSettings {
+
+  /**
+   * Number of distinct sessions
+   */
+  int sessions = 10_000;
+
+  /**
+   * Number of request threads, shared by both nodes
+   */
+  int threads = 32;
+
+  /**
+   * Seconds to run before measuring
+   */
+  int warmupSeconds = 5;
+
+  /**
+   * Seconds to measure
+   */
+  int durationSeconds = 20;
+
+  /**
+   * Share of requests that modify the session
+   */
+  double writeRatio = 0.1;
+
+  /**
+   * Size of the payload attribute in bytes
+   */
+  int attributeSize = 1024;
+
+  /**
+   * Share of requests that are routed to the node that does not own the session
+   */
+  double switchRatio = 0.01;
+
+  /**
+   * Latency of every remote repository operation
+   */
+  double remoteLatencyMillis = 0.5;
+
+  /**
+   * Maximum additional random latency of every remote repository operation
+   */
+  double remoteJitterMillis = 0.5;
+
+  /**
+   * Revalidation period, {@code -1} disables revalidation
+   */
+  long revalidateAfterMillis = 30_000;
+
+  /**
+   * One of {@code sync}, {@code async}, {@code delayed} or {@code deadline}
+   */
+  String saveStrategy = "async";
+
+  int asyncSaveThreads = 16;
+
+  long delaySavesMillis = 1000;
+
+  /**
+   * Resolution of a coarse session clock, {@code 0} uses the system clock
+   */
+  long clockResolutionMillis = 0;
+
+  static SimulationSettings parse(String[] args) {
+    SimulationSettings settings = new SimulationSettings();
+    for (String arg : args) {
+      int separator = arg.indexOf('=');
+      if (separator <= 0) {
+        throw new IllegalArgumentException("Expected name=value, got " + arg);
+      }
+      settings.set(arg.substring(0, separator).trim(), arg.substring(separator + 1).trim());
+    }
+    return settings;
+  }
+
+  private void set(String name, String value) {
+    try {
+      Field field = SimulationSettings.class.getDeclaredField(name);
+      if (field.getType() == int.class) {
+        field.setInt(this, Integer.parseInt(value));
+      } else if (field.getType() == long.class) {
+        field.setLong(this, Long.parseLong(value));
+      } else if (field.getType() == double.class) {
+        field.setDouble(this, Double.parseDouble(value));
+      } else {
+        field.set(this, value);
+      }
+    } catch (NoSuchFieldException e) {
+      throw new IllegalArgumentException("Unknown setting " + name + ", known settings are " + toMap().keySet());
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  Map<String, Object> toMap() {
+    Map<String, Object> values = new LinkedHashMap<>();
+    for (Field field : SimulationSettings.class.getDeclaredFields()) {
+      if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) {
+        continue;
+      }
+      try {
+        values.put(field.getName(), field.get(this));
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    return values;
+  }
+}
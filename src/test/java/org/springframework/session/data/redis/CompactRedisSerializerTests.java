@@ -0,0 +1,185 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.data.redis;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Bernhard Frauendienst
+ */
+class CompactRedisSerializerTests {
+
+  private final CompactRedisSerializer serializer = new CompactRedisSerializer();
+
+  private final JdkSerializationRedisSerializer jdkSerializer = new JdkSerializationRedisSerializer();
+
+  @Test
+  void nullIsWrittenAsEmptyArray() {
+    assertEquals(0, serializer.serialize(null).length);
+    assertNull(serializer.deserialize(new byte[0]));
+    assertNull(serializer.deserialize(null));
+  }
+
+  @Test
+  void scalarsRoundTrip() {
+    for (Object value : Arrays.asList("", "session \u00fc \u20ac", 0, -1, Integer.MIN_VALUE, Integer.MAX_VALUE, 0L,
+        Long.MIN_VALUE, Long.MAX_VALUE, true, false, 0.5d, Double.NaN, -0.0d)) {
+      Object read = roundTrip(value);
+      assertEquals(value, read);
+      assertSame(value.getClass(), read.getClass());
+    }
+    assertArrayEquals(new byte[] { 1, 2, -1 }, (byte[]) roundTrip(new byte[] { 1, 2, -1 }));
+  }
+
+  @Test
+  void nativeCollectionsKeepTheirTypeAndOrder() {
+    LinkedHashMap<Object, Object> linkedMap = new LinkedHashMap<>();
+    linkedMap.put("z", 1);
+    linkedMap.put("a", null);
+    linkedMap.put(3L, new ArrayList<>(Arrays.asList("nested", 2)));
+    LinkedHashSet<Object> linkedSet = new LinkedHashSet<>(Arrays.asList("c", "b", "a"));
+    HashMap<Object, Object> map = new HashMap<>();
+    map.put("map", linkedMap);
+    map.put("set", linkedSet);
+    map.put("hashSet", new HashSet<>(Arrays.asList(1, 2, 3)));
+    map.put("empty", new ArrayList<>());
+
+    @SuppressWarnings("unchecked")
+    Map<Object, Object> read = (Map<Object, Object>) roundTrip(map);
+    assertSame(HashMap.class, read.getClass());
+    assertEquals(map, read);
+    assertSame(LinkedHashMap.class, read.get("map").getClass());
+    assertEquals(new ArrayList<>(linkedMap.keySet()), new ArrayList<>(((Map<?, ?>) read.get("map")).keySet()));
+    assertSame(LinkedHashSet.class, read.get("set").getClass());
+    assertEquals(Arrays.asList("c", "b", "a"), new ArrayList<>((LinkedHashSet<?>) read.get("set")));
+    assertSame(HashSet.class, read.get("hashSet").getClass());
+  }
+
+  @Test
+  void otherTypesAreWrittenLikeJdkSerialization() {
+    Instant instant = Instant.parse("2020-06-01T12:00:00Z");
+    byte[] bytes = serializer.serialize(instant);
+    assertArrayEquals(jdkSerializer.serialize(instant), bytes);
+    assertEquals(instant, serializer.deserialize(bytes));
+
+    // nested in a native collection
+    List<Object> list = new ArrayList<>(Arrays.asList("a", instant, new TreeMap<>()));
+    assertEquals(list, roundTrip(list));
+  }
+
+  @Test
+  void readsValuesWrittenByJdkSerialization() {
+    ArrayList<Object> list = new ArrayList<>(Arrays.asList("a", 1, 2L));
+    assertEquals(list, serializer.deserialize(jdkSerializer.serialize(list)));
+    assertEquals("value", serializer.deserialize(jdkSerializer.serialize("value")));
+  }
+
+  @Test
+  void registeredTypesAreWrittenByTheirCodec() {
+    serializer.register(1, Point.class, new CompactRedisSerializer.Codec<Point>() {
+      @Override public void write(Point value, DataOutput output) throws IOException {
+        output.writeInt(value.x);
+        output.writeInt(value.y);
+      }
+
+      @Override public Point read(DataInput input) throws IOException {
+        return new Point(input.readInt(), input.readInt());
+      }
+    });
+    Point point = new Point(3, -4);
+    byte[] bytes = serializer.serialize(point);
+    assertTrue(bytes.length < jdkSerializer.serialize(point).length);
+    assertEquals(point, serializer.deserialize(bytes));
+
+    HashMap<String, Object> map = new HashMap<>();
+    map.put("point", point);
+    assertEquals(map, roundTrip(map));
+
+    // a serializer without the registration cannot read the value
+    assertThrows(SerializationException.class, () -> new CompactRedisSerializer().deserialize(bytes));
+  }
+
+  @Test
+  void registrationsMustBeUnique() {
+    CompactRedisSerializer.Codec<Point> codec = new CompactRedisSerializer.Codec<Point>() {
+      @Override public void write(Point value, DataOutput output) {
+      }
+
+      @Override public Point read(DataInput input) {
+        return null;
+      }
+    };
+    serializer.register(1, Point.class, codec);
+    assertThrows(IllegalArgumentException.class, () -> serializer.register(1, Instant.class, null));
+    assertThrows(IllegalArgumentException.class, () -> serializer.register(2, Point.class, codec));
+    assertThrows(IllegalArgumentException.class, () -> serializer.register(-1, Instant.class, null));
+  }
+
+  @Test
+  void malformedInputIsRejected() {
+    byte[] bytes = serializer.serialize("value");
+    assertThrows(SerializationException.class, () -> serializer.deserialize(Arrays.copyOf(bytes, 3)));
+    assertThrows(SerializationException.class, () -> serializer.deserialize(new byte[] { 99 }));
+  }
+
+  private Object roundTrip(Object value) {
+    return serializer.deserialize(serializer.serialize(value));
+  }
+
+  static final class Point implements Serializable {
+    final int x;
+
+    final int y;
+
+    Point(int x, int y) {
+      this.x = x;
+      this.y = y;
+    }
+
+    @Override public boolean equals(Object other) {
+      return other instanceof Point && ((Point) other).x == x && ((Point) other).y == y;
+    }
+
+    @Override public int hashCode() {
+      return Objects.hash(x, y);
+    }
+  }
+}
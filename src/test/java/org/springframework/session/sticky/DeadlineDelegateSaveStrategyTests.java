@@ -0,0 +1,151 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Bernhard Frauendienst
+ */
+class DeadlineDelegateSaveStrategyTests {
+
+  private static final Instant FAR_DEADLINE = Instant.now().plusSeconds(3600);
+
+  private final List<String> saved = new CopyOnWriteArrayList<>();
+
+  private DeadlineDelegateSaveStrategy saveStrategy;
+
+  @AfterEach
+  void tearDown() throws InterruptedException {
+    if (saveStrategy != null) {
+      saveStrategy.destroy();
+    }
+  }
+
+  @Test
+  void savesOfWaitingSessionAreMerged() throws InterruptedException {
+    saveStrategy = new DeadlineDelegateSaveStrategy(2, 1, TimeUnit.HOURS);
+    saveStrategy.queueSaveDelegate("session", FAR_DEADLINE, () -> saved.add("first"));
+    saveStrategy.queueSaveDelegate("session", FAR_DEADLINE, () -> saved.add("second"));
+    saveStrategy.queueSaveDelegate("other", FAR_DEADLINE, () -> saved.add("other"));
+    assertEquals(2, saveStrategy.getQueueSize());
+
+    saveStrategy.destroy();
+    assertEquals(2, saved.size());
+    assertTrue(saved.contains("second"));
+    assertTrue(saved.contains("other"));
+  }
+
+  @Test
+  void savesWithoutSessionIdAreNotMerged() throws InterruptedException {
+    saveStrategy = new DeadlineDelegateSaveStrategy(1, 1, TimeUnit.HOURS);
+    saveStrategy.queueSaveDelegate(() -> saved.add("first"));
+    saveStrategy.queueSaveDelegate(() -> saved.add("second"));
+    assertEquals(2, saveStrategy.getQueueSize());
+
+    saveStrategy.destroy();
+    assertEquals(2, saved.size());
+  }
+
+  @Test
+  void deadlineLimitsDelay() throws InterruptedException {
+    saveStrategy = new DeadlineDelegateSaveStrategy(1, 1, TimeUnit.HOURS);
+    CountDownLatch latch = new CountDownLatch(1);
+    saveStrategy.queueSaveDelegate("session", Instant.now(), latch::countDown);
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void earlierDeadlineReplacesWaitingSave() throws InterruptedException {
+    saveStrategy = new DeadlineDelegateSaveStrategy(1, 1, TimeUnit.HOURS);
+    CountDownLatch latch = new CountDownLatch(1);
+    saveStrategy.queueSaveDelegate("session", FAR_DEADLINE, () -> saved.add("first"));
+    saveStrategy.queueSaveDelegate("session", Instant.now(), () -> {
+      saved.add("second");
+      latch.countDown();
+    });
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+    assertEquals(0, saveStrategy.getQueueSize());
+
+    saveStrategy.destroy();
+    assertEquals(1, saved.size());
+    assertEquals("second", saved.get(0));
+  }
+
+  @Test
+  void dueSavesRunInDeadlineOrder() throws InterruptedException {
+    saveStrategy = new DeadlineDelegateSaveStrategy(1, 1, TimeUnit.HOURS);
+    CountDownLatch blocked = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Instant now = Instant.now();
+    // keep the only worker busy while the other saves become due
+    saveStrategy.queueSaveDelegate("blocking", now.minusSeconds(10), () -> {
+      blocked.countDown();
+      awaitUninterruptibly(release);
+    });
+    assertTrue(blocked.await(5, TimeUnit.SECONDS));
+    saveStrategy.queueSaveDelegate("late", now.minusSeconds(1), () -> saved.add("late"));
+    saveStrategy.queueSaveDelegate("urgent", now.minusSeconds(5), () -> saved.add("urgent"));
+    release.countDown();
+
+    saveStrategy.destroy();
+    assertEquals("urgent", saved.get(0));
+    assertEquals("late", saved.get(1));
+  }
+
+  @Test
+  void failingSaveDoesNotStopWorker() throws InterruptedException {
+    saveStrategy = new DeadlineDelegateSaveStrategy(1, 0, TimeUnit.SECONDS);
+    CountDownLatch latch = new CountDownLatch(1);
+    saveStrategy.queueSaveDelegate(() -> {
+      throw new IllegalStateException("save failed");
+    });
+    saveStrategy.queueSaveDelegate(latch::countDown);
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void destroyRunsWaitingSavesImmediately() throws InterruptedException {
+    saveStrategy = new DeadlineDelegateSaveStrategy(3, 1, TimeUnit.HOURS);
+    for (int i = 0; i < 10; i++) {
+      String sessionId = "session" + i;
+      saveStrategy.queueSaveDelegate(sessionId, FAR_DEADLINE, () -> saved.add(sessionId));
+    }
+    long start = System.nanoTime();
+    saveStrategy.destroy();
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    assertEquals(10, saved.size());
+    assertEquals(0, saveStrategy.getQueueSize());
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
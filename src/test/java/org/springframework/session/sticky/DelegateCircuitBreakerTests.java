@@ -0,0 +1,139 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.QueryTimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Bernhard Frauendienst
+ */
+class DelegateCircuitBreakerTests {
+
+  private static final RuntimeException FAILURE = new DataAccessResourceFailureException("unavailable");
+
+  private final MutableClock clock = new MutableClock(Instant.parse("2020-06-01T12:00:00Z"));
+
+  private DelegateCircuitBreaker circuitBreaker;
+
+  @BeforeEach
+  void setUp() {
+    circuitBreaker = new DelegateCircuitBreaker(3, Duration.ofSeconds(1), Duration.ofSeconds(5));
+    circuitBreaker.setClock(clock);
+  }
+
+  @Test
+  void staysClosedBelowFailureThreshold() {
+    assertTrue(circuitBreaker.recordFailure(FAILURE));
+    assertTrue(circuitBreaker.recordFailure(FAILURE));
+    assertTrue(circuitBreaker.isClosed());
+    assertTrue(circuitBreaker.allowRequest());
+
+    // a success resets the consecutive failures
+    circuitBreaker.recordSuccess();
+    assertTrue(circuitBreaker.recordFailure(FAILURE));
+    assertTrue(circuitBreaker.recordFailure(FAILURE));
+    assertTrue(circuitBreaker.isClosed());
+  }
+
+  @Test
+  void opensAtFailureThresholdAndAllowsTrialAfterOpenPeriod() {
+    open();
+    assertFalse(circuitBreaker.isClosed());
+    assertFalse(circuitBreaker.allowRequest());
+
+    clock.advance(Duration.ofMillis(999));
+    assertFalse(circuitBreaker.allowRequest());
+    clock.advance(Duration.ofMillis(1));
+    assertTrue(circuitBreaker.allowRequest());
+    assertFalse(circuitBreaker.isClosed());
+  }
+
+  @Test
+  void successfulTrialCloses() {
+    open();
+    clock.advance(Duration.ofSeconds(1));
+    circuitBreaker.recordSuccess();
+    assertTrue(circuitBreaker.isClosed());
+    assertTrue(circuitBreaker.allowRequest());
+  }
+
+  @Test
+  void failedTrialDoublesOpenPeriodUpToMaximum() {
+    open();
+    long[] expectedOpenMillis = { 2000, 4000, 5000, 5000 };
+    clock.advance(Duration.ofSeconds(1));
+    for (long openMillis : expectedOpenMillis) {
+      assertTrue(circuitBreaker.recordFailure(FAILURE));
+      clock.advance(Duration.ofMillis(openMillis - 1));
+      assertFalse(circuitBreaker.allowRequest());
+      clock.advance(Duration.ofMillis(1));
+      assertTrue(circuitBreaker.allowRequest());
+    }
+
+    // closing resets the open period
+    circuitBreaker.recordSuccess();
+    open();
+    clock.advance(Duration.ofSeconds(1));
+    assertTrue(circuitBreaker.allowRequest());
+  }
+
+  @Test
+  void failuresOfCallsStartedBeforeOpeningDoNotExtendOpenPeriod() {
+    open();
+    clock.advance(Duration.ofMillis(500));
+    assertTrue(circuitBreaker.recordFailure(FAILURE));
+    clock.advance(Duration.ofMillis(500));
+    assertTrue(circuitBreaker.allowRequest());
+  }
+
+  @Test
+  void transientExceptionsCountAsFailures() {
+    for (int i = 0; i < 3; i++) {
+      assertTrue(circuitBreaker.recordFailure(new QueryTimeoutException("timeout")));
+    }
+    assertFalse(circuitBreaker.isClosed());
+  }
+
+  @Test
+  void otherExceptionsDoNotCountAsFailures() {
+    for (int i = 0; i < 5; i++) {
+      assertFalse(circuitBreaker.recordFailure(new IllegalStateException()));
+    }
+    assertTrue(circuitBreaker.isClosed());
+
+    circuitBreaker.setFailurePredicate(e -> e instanceof IllegalStateException);
+    for (int i = 0; i < 3; i++) {
+      assertTrue(circuitBreaker.recordFailure(new IllegalStateException()));
+    }
+    assertFalse(circuitBreaker.isClosed());
+  }
+
+  private void open() {
+    for (int i = 0; i < 3; i++) {
+      assertTrue(circuitBreaker.recordFailure(FAILURE));
+    }
+    assertFalse(circuitBreaker.isClosed());
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.session.MapSession;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Bernhard Frauendienst
+ */
+class MappedFileSessionCacheTests {
+
+  private static final int SEGMENT_SIZE = 64 * 1024;
+
+  private final MutableClock clock = new MutableClock(Instant.now());
+
+  private Path directory;
+
+  private MappedFileSessionCache cache;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    directory = Files.createTempDirectory("mapped-file-session-cache-test");
+    cache = new MappedFileSessionCache(directory, SEGMENT_SIZE, 3);
+    cache.setClock(clock);
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    cache.destroy();
+    Files.deleteIfExists(directory);
+  }
+
+  @Test
+  void storesSessionsWithUnloadedAttributeNames() {
+    MapSession session = createSession("session");
+    session.setAttribute("attribute", "value");
+    cache.put(new PartialSession(session, Collections.singleton("unloaded")));
+
+    PartialSession stored = cache.get("session");
+    assertNotNull(stored);
+    assertEquals("value", stored.getSession().getAttribute("attribute"));
+    assertEquals(session.getLastAccessedTime(), stored.getSession().getLastAccessedTime());
+    assertEquals(Collections.singleton("unloaded"), stored.getUnloadedAttributeNames());
+    assertNull(cache.get("unknown"));
+  }
+
+  @Test
+  void latestPutReplacesEntry() {
+    MapSession session = createSession("session");
+    session.setAttribute("attribute", 1);
+    cache.put(new PartialSession(session, Collections.emptySet()));
+    session.setAttribute("attribute", 2);
+    cache.put(new PartialSession(session, Collections.emptySet()));
+
+    assertEquals(1, cache.size());
+    assertEquals(2, (int) cache.get("session").getSession().getAttribute("attribute"));
+
+    cache.remove("session");
+    assertNull(cache.get("session"));
+  }
+
+  @Test
+  void expiredEntriesAreSkipped() {
+    MapSession session = createSession("session");
+    session.setMaxInactiveInterval(Duration.ofMinutes(30));
+    cache.put(new PartialSession(session, Collections.emptySet()));
+
+    clock.advance(Duration.ofMinutes(29));
+    assertNotNull(cache.get("session"));
+    clock.advance(Duration.ofMinutes(1));
+    assertNull(cache.get("session"));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  void oldestSegmentIsRecycled() throws IOException {
+    for (int i = 0; i < 100; i++) {
+      MapSession session = createSession("session" + i);
+      session.setAttribute("payload", new byte[8 * 1024]);
+      cache.put(new PartialSession(session, Collections.emptySet()));
+    }
+
+    List<Path> segmentDirectories = list(directory);
+    assertEquals(1, segmentDirectories.size());
+    assertEquals(3, list(segmentDirectories.get(0)).size());
+    assertTrue(cache.size() < 100);
+    assertNull(cache.get("session0"));
+    assertNotNull(cache.get("session99"));
+    for (int i = 100 - cache.size(); i < 100; i++) {
+      assertNotNull(cache.get("session" + i), "session" + i + " is stored");
+    }
+  }
+
+  @Test
+  void oversizedAndUnserializableSessionsAreNotStored() {
+    MapSession session = createSession("session");
+    cache.put(new PartialSession(session, Collections.emptySet()));
+    session.setAttribute("payload", new byte[SEGMENT_SIZE]);
+    cache.put(new PartialSession(session, Collections.emptySet()));
+    // the previously stored version must not be served either
+    assertNull(cache.get("session"));
+
+    MapSession unserializable = createSession("unserializable");
+    unserializable.setAttribute("attribute", new Object());
+    cache.put(new PartialSession(unserializable, Collections.emptySet()));
+    assertNull(cache.get("unserializable"));
+  }
+
+  @Test
+  void everyInstanceUsesItsOwnDirectoryAndDeletesIt() throws IOException {
+    MappedFileSessionCache other = new MappedFileSessionCache(directory, SEGMENT_SIZE, 2);
+    cache.put(new PartialSession(createSession("session"), Collections.emptySet()));
+    other.put(new PartialSession(createSession("session"), Collections.emptySet()));
+    List<Path> segmentDirectories = list(directory);
+    assertEquals(2, segmentDirectories.size());
+    assertNotEquals(segmentDirectories.get(0), segmentDirectories.get(1));
+
+    other.destroy();
+    assertEquals(1, list(directory).size());
+    assertNotNull(cache.get("session"));
+
+    cache.destroy();
+    assertFalse(Files.exists(segmentDirectories.get(0)));
+    assertTrue(list(directory).isEmpty());
+  }
+
+  private MapSession createSession(String id) {
+    MapSession session = new MapSession(id);
+    session.setLastAccessedTime(clock.instant());
+    return session;
+  }
+
+  private static List<Path> list(Path directory) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.sorted().collect(Collectors.toList());
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Bernhard Frauendienst
+ */
+class RouteSuffixSessionIdStrategyTests {
+
+  private final RouteSuffixSessionIdStrategy strategy = new RouteSuffixSessionIdStrategy("node1");
+
+  @Test
+  void exposedIdCarriesRoute() {
+    assertEquals("4c8a0d3e.node1", strategy.exposeSessionId("4c8a0d3e"));
+    assertEquals("4c8a0d3e", strategy.resolveSessionId("4c8a0d3e.node1"));
+    assertTrue(strategy.isLocal("4c8a0d3e.node1"));
+  }
+
+  @Test
+  void foreignRouteIsResolvedButNotLocal() {
+    assertEquals("4c8a0d3e", strategy.resolveSessionId("4c8a0d3e.node2"));
+    assertFalse(strategy.isLocal("4c8a0d3e.node2"));
+    // a route that merely ends with ours
+    assertFalse(strategy.isLocal("4c8a0d3e.xnode1"));
+  }
+
+  @Test
+  void idWithoutRouteIsUnchangedAndNotLocal() {
+    assertEquals("4c8a0d3e", strategy.resolveSessionId("4c8a0d3e"));
+    assertFalse(strategy.isLocal("4c8a0d3e"));
+    assertFalse(strategy.isLocal(".node1"));
+  }
+
+  @Test
+  void customSeparator() {
+    RouteSuffixSessionIdStrategy custom = new RouteSuffixSessionIdStrategy("node.1", '~');
+    assertEquals("node.1", custom.getRoute());
+    assertEquals("4c8a0d3e~node.1", custom.exposeSessionId("4c8a0d3e"));
+    assertEquals("4c8a0d3e", custom.resolveSessionId("4c8a0d3e~node.1"));
+    assertTrue(custom.isLocal("4c8a0d3e~node.1"));
+  }
+
+  @Test
+  void routeCannotContainSeparator() {
+    assertThrows(IllegalArgumentException.class, () -> new RouteSuffixSessionIdStrategy("node.1"));
+    assertThrows(IllegalArgumentException.class, () -> new RouteSuffixSessionIdStrategy(""));
+  }
+}
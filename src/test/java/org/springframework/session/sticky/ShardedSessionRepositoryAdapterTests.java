@@ -0,0 +1,188 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.session.MapSession;
+import org.springframework.session.MapSessionRepository;
+import org.springframework.session.Session;
+import org.springframework.session.events.SessionDeletedEvent;
+import org.springframework.session.events.SessionExpiredEvent;
+import org.springframework.session.sticky.ShardedSessionRepositoryAdapter.ShardedSession;
+import org.springframework.session.sticky.ShardedSessionRepositoryAdapter.ShardedSessionRepository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Bernhard Frauendienst
+ */
+class ShardedSessionRepositoryAdapterTests {
+
+  private final Map<String, MapShardAdapter> shards = new LinkedHashMap<>();
+
+  private final List<Object> events = new ArrayList<>();
+
+  private ShardedSessionRepositoryAdapter adapter;
+
+  private ShardedSessionRepository repository;
+
+  @BeforeEach
+  void setUp() {
+    for (String name : new String[] { "a", "b", "c" }) {
+      shards.put(name, new MapShardAdapter());
+    }
+    adapter = new ShardedSessionRepositoryAdapter(shards);
+    adapter.setApplicationEventPublisher(events::add);
+    repository = adapter.getSessionRepository();
+  }
+
+  @Test
+  void createdSessionsAreSpreadOverAllShards() {
+    for (int i = 0; i < 300; i++) {
+      repository.save(repository.createSession());
+    }
+    for (MapShardAdapter shard : shards.values()) {
+      assertTrue(shard.sessions.size() > 50, "shard holds " + shard.sessions.size() + " of 300 sessions");
+    }
+  }
+
+  @Test
+  void shardedIdIsRoutedToItsShard() {
+    ShardedSession session = repository.createSession();
+    session.setAttribute("attribute", "value");
+    repository.save(session);
+
+    String shardName = session.getShardName();
+    String remoteId = session.getId().substring(0, session.getId().length() - shardName.length() - 1);
+    assertEquals(remoteId + ShardedSessionRepositoryAdapter.SEPARATOR + shardName, session.getId());
+    assertNotNull(shards.get(shardName).sessions.get(remoteId));
+    for (Map.Entry<String, MapShardAdapter> shard : shards.entrySet()) {
+      if (!shard.getKey().equals(shardName)) {
+        assertNull(shard.getValue().sessions.get(remoteId));
+      }
+    }
+
+    ShardedSession found = repository.findById(session.getId());
+    assertNotNull(found);
+    assertEquals(session.getId(), found.getId());
+    assertEquals("value", found.getAttribute("attribute"));
+    assertEquals(session.getLastAccessedTime(), adapter.getLastAccessedTime(session.getId()));
+
+    repository.deleteById(session.getId());
+    assertNull(shards.get(shardName).sessions.get(remoteId));
+    assertNull(repository.findById(session.getId()));
+  }
+
+  @Test
+  void changeSessionIdKeepsShard() {
+    ShardedSession session = repository.createSession();
+    repository.save(session);
+    String shardName = session.getShardName();
+    String oldId = session.getId();
+
+    String newId = session.changeSessionId();
+    repository.save(session);
+
+    assertNotEquals(oldId, newId);
+    assertEquals(newId, session.getId());
+    assertTrue(newId.endsWith(ShardedSessionRepositoryAdapter.SEPARATOR + shardName));
+    assertEquals(shardName, repository.findById(newId).getShardName());
+    assertNull(repository.findById(oldId));
+    assertEquals(1, shards.get(shardName).sessions.size());
+  }
+
+  @Test
+  void unsuffixedIdsAreLocatedByHash() {
+    Set<String> usedShards = new HashSet<>();
+    for (int i = 0; i < 30; i++) {
+      String id = "legacy-session-" + i;
+      // store the session on every shard, so the attribute tells which one was asked
+      shards.forEach((name, shard) -> {
+        MapSession session = new MapSession(id);
+        session.setAttribute("shard", name);
+        shard.repository.save(session);
+      });
+
+      ShardedSession found = repository.findById(id);
+      assertNotNull(found);
+      assertEquals(found.getShardName(), found.getAttribute("shard"));
+      assertEquals(found.getShardName(), repository.findById(id).getShardName(), "hashing is stable");
+      usedShards.add(found.getShardName());
+    }
+    assertEquals(shards.keySet(), usedShards);
+  }
+
+  @Test
+  void unknownSuffixIsPartOfTheRemoteId() {
+    String id = "legacy_unknown";
+    shards.values().forEach(shard -> shard.repository.save(new MapSession(id)));
+
+    ShardedSession found = repository.findById(id);
+    assertNotNull(found);
+    assertEquals(id + ShardedSessionRepositoryAdapter.SEPARATOR + found.getShardName(), found.getId());
+  }
+
+  @Test
+  void shardEventsAreRepublishedWithShardedIds() {
+    MapShardAdapter shard = shards.get("b");
+    MapSession remoteSession = new MapSession("remote");
+    shard.eventPublisher.publishEvent(new SessionExpiredEvent(shard.repository, remoteSession));
+    shard.eventPublisher.publishEvent(new SessionDeletedEvent(shard.repository, remoteSession));
+    // other events are ignored
+    shard.eventPublisher.publishEvent(new Object());
+
+    assertEquals(2, events.size());
+    SessionExpiredEvent expired = (SessionExpiredEvent) events.get(0);
+    assertSame(repository, expired.getSource());
+    assertEquals("remote_b", expired.getSessionId());
+    assertEquals("b", expired.<ShardedSession>getSession().getShardName());
+    SessionDeletedEvent deleted = (SessionDeletedEvent) events.get(1);
+    assertSame(repository, deleted.getSource());
+    assertEquals("remote_b", deleted.getSessionId());
+  }
+
+  private static final class MapShardAdapter implements StickySessionRepositoryAdapter<MapSessionRepository> {
+
+    final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    final MapSessionRepository repository = new MapSessionRepository(sessions);
+
+    ApplicationEventPublisher eventPublisher;
+
+    @Override public MapSessionRepository getSessionRepository() {
+      return repository;
+    }
+
+    @Override public void setApplicationEventPublisher(ApplicationEventPublisher eventPublisher) {
+      this.eventPublisher = eventPublisher;
+    }
+  }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.session.sticky;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.lang.Nullable;
+import org.springframework.session.MapSession;
+import org.springframework.session.MapSessionRepository;
+import org.springframework.session.SaveMode;
+import org.springframework.session.Session;
+import org.springframework.session.sticky.StickySessionRepository.StickySession;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests the revalidation and save paths of {@link StickySessionRepository} against a {@link MapSessionRepository}.
+ *
+ * @author Bernhard Frauendienst
+ */
+class StickySessionRepositoryTests {
+
+  private final Map<String, Session> remoteSessions = new ConcurrentHashMap<>();
+
+  private final MapRepositoryAdapter adapter = new MapRepositoryAdapter();
+
+  private final MutableClock clock = new MutableClock(Instant.now());
+
+  private final List<Runnable> queuedSaves = new ArrayList<>();
+
+  private StickySessionRepository repository;
+
+  @BeforeEach
+  void setUp() {
+    repository = new StickySessionRepository(adapter, new StickySessionCache(4), 4);
+    repository.setClock(clock);
+    repository.setRevalidateAfter(Duration.ofSeconds(10));
+  }
+
+  @Test
+  void cachedSessionIsServedWithinRevalidationPeriod() {
+    String id = createRemoteSession("value");
+    assertEquals("value", repository.findById(id).getAttribute("attribute"));
+    updateRemoteSession(id, "changed");
+
+    clock.advance(Duration.ofSeconds(9));
+    assertEquals("value", repository.findById(id).getAttribute("attribute"));
+    assertEquals(0, adapter.lastAccessedTimeLookups.get());
+  }
+
+  @Test
+  void changedSessionIsReloadedAfterRevalidationPeriod() {
+    String id = createRemoteSession("value");
+    repository.findById(id);
+    updateRemoteSession(id, "changed");
+
+    clock.advance(Duration.ofSeconds(11));
+    assertEquals("changed", repository.findById(id).getAttribute("attribute"));
+    assertEquals(1, adapter.lastAccessedTimeLookups.get());
+  }
+
+  @Test
+  void unchangedSessionIsRevalidatedWithoutLoading() {
+    String id = createRemoteSession("value");
+    repository.findById(id);
+    int loads = adapter.loads.get();
+
+    clock.advance(Duration.ofSeconds(11));
+    assertEquals("value", repository.findById(id).getAttribute("attribute"));
+    assertEquals(1, adapter.lastAccessedTimeLookups.get());
+    assertEquals(loads, adapter.loads.get());
+  }
+
+  @Test
+  void deletedSessionIsRemovedOnRevalidation() {
+    String id = createRemoteSession("value");
+    repository.findById(id);
+    remoteSessions.remove(id);
+
+    clock.advance(Duration.ofSeconds(11));
+    assertNull(repository.findById(id));
+  }
+
+  @Test
+  void disabledRevalidationAlwaysServesCachedSession() {
+    repository.setRevalidateAfter(null);
+    String id = createRemoteSession("value");
+    repository.findById(id);
+    updateRemoteSession(id, "changed");
+
+    // within the max inactive interval
+    clock.advance(Duration.ofMinutes(20));
+    assertEquals("value", repository.findById(id).getAttribute("attribute"));
+    assertEquals(0, adapter.lastAccessedTimeLookups.get());
+  }
+
+  @Test
+  void rejectedRevalidationServesCachedSession() {
+    repository.setRevalidateTimeout(Duration.ofSeconds(1), command -> {
+      throw new RejectedExecutionException();
+    });
+    String id = createRemoteSession("value");
+    repository.findById(id);
+    updateRemoteSession(id, "changed");
+
+    clock.advance(Duration.ofSeconds(11));
+    assertEquals("value", repository.findById(id).getAttribute("attribute"));
+  }
+
+  @Test
+  void timedOutRevalidationServesCachedSessionAndIsAppliedLater() {
+    List<Runnable> revalidations = new ArrayList<>();
+    repository.setRevalidateTimeout(Duration.ofMillis(10), revalidations::add);
+    String id = createRemoteSession("value");
+    repository.findById(id);
+    updateRemoteSession(id, "changed");
+
+    clock.advance(Duration.ofSeconds(11));
+    assertEquals("value", repository.findById(id).getAttribute("attribute"));
+    assertEquals(1, revalidations.size());
+    // while the revalidation is pending, no other one is started
+    assertEquals("value", repository.findById(id).getAttribute("attribute"));
+    assertEquals(1, revalidations.size());
+
+    revalidations.get(0).run();
+    assertEquals("changed", repository.findById(id).getAttribute("attribute"));
+  }
+
+  @Test
+  void savesAreQueuedUnlessCriticalAttributesAreSet() {
+    repository.setDelegateSaveStrategy(queuedSaves::add);
+    repository.setCriticalAttributeNames(Arrays.asList("SPRING_SECURITY_*", "critical"));
+    StickySession session = repository.createSession();
+    session.setAttribute("attribute", "value");
+    repository.save(session);
+    String id = session.getId();
+    assertNull(remoteSessions.get(id));
+    assertEquals(1, queuedSaves.size());
+
+    session = repository.findById(id);
+    session.setAttribute("SPRING_SECURITY_CONTEXT", "context");
+    repository.save(session);
+    Session remote = remoteSessions.get(id);
+    assertNotNull(remote);
+    assertEquals("context", remote.getAttribute("SPRING_SECURITY_CONTEXT"));
+    assertEquals("value", remote.getAttribute("attribute"));
+
+    // the queued save has nothing left to do
+    runQueuedSaves();
+    assertEquals("context", remoteSessions.get(id).getAttribute("SPRING_SECURITY_CONTEXT"));
+  }
+
+  @Test
+  void removingCriticalAttributeIsSavedImmediately() {
+    repository.setDelegateSaveStrategy(queuedSaves::add);
+    repository.setCriticalAttributeNames(Arrays.asList("critical"));
+    StickySession session = repository.createSession();
+    session.setAttribute("critical", "value");
+    repository.save(session);
+    String id = session.getId();
+    assertEquals("value", remoteSessions.get(id).getAttribute("critical"));
+
+    session = repository.findById(id);
+    session.removeAttribute("critical");
+    repository.save(session);
+    assertNull(remoteSessions.get(id).getAttribute("critical"));
+  }
+
+  @Test
+  void criticalAttributesSavedOnlyBecauseOfSaveModeAreNotCritical() {
+    repository.setDelegateSaveStrategy(queuedSaves::add);
+    repository.setCriticalAttributeNames(Arrays.asList("critical"));
+    repository.setSaveMode(SaveMode.ALWAYS);
+    String id = createRemoteSession("value");
+    updateRemoteSession(id, "value", "critical", "saved");
+
+    StickySession session = repository.findById(id);
+    session.setAttribute("attribute", "changed");
+    repository.save(session);
+    assertEquals("value", remoteSessions.get(id).getAttribute("attribute"));
+    assertEquals(1, queuedSaves.size());
+
+    runQueuedSaves();
+    assertEquals("changed", remoteSessions.get(id).getAttribute("attribute"));
+  }
+
+  private String createRemoteSession(String value) {
+    MapSession session = new MapSession();
+    session.setLastAccessedTime(clock.instant());
+    session.setAttribute("attribute", value);
+    remoteSessions.put(session.getId(), session);
+    return session.getId();
+  }
+
+  /**
+   * Simulates a request served by another node.
+   */
+  private void updateRemoteSession(String id, String value, Object... otherAttributes) {
+    MapSession session = new MapSession(remoteSessions.get(id));
+    session.setLastAccessedTime(clock.instant().plusSeconds(1));
+    session.setAttribute("attribute", value);
+    for (int i = 0; i < otherAttributes.length; i += 2) {
+      session.setAttribute((String) otherAttributes[i], otherAttributes[i + 1]);
+    }
+    remoteSessions.put(id, session);
+  }
+
+  private void runQueuedSaves() {
+    List<Runnable> saves = new ArrayList<>(queuedSaves);
+    queuedSaves.clear();
+    saves.forEach(Runnable::run);
+  }
+
+  private final class MapRepositoryAdapter
+      implements StickySessionRepositoryAdapter<MapSessionRepository>, LastAccessedTimeAccessor {
+
+    final AtomicInteger lastAccessedTimeLookups = new AtomicInteger();
+
+    final AtomicInteger loads = new AtomicInteger();
+
+    final MapSessionRepository repository = new MapSessionRepository(remoteSessions) {
+      @Override public MapSession findById(String id) {
+        loads.incrementAndGet();
+        return super.findById(id);
+      }
+    };
+
+    @Override public MapSessionRepository getSessionRepository() {
+      return repository;
+    }
+
+    @Override public void setApplicationEventPublisher(ApplicationEventPublisher eventPublisher) {
+    }
+
+    @Override public @Nullable Instant getLastAccessedTime(String sessionId) {
+      lastAccessedTimeLookups.incrementAndGet();
+      Session session = remoteSessions.get(sessionId);
+      return session != null ? session.getLastAccessedTime() : null;
+    }
+  }
+}